@@ -1,6 +1,7 @@
 package csse2002.math;
 
 import java.math.BigInteger;
+import java.util.*;
 
 /**
  * <p>
@@ -23,14 +24,55 @@ public class BigFraction implements Comparable<BigFraction> {
 	/** The fraction constant one. */
 	public final static BigFraction ONE = new BigFraction(1);
 
-	// fraction numerator in reduced normal form
+	// the largest denominator of the fractions pre-seeded in SEEDED
+	private final static int SEEDED_DENOMINATOR = 12;
+	// SEEDED[m][n] is the fraction n/m, for every fraction in reduced normal
+	// form with 0 <= n <= m <= SEEDED_DENOMINATOR (other entries are null)
+	private final static BigFraction[][] SEEDED = seed();
+	// the maximum number of fractions held in CACHE
+	private final static int CACHE_SIZE = 1024;
+	// canonical instances of recently requested fractions, keyed by their
+	// reduced numerator and denominator (see key), in least-recently-used
+	// order so that the eldest entry is evicted once CACHE_SIZE is exceeded
+	private final static Map<Long, BigFraction> CACHE = new LinkedHashMap<Long, BigFraction>(
+			CACHE_SIZE * 4 / 3 + 1, 0.75f, true) {
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Long, BigFraction> e) {
+			return size() > CACHE_SIZE;
+		}
+	};
+
+	/*
+	 * Almost every fraction we deal with has a numerator and denominator that
+	 * fit in a long, so these are stored as primitives and the BigInteger
+	 * representation is only used once an operation would overflow a long.
+	 */
+
+	// true iff the fraction is held in n and m rather than in ln and lm
+	private boolean big;
+	// fraction numerator in reduced normal form, when big is false
+	private long ln;
+	// fraction denominator in reduced normal form, when big is false
+	private long lm;
+	// fraction numerator in reduced normal form (created lazily if !big)
 	private BigInteger n;
-	// fraction denominator in reduced normal form
+	// fraction denominator in reduced normal form (created lazily if !big)
 	private BigInteger m;
+	// an approximation of the value of the fraction, within a relative error
+	// of APPROX_ERROR, or NaN if no such approximation exists (used when big)
+	private double approx;
+
+	// the relative error allowed in the approximation of a fraction
+	private final static double APPROX_ERROR = 0x1p-50;
+	// the smallest magnitude of a non-zero approximation (well clear of the
+	// subnormal range, where the relative error is not bounded)
+	private final static double APPROX_MIN = 0x1p-900;
 
 	/*
-	 * invariant: numerator n and denominator m of the fraction are in reduced
-	 * normal form after constructor is complete.
+	 * invariant: numerator and denominator of the fraction are in reduced
+	 * normal form after constructor is complete &&
+	 * 
+	 * big iff either the numerator or denominator does not fit in a long.
 	 */
 
 	/**
@@ -58,7 +100,122 @@ public class BigFraction implements Comparable<BigFraction> {
 	 */
 	public BigFraction(int numerator, int denominator)
 			throws InvalidFractionException {
-		this(BigInteger.valueOf(numerator), BigInteger.valueOf(denominator));
+		this((long) numerator, (long) denominator);
+	}
+
+	/**
+	 * Returns a fraction with value equivalent to numerator. Unlike the
+	 * constructor, this method may return a shared instance.
+	 * 
+	 * @param numerator
+	 *            The given numerator.
+	 * @return A fraction equal to numerator.
+	 */
+	public static BigFraction valueOf(int numerator) {
+		return valueOf(numerator, 1);
+	}
+
+	/**
+	 * Returns a fraction with value equivalent to numerator divided by
+	 * denominator. Unlike the constructor, this method may return a shared
+	 * instance: fractions in [0,1] with small denominators are always shared,
+	 * and other recently requested fractions are shared while they remain in a
+	 * bounded cache. An InvalidFractionException is thrown if the given
+	 * denominator is zero.
+	 * 
+	 * @param numerator
+	 *            The given numerator.
+	 * @param denominator
+	 *            The given denominator.
+	 * @return A fraction equal to numerator divided by denominator.
+	 * @throws InvalidFractionException
+	 *             If the given denominator equals 0.
+	 */
+	public static BigFraction valueOf(int numerator, int denominator)
+			throws InvalidFractionException {
+		if (denominator == 0) {
+			throw new InvalidFractionException("Denominator cannot be zero.");
+		}
+		// reduced normal form of numerator/denominator (which cannot overflow
+		// a long)
+		long n = numerator, m = denominator;
+		if (n == 0) {
+			m = 1;
+		} else {
+			if (m < 0) {
+				m = -m;
+				n = -n;
+			}
+			long d = gcd(n, m); // the gcd of n and m
+			n = n / d;
+			m = m / d;
+		}
+		if (n >= 0 && n <= m && m <= SEEDED_DENOMINATOR) {
+			return SEEDED[(int) m][(int) n];
+		}
+		if (n != (int) n || m != (int) m) {
+			// n or m is 2^31 (from Integer.MIN_VALUE), which has no key
+			return reduced(n, m);
+		}
+		Long key = key(n, m); // the key of n/m in CACHE
+		synchronized (CACHE) {
+			BigFraction f = CACHE.get(key);
+			if (f == null) {
+				f = reduced(n, m);
+				CACHE.put(key, f);
+			}
+			return f;
+		}
+	}
+
+	/**
+	 * Returns the CACHE key for int-valued numerator n and denominator m.
+	 */
+	private static Long key(long n, long m) {
+		return Long.valueOf((n << 32) | (m & 0xffffffffL));
+	}
+
+	/**
+	 * Returns the table of pre-seeded fractions (see SEEDED).
+	 */
+	private static BigFraction[][] seed() {
+		BigFraction[][] seeded = new BigFraction[SEEDED_DENOMINATOR + 1][];
+		for (int m = 1; m <= SEEDED_DENOMINATOR; m++) {
+			seeded[m] = new BigFraction[m + 1];
+			for (int n = 0; n <= m; n++) {
+				if (gcd(n, m) == 1) {
+					// share the existing constants for zero and one
+					seeded[m][n] = (m == 1 ? (n == 0 ? ZERO : ONE) : reduced(n,
+							m));
+				}
+			}
+		}
+		return seeded;
+	}
+
+	/**
+	 * Creates a new fraction in reduced normal form, with value equivalent to n
+	 * divided by m. An InvalidFractionException is thrown if the given
+	 * denominator is zero.
+	 * 
+	 * @param n
+	 *            The given numerator.
+	 * @param m
+	 *            The given denominator.
+	 * @throws InvalidFractionException
+	 *             If the given denominator m equals 0.
+	 */
+	private BigFraction(long n, long m) throws InvalidFractionException {
+		// check that denominator is non-zero
+		if (m == 0) {
+			throw new InvalidFractionException("Denominator cannot be zero.");
+		}
+		if (m < 0 && (n == Long.MIN_VALUE || m == Long.MIN_VALUE)) {
+			// negating either value would overflow a long
+			setBig(BigInteger.valueOf(n), BigInteger.valueOf(m));
+		} else {
+			setSmall(n, m);
+		}
 	}
 
 	/**
@@ -75,14 +232,86 @@ public class BigFraction implements Comparable<BigFraction> {
 	 */
 	private BigFraction(BigInteger n, BigInteger m)
 			throws InvalidFractionException {
-		this.n = n;
-		this.m = m;
 		// check that denominator is non-zero
-		if (m.equals(BigInteger.ZERO)) {
+		if (m.signum() == 0) {
 			throw new InvalidFractionException("Denominator cannot be zero.");
 		}
-		// update n and m so that they are in reduced normal form
+		setBig(n, m);
+	}
+
+	/**
+	 * Creates a new fraction whose numerator n and denominator m are already in
+	 * reduced normal form.
+	 */
+	private BigFraction(long n, long m, boolean reduced) {
+		ln = n;
+		lm = m;
+	}
+
+	/**
+	 * Sets this to the long-valued fraction n/m in reduced normal form. We
+	 * assume that m is not zero, and that n and m can both be negated if m is
+	 * negative.
+	 */
+	private void setSmall(long n, long m) {
+		if (n == 0) {
+			// if n is zero then set m to be one
+			m = 1;
+		} else {
+			// correct so that numerator is non-negative
+			if (m < 0) {
+				m = -m;
+				n = -n;
+			}
+			// reduce n and m by their greatest common divisor
+			long d = gcd(n, m); // the gcd of n and m
+			n = n / d;
+			m = m / d;
+		}
+		ln = n;
+		lm = m;
+	}
+
+	/**
+	 * Sets this to the fraction n/m in reduced normal form, using the long
+	 * representation if the reduced numerator and denominator fit in a long. We
+	 * assume that m is not zero.
+	 */
+	private void setBig(BigInteger n, BigInteger m) {
+		this.n = n;
+		this.m = m;
 		getNormalForm();
+		if (this.n.bitLength() < Long.SIZE && this.m.bitLength() < Long.SIZE) {
+			ln = this.n.longValue();
+			lm = this.m.longValue();
+		} else {
+			big = true;
+			// each doubleValue, and the quotient, are correctly rounded, so
+			// the relative error is at most 3 * 2^-53
+			approx = checkApproximation(this.n.doubleValue()
+					/ this.m.doubleValue());
+		}
+	}
+
+	/**
+	 * Returns a, or NaN if a is not a usable approximation of a non-zero
+	 * fraction.
+	 */
+	private static double checkApproximation(double a) {
+		return (Math.abs(a) >= APPROX_MIN && !Double.isInfinite(a) ? a
+				: Double.NaN);
+	}
+
+	/**
+	 * Returns an approximation of the value of this, within a relative error
+	 * of APPROX_ERROR, or NaN if no such approximation exists.
+	 */
+	private double approximation() {
+		if (big) {
+			return approx;
+		}
+		// each conversion and the quotient are correctly rounded
+		return (ln == 0 ? 0.0 : checkApproximation((double) ln / (double) lm));
 	}
 
 	/**
@@ -107,6 +336,18 @@ public class BigFraction implements Comparable<BigFraction> {
 		}
 	}
 
+	/**
+	 * Returns the greatest common divisor of a and b, where b is positive.
+	 */
+	static long gcd(long a, long b) {
+		while (b != 0) {
+			long t = a % b;
+			a = b;
+			b = t;
+		}
+		return Math.abs(a);
+	}
+
 	/**
 	 * Returns a new fraction equal to this plus f.
 	 * 
@@ -115,10 +356,18 @@ public class BigFraction implements Comparable<BigFraction> {
 	 * @return The value of this added to f.
 	 */
 	public BigFraction add(BigFraction f) {
+		if (!big && !f.big) {
+			try {
+				return addSmall(f.ln, f.lm);
+			} catch (ArithmeticException e) {
+				// overflow: fall through to the BigInteger representation
+			}
+		}
 		// numerator of result
-		BigInteger nr = n.multiply(f.m).add(f.n.multiply(m));
+		BigInteger nr = getNumerator().multiply(f.getDenominator()).add(
+				f.getNumerator().multiply(getDenominator()));
 		// denominator of result
-		BigInteger mr = m.multiply(f.m);
+		BigInteger mr = getDenominator().multiply(f.getDenominator());
 		return new BigFraction(nr, mr);
 	}
 
@@ -130,13 +379,44 @@ public class BigFraction implements Comparable<BigFraction> {
 	 * @return The value of this minus f.
 	 */
 	public BigFraction subtract(BigFraction f) {
+		if (!big && !f.big && f.ln != Long.MIN_VALUE) {
+			try {
+				return addSmall(-f.ln, f.lm);
+			} catch (ArithmeticException e) {
+				// overflow: fall through to the BigInteger representation
+			}
+		}
 		// numerator of result
-		BigInteger nr = n.multiply(f.m).subtract(f.n.multiply(m));
+		BigInteger nr = getNumerator().multiply(f.getDenominator()).subtract(
+				f.getNumerator().multiply(getDenominator()));
 		// denominator of result
-		BigInteger mr = m.multiply(f.m);
+		BigInteger mr = getDenominator().multiply(f.getDenominator());
 		return new BigFraction(nr, mr);
 	}
 
+	/**
+	 * Returns this plus n2/m2, where this is long-valued and n2/m2 is in
+	 * reduced normal form. The denominators are reduced by their gcd before
+	 * multiplying (Knuth, TAOCP 4.5.1), so that the result is already in
+	 * reduced normal form and intermediate values stay small.
+	 * 
+	 * @throws ArithmeticException
+	 *             If an intermediate value overflows a long.
+	 */
+	private BigFraction addSmall(long n2, long m2) {
+		long n1 = ln, m1 = lm;
+		long d1 = gcd(m1, m2); // the gcd of the denominators
+		if (d1 == 1) {
+			long nr = Math.addExact(Math.multiplyExact(n1, m2),
+					Math.multiplyExact(n2, m1));
+			return reduced(nr, Math.multiplyExact(m1, m2));
+		}
+		long t = Math.addExact(Math.multiplyExact(n1, m2 / d1),
+				Math.multiplyExact(n2, m1 / d1));
+		long d2 = gcd(t, d1);
+		return reduced(t / d2, Math.multiplyExact(m1 / d1, m2 / d2));
+	}
+
 	/**
 	 * Returns a new fraction equal to this multiplied by f.
 	 * 
@@ -145,11 +425,38 @@ public class BigFraction implements Comparable<BigFraction> {
 	 * @return The value of this multiplied by f.
 	 */
 	public BigFraction multiply(BigFraction f) {
-		BigInteger nr = n.multiply(f.n); // numerator of result
-		BigInteger mr = m.multiply(f.m); // denominator of result
+		if (!big && !f.big) {
+			try {
+				return multiplySmall(f.ln, f.lm);
+			} catch (ArithmeticException e) {
+				// overflow: fall through to the BigInteger representation
+			}
+		}
+		// numerator of result
+		BigInteger nr = getNumerator().multiply(f.getNumerator());
+		// denominator of result
+		BigInteger mr = getDenominator().multiply(f.getDenominator());
 		return new BigFraction(nr, mr);
 	}
 
+	/**
+	 * Returns this multiplied by n2/m2, where this is long-valued and n2/m2 is
+	 * in reduced normal form. Numerators and denominators are cross-reduced
+	 * before multiplying, so that the result is already in reduced normal form.
+	 * 
+	 * @throws ArithmeticException
+	 *             If an intermediate value overflows a long.
+	 */
+	private BigFraction multiplySmall(long n2, long m2) {
+		if (ln == 0 || n2 == 0) {
+			return ZERO;
+		}
+		long d1 = gcd(ln, m2); // the gcd of this numerator and m2
+		long d2 = gcd(n2, lm); // the gcd of n2 and this denominator
+		return reduced(Math.multiplyExact(ln / d1, n2 / d2), Math
+				.multiplyExact(lm / d2, m2 / d1));
+	}
+
 	/**
 	 * Returns a new fraction equal to this divided by f.
 	 * 
@@ -160,17 +467,193 @@ public class BigFraction implements Comparable<BigFraction> {
 	 *             Thrown if the resulting denominator is zero.
 	 */
 	public BigFraction divide(BigFraction f) throws InvalidFractionException {
-		BigInteger nr = n.multiply(f.m); // numerator of result
-		BigInteger mr = m.multiply(f.n); // denominator of result
+		if (!big && !f.big) {
+			if (f.ln == 0) {
+				throw new InvalidFractionException(
+						"Denominator cannot be zero.");
+			}
+			if (f.ln != Long.MIN_VALUE) {
+				try {
+					// multiply by the reciprocal of f, in reduced normal form
+					return f.ln > 0 ? multiplySmall(f.lm, f.ln) : multiplySmall(
+							-f.lm, -f.ln);
+				} catch (ArithmeticException e) {
+					// overflow: fall through to the BigInteger representation
+				}
+			}
+		}
+		// numerator of result
+		BigInteger nr = getNumerator().multiply(f.getDenominator());
+		// denominator of result
+		BigInteger mr = getDenominator().multiply(f.getNumerator());
+		return new BigFraction(nr, mr);
+	}
+
+	/**
+	 * Returns the sum of the products a[i] * b[i], for each index i of a and b.
+	 * The products are accumulated over a common denominator and the result is
+	 * only reduced once, at the end.
+	 * 
+	 * @param a
+	 *            The first vector of fractions.
+	 * @param b
+	 *            The second vector of fractions.
+	 * @return The dot product of a and b.
+	 * @throws NullPointerException
+	 *             If a or b is null or contains null values.
+	 * @throws IllegalArgumentException
+	 *             If a and b have different lengths.
+	 */
+	public static BigFraction dot(BigFraction[] a, BigFraction[] b) {
+		if (a.length != b.length) {
+			throw new IllegalArgumentException(
+					"Vectors must have the same length.");
+		}
+		FractionAccumulator sum = new FractionAccumulator(); // of products
+		for (int i = 0; i < a.length; i++) {
+			sum.addProduct(a[i], b[i]);
+		}
+		return sum.toBigFraction();
+	}
+
+	/**
+	 * Returns p * x + (1 - p) * y, computed over a single common denominator
+	 * and reduced once.
+	 * 
+	 * @param p
+	 *            The weight given to x.
+	 * @param x
+	 *            The value returned when p is one.
+	 * @param y
+	 *            The value returned when p is zero.
+	 * @return The affine combination of x and y with weight p.
+	 * @throws NullPointerException
+	 *             If p, x or y is null.
+	 */
+	public static BigFraction lerp(BigFraction p, BigFraction x,
+			BigFraction y) {
+		if (!p.big && !x.big && !y.big) {
+			try {
+				// p * x + (1 - p) * y
+				// = (pn * xn * ym + (pm - pn) * yn * xm) / (pm * xm * ym)
+				long nr = Math.addExact(Math.multiplyExact(Math.multiplyExact(
+						p.ln, x.ln), y.lm), Math.multiplyExact(Math
+						.multiplyExact(Math.subtractExact(p.lm, p.ln), y.ln),
+						x.lm));
+				long mr = Math.multiplyExact(Math.multiplyExact(p.lm, x.lm),
+						y.lm);
+				return new BigFraction(nr, mr);
+			} catch (ArithmeticException e) {
+				// overflow: fall through to the BigInteger representation
+			}
+		}
+		BigInteger pn = p.getNumerator(), pm = p.getDenominator();
+		BigInteger xn = x.getNumerator(), xm = x.getDenominator();
+		BigInteger yn = y.getNumerator(), ym = y.getDenominator();
+		BigInteger nr = pn.multiply(xn).multiply(ym).add(
+				pm.subtract(pn).multiply(yn).multiply(xm));
+		BigInteger mr = pm.multiply(xm).multiply(ym);
+		return new BigFraction(nr, mr);
+	}
+
+	/**
+	 * Returns a * b / c, computed with a single reduction at the end.
+	 * 
+	 * @param a
+	 *            The first factor of the numerator.
+	 * @param b
+	 *            The second factor of the numerator.
+	 * @param c
+	 *            The divisor.
+	 * @return The value of a multiplied by b and divided by c.
+	 * @throws NullPointerException
+	 *             If a, b or c is null.
+	 * @throws InvalidFractionException
+	 *             If c is zero.
+	 */
+	public static BigFraction mulDiv(BigFraction a, BigFraction b,
+			BigFraction c) throws InvalidFractionException {
+		if (!a.big && !b.big && !c.big) {
+			try {
+				long nr = Math.multiplyExact(Math.multiplyExact(a.ln, b.ln),
+						c.lm);
+				long mr = Math.multiplyExact(Math.multiplyExact(a.lm, b.lm),
+						c.ln);
+				return new BigFraction(nr, mr);
+			} catch (ArithmeticException e) {
+				// overflow: fall through to the BigInteger representation
+			}
+		}
+		BigInteger nr = a.getNumerator().multiply(b.getNumerator()).multiply(
+				c.getDenominator());
+		BigInteger mr = a.getDenominator().multiply(b.getDenominator())
+				.multiply(c.getNumerator());
 		return new BigFraction(nr, mr);
 	}
 
+	/**
+	 * Returns a long-valued fraction with numerator n and denominator m, which
+	 * are assumed to already be in reduced normal form. (Package-private for
+	 * the helpers in this package that hold reduced numerators and
+	 * denominators.)
+	 */
+	static BigFraction reduced(long n, long m) {
+		return new BigFraction(n, m, true);
+	}
+
+	/*
+	 * Package-private access to the representation, for the mutable helpers
+	 * in this package that work on numerators and denominators directly.
+	 */
+
+	/**
+	 * Returns the fraction n/m in reduced normal form. An
+	 * InvalidFractionException is thrown if m is zero.
+	 */
+	static BigFraction create(long n, long m) throws InvalidFractionException {
+		return new BigFraction(n, m);
+	}
+
+	/**
+	 * Returns the fraction n/m in reduced normal form. An
+	 * InvalidFractionException is thrown if m is zero.
+	 */
+	static BigFraction create(BigInteger n, BigInteger m)
+			throws InvalidFractionException {
+		return new BigFraction(n, m);
+	}
+
+	/**
+	 * Returns true iff the numerator and denominator of this fit in a long
+	 * (see longNumerator and longDenominator).
+	 */
+	boolean isLong() {
+		return !big;
+	}
+
+	/**
+	 * Returns the numerator, assuming that isLong() is true.
+	 */
+	long longNumerator() {
+		return ln;
+	}
+
+	/**
+	 * Returns the denominator, assuming that isLong() is true.
+	 */
+	long longDenominator() {
+		return lm;
+	}
+
 	/**
 	 * Returns the numerator.
 	 * 
 	 * @return The numerator of this fraction.
 	 */
 	public BigInteger getNumerator() {
+		if (n == null) {
+			n = BigInteger.valueOf(ln);
+		}
 		return n;
 	}
 
@@ -180,9 +663,35 @@ public class BigFraction implements Comparable<BigFraction> {
 	 * @return The denominator of this fraction.
 	 */
 	public BigInteger getDenominator() {
+		if (m == null) {
+			m = BigInteger.valueOf(lm);
+		}
 		return m;
 	}
 
+	/**
+	 * Returns this BigFraction as a double. Unlike dividing the double values
+	 * of the numerator and denominator, this also works when they are too big
+	 * to be represented as doubles.
+	 * 
+	 * @return The closest double to the value of this (to within a couple of
+	 *         units in the last place).
+	 */
+	public double getDoubleValue() {
+		if (!big) {
+			return (double) ln / (double) lm;
+		}
+		if (!Double.isNaN(approx)) {
+			return approx;
+		}
+		// scale the numerator so that the integer quotient has about 64
+		// significant bits, and undo the scaling on the double result
+		int shift = Long.SIZE - (n.bitLength() - m.bitLength());
+		BigInteger q = (shift >= 0 ? n.shiftLeft(shift).divide(m) : n
+				.divide(m.shiftLeft(-shift)));
+		return Math.scalb(q.doubleValue(), -shift);
+	}
+
 	/**
 	 * Used to calculate if this represents a rational-value in the range [0,1].
 	 * 
@@ -202,6 +711,78 @@ public class BigFraction implements Comparable<BigFraction> {
 		return BigFraction.ONE.subtract(this);
 	}
 
+	/**
+	 * Returns the fraction closest to this with a denominator of at most
+	 * maxDenominator (and this itself if its denominator is already small
+	 * enough). The result is found from the continued fraction expansion of
+	 * this: it is either the last convergent or the best semiconvergent with a
+	 * small enough denominator, whichever is closer to this (preferring the
+	 * convergent when they are equally close).
+	 * 
+	 * @param maxDenominator
+	 *            The largest denominator allowed in the result.
+	 * @return The best rational approximation of this with a denominator of
+	 *         at most maxDenominator.
+	 * @throws NullPointerException
+	 *             If maxDenominator is null.
+	 * @throws IllegalArgumentException
+	 *             If maxDenominator is less than one.
+	 */
+	public BigFraction limitDenominator(BigInteger maxDenominator) {
+		if (maxDenominator.signum() <= 0) {
+			throw new IllegalArgumentException(
+					"Maximum denominator must be at least one.");
+		}
+		if (getDenominator().compareTo(maxDenominator) <= 0) {
+			return this;
+		}
+		// approximate the magnitude of this, and restore the sign at the end
+		BigInteger n = getNumerator().abs(), m = getDenominator();
+		// the last two convergents p0/q0 and p1/q1 of n/m
+		BigInteger p0 = BigInteger.ZERO, q0 = BigInteger.ONE;
+		BigInteger p1 = BigInteger.ONE, q1 = BigInteger.ZERO;
+		while (true) {
+			BigInteger[] qr = n.divideAndRemainder(m); // next partial quotient
+			BigInteger q2 = q0.add(qr[0].multiply(q1));
+			if (q2.compareTo(maxDenominator) > 0) {
+				break;
+			}
+			BigInteger p2 = p0.add(qr[0].multiply(p1));
+			p0 = p1;
+			q0 = q1;
+			p1 = p2;
+			q1 = q2;
+			n = m;
+			m = qr[1];
+		}
+		// the best semiconvergent between p0/q0 and p1/q1
+		BigInteger k = maxDenominator.subtract(q0).divide(q1);
+		BigFraction bound1 = new BigFraction(p0.add(k.multiply(p1)), q0
+				.add(k.multiply(q1)));
+		// the last convergent
+		BigFraction bound2 = new BigFraction(p1, q1);
+		BigFraction abs = (signum() < 0 ? ZERO.subtract(this) : this);
+		BigFraction best = (distance(bound2, abs).compareTo(
+				distance(bound1, abs)) <= 0 ? bound2 : bound1);
+		return (signum() < 0 ? ZERO.subtract(best) : best);
+	}
+
+	/**
+	 * Returns the sign of this: -1, 0 or 1 as this is negative, zero or
+	 * positive.
+	 */
+	private int signum() {
+		return (big ? n.signum() : Long.signum(ln));
+	}
+
+	/**
+	 * Returns the absolute value of a minus b.
+	 */
+	private static BigFraction distance(BigFraction a, BigFraction b) {
+		BigFraction d = a.subtract(b);
+		return (d.signum() < 0 ? b.subtract(a) : d);
+	}
+
 	/**
 	 * Returns the string "N/M" where N is the toString representation of the
 	 * BigInteger-valued numerator and M is the toString representation of the
@@ -209,6 +790,9 @@ public class BigFraction implements Comparable<BigFraction> {
 	 */
 	@Override
 	public String toString() {
+		if (!big) {
+			return lm != 1 ? ln + "/" + lm : ln + "";
+		}
 		if (!m.equals(BigInteger.ONE)) {
 			return n + "/" + m;
 		} else {
@@ -216,6 +800,32 @@ public class BigFraction implements Comparable<BigFraction> {
 		}
 	}
 
+	/**
+	 * Appends the string representation of this (see {@link #toString()}) to
+	 * sb. Unless the numerator or denominator of this is too large for a long,
+	 * this does not create any intermediate strings.
+	 *
+	 * @param sb
+	 *            The builder to which this is appended.
+	 * @return sb
+	 * @throws NullPointerException
+	 *             If sb is null.
+	 */
+	public StringBuilder appendTo(StringBuilder sb) {
+		if (!big) {
+			sb.append(ln);
+			if (lm != 1) {
+				sb.append('/').append(lm);
+			}
+		} else {
+			sb.append(n);
+			if (!m.equals(BigInteger.ONE)) {
+				sb.append('/').append(m);
+			}
+		}
+		return sb;
+	}
+
 	/**
 	 * Returns true iff o is a BigFraction representing the same rational number
 	 * as this.
@@ -226,6 +836,16 @@ public class BigFraction implements Comparable<BigFraction> {
 			return false;
 		}
 		BigFraction f = (BigFraction) o;
+		if (f == this) {
+			return true;
+		}
+		if (big != f.big) {
+			// both are in reduced normal form, so they differ in magnitude
+			return false;
+		}
+		if (!big) {
+			return ln == f.ln && lm == f.lm;
+		}
 		return n.equals(f.n) && m.equals(f.m);
 	}
 
@@ -235,9 +855,42 @@ public class BigFraction implements Comparable<BigFraction> {
 		 * Compute a polynomial hash code using an odd prime base P.
 		 */
 		final int P = 31; // an odd prime base
+		if (!big) {
+			// same as the low-order bits used by BigInteger.intValue()
+			return (int) ln * P + (int) lm;
+		}
 		return n.intValue() * P + m.intValue();
 	}
 
+	/**
+	 * Returns a 64-bit hash code for this fraction, which (like hashCode) is
+	 * equal for equal fractions, but depends on every bit of the numerator
+	 * and denominator, and is well mixed: fractions that differ in only a few
+	 * bits have unrelated hash codes. It is intended for fingerprints of
+	 * collections of fractions, where hashCode collides too often.
+	 * 
+	 * @return A 64-bit hash code for this fraction.
+	 */
+	public long longHashCode() {
+		final long K = 0x9e3779b97f4a7c15L; // 2^64 divided by the golden ratio
+		if (!big) {
+			return mix(mix(ln * K) + lm);
+		}
+		// (this fraction is not equal to any long-valued fraction, so the two
+		// cases need not agree)
+		return mix(mix(n.hashCode() * K) + m.hashCode());
+	}
+
+	/**
+	 * Returns a well mixed bijective function of x (the finaliser of the
+	 * SplitMix64 generator).
+	 */
+	private static long mix(long x) {
+		x = (x ^ (x >>> 30)) * 0xbf58476d1ce4e5b9L;
+		x = (x ^ (x >>> 27)) * 0x94d049bb133111ebL;
+		return x ^ (x >>> 31);
+	}
+
 	/**
 	 * Returns 0 iff BigFraction f and this are equal, -1 if the rational-value
 	 * of this is less than that of f, and 1 if the rational-value of this is
@@ -245,10 +898,40 @@ public class BigFraction implements Comparable<BigFraction> {
 	 */
 	@Override
 	public int compareTo(BigFraction f) {
+		if (f == this) {
+			return 0;
+		}
+		if (!big && !f.big) {
+			// comparing long-valued fractions exactly is as cheap as comparing
+			// their approximations
+			try {
+				return Long.compare(Math.multiplyExact(ln, f.lm), Math
+						.multiplyExact(f.ln, lm));
+			} catch (ArithmeticException e) {
+				// overflow: fall through to the approximations
+			}
+		}
+		// try to separate the fractions using intervals around their
+		// approximations that are known to contain their exact values
+		double a = approximation(); // approximation of this
+		double b = f.approximation(); // approximation of f
+		if (!Double.isNaN(a) && !Double.isNaN(b)) {
+			// (the rounding of these bounds is covered by the slack in
+			// APPROX_ERROR over the actual error of 3 * 2^-53)
+			double ea = Math.abs(a) * APPROX_ERROR; // error bound of a
+			double eb = Math.abs(b) * APPROX_ERROR; // error bound of b
+			if (a + ea < b - eb) {
+				return -1;
+			}
+			if (a - ea > b + eb) {
+				return 1;
+			}
+		}
+		// the values are too close to separate: compare them exactly
 		// numerator of this on common denominator m * f.m
-		BigInteger cn1 = n.multiply(f.m);
+		BigInteger cn1 = getNumerator().multiply(f.getDenominator());
 		// numerator of f on common denominator m * f.m
-		BigInteger cn2 = f.n.multiply(m);
+		BigInteger cn2 = f.getNumerator().multiply(getDenominator());
 		return cn1.compareTo(cn2);
 	}
 
@@ -259,6 +942,16 @@ public class BigFraction implements Comparable<BigFraction> {
 	 *         otherwise
 	 */
 	public boolean checkInv() {
+		if (!big) {
+			if (ln == 0) {
+				return lm == 1;
+			}
+			return lm > 0 && gcd(ln, lm) == 1;
+		}
+		// big fractions must not be representable by the long fields
+		if (n.bitLength() < Long.SIZE && m.bitLength() < Long.SIZE) {
+			return false;
+		}
 		if (n.equals(BigInteger.ZERO)) {
 			if (!m.equals(BigInteger.ONE))
 				return false;
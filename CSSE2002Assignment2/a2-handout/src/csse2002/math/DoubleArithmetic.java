@@ -0,0 +1,88 @@
+package csse2002.math;
+
+/**
+ * Approximate arithmetic on probabilities represented directly as (boxed)
+ * doubles. This is much faster than exact arithmetic, at the cost of a
+ * rounding error in every operation.
+ */
+public final class DoubleArithmetic implements ProbabilityArithmetic<Double> {
+
+	/** The (only) instance of double arithmetic. */
+	public final static DoubleArithmetic INSTANCE = new DoubleArithmetic();
+
+	// the relative difference allowed between approximately equal values
+	private final static double TOLERANCE = 1e-9;
+
+	private final static Double ZERO = 0.0;
+	private final static Double ONE = 1.0;
+
+	private DoubleArithmetic() {
+	}
+
+	@Override
+	public Double zero() {
+		return ZERO;
+	}
+
+	@Override
+	public Double one() {
+		return ONE;
+	}
+
+	@Override
+	public Double valueOf(BigFraction f) {
+		return f.getDoubleValue();
+	}
+
+	@Override
+	public Double add(Double a, Double b) {
+		return a + b;
+	}
+
+	@Override
+	public Double subtract(Double a, Double b) {
+		return a - b;
+	}
+
+	@Override
+	public Double multiply(Double a, Double b) {
+		return a * b;
+	}
+
+	@Override
+	public Double divide(Double a, Double b) {
+		return a / b;
+	}
+
+	@Override
+	public Double complement(Double a) {
+		return 1.0 - a;
+	}
+
+	@Override
+	public int compare(Double a, Double b) {
+		return Double.compare(a, b);
+	}
+
+	@Override
+	public boolean approximatelyEqual(Double a, Double b) {
+		return Math.abs(a - b) <= TOLERANCE
+				* Math.max(Math.abs(a), Math.abs(b));
+	}
+
+	@Override
+	public double getDoubleValue(Double a) {
+		return a;
+	}
+
+	@Override
+	public String toString(Double a) {
+		return a.toString();
+	}
+
+	@Override
+	public String toString() {
+		return "double";
+	}
+
+}
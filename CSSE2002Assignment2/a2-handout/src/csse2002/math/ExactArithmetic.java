@@ -0,0 +1,114 @@
+package csse2002.math;
+
+/**
+ * Exact arithmetic on probabilities represented as BigFractions. This is the
+ * arithmetic used by the rest of the csse2002.security package.
+ */
+public final class ExactArithmetic implements
+		ProbabilityArithmetic<BigFraction> {
+
+	/** The (only) instance of exact arithmetic. */
+	public final static ExactArithmetic INSTANCE = new ExactArithmetic();
+
+	private ExactArithmetic() {
+	}
+
+	@Override
+	public BigFraction zero() {
+		return BigFraction.ZERO;
+	}
+
+	@Override
+	public BigFraction one() {
+		return BigFraction.ONE;
+	}
+
+	@Override
+	public BigFraction valueOf(BigFraction f) {
+		if (f == null) {
+			throw new NullPointerException("Fraction cannot be null.");
+		}
+		return f;
+	}
+
+	@Override
+	public BigFraction add(BigFraction a, BigFraction b) {
+		return a.add(b);
+	}
+
+	@Override
+	public BigFraction subtract(BigFraction a, BigFraction b) {
+		return a.subtract(b);
+	}
+
+	@Override
+	public BigFraction multiply(BigFraction a, BigFraction b) {
+		return a.multiply(b);
+	}
+
+	/**
+	 * @throws InvalidFractionException
+	 *             If b is zero.
+	 */
+	@Override
+	public BigFraction divide(BigFraction a, BigFraction b) {
+		return a.divide(b);
+	}
+
+	/**
+	 * Returns p * x + (1 - p) * y, reduced once (see
+	 * {@link BigFraction#lerp(BigFraction, BigFraction, BigFraction)}).
+	 */
+	@Override
+	public BigFraction lerp(BigFraction p, BigFraction x, BigFraction y) {
+		return BigFraction.lerp(p, x, y);
+	}
+
+	/**
+	 * Returns a * b / c, reduced once (see
+	 * {@link BigFraction#mulDiv(BigFraction, BigFraction, BigFraction)}).
+	 * 
+	 * @throws InvalidFractionException
+	 *             If c is zero.
+	 */
+	@Override
+	public BigFraction mulDiv(BigFraction a, BigFraction b, BigFraction c) {
+		return BigFraction.mulDiv(a, b, c);
+	}
+
+	@Override
+	public BigFraction complement(BigFraction a) {
+		return a.complement();
+	}
+
+	@Override
+	public int compare(BigFraction a, BigFraction b) {
+		return a.compareTo(b);
+	}
+
+	@Override
+	public boolean approximatelyEqual(BigFraction a, BigFraction b) {
+		return a.equals(b);
+	}
+
+	@Override
+	public double getDoubleValue(BigFraction a) {
+		return a.getDoubleValue();
+	}
+
+	@Override
+	public String toString(BigFraction a) {
+		return a.toString();
+	}
+
+	@Override
+	public StringBuilder appendTo(StringBuilder sb, BigFraction a) {
+		return a.appendTo(sb);
+	}
+
+	@Override
+	public String toString() {
+		return "exact";
+	}
+
+}
@@ -0,0 +1,264 @@
+package csse2002.math;
+
+import java.math.BigInteger;
+
+/**
+ * <p>
+ * A mutable running total of BigFractions, for summing many fractions without
+ * creating (and reducing) a new BigFraction for every partial sum.
+ * </p>
+ *
+ * <p>
+ * The total is kept as a numerator and a denominator that are not necessarily
+ * in reduced normal form: each fraction is added over the least common
+ * multiple of the denominators, and the total is only reduced when it is
+ * converted back to a BigFraction by {@link #toBigFraction()}. Like
+ * BigFraction, the total is held in long-valued fields until an operation
+ * would overflow a long, and in BigIntegers after that.
+ * </p>
+ */
+public class FractionAccumulator {
+
+	// true iff the total is held in bn and bm rather than in n and m
+	private boolean big;
+	// numerator of the total, when big is false
+	private long n;
+	// denominator of the total, when big is false
+	private long m;
+	// numerator of the total, when big is true
+	private BigInteger bn;
+	// denominator of the total, when big is true
+	private BigInteger bm;
+
+	/*
+	 * invariant: (big => bn != null && bm != null && bm > 0) &&
+	 *
+	 * (!big => m > 0)
+	 */
+
+	/**
+	 * Creates a new accumulator with a total of zero.
+	 */
+	public FractionAccumulator() {
+		reset();
+	}
+
+	/**
+	 * Creates a new accumulator with a total of f.
+	 *
+	 * @param f
+	 *            The initial total.
+	 * @throws NullPointerException
+	 *             If f is null.
+	 */
+	public FractionAccumulator(BigFraction f) {
+		reset();
+		add(f);
+	}
+
+	/**
+	 * Sets the total of this accumulator to zero.
+	 */
+	public void reset() {
+		big = false;
+		n = 0;
+		m = 1;
+		bn = null;
+		bm = null;
+	}
+
+	/**
+	 * Adds f to the total of this accumulator.
+	 *
+	 * @param f
+	 *            The fraction to be added.
+	 * @throws NullPointerException
+	 *             If f is null.
+	 */
+	public void add(BigFraction f) {
+		if (f.isLong()) {
+			add(f.longNumerator(), f.longDenominator());
+		} else {
+			add(f.getNumerator(), f.getDenominator());
+		}
+	}
+
+	/**
+	 * Subtracts f from the total of this accumulator.
+	 *
+	 * @param f
+	 *            The fraction to be subtracted.
+	 * @throws NullPointerException
+	 *             If f is null.
+	 */
+	public void subtract(BigFraction f) {
+		if (f.isLong() && f.longNumerator() != Long.MIN_VALUE) {
+			add(-f.longNumerator(), f.longDenominator());
+		} else {
+			add(f.getNumerator().negate(), f.getDenominator());
+		}
+	}
+
+	/**
+	 * Adds the product of a and b to the total of this accumulator.
+	 *
+	 * @param a
+	 *            The first factor of the product to be added.
+	 * @param b
+	 *            The second factor of the product to be added.
+	 * @throws NullPointerException
+	 *             If a or b is null.
+	 */
+	public void addProduct(BigFraction a, BigFraction b) {
+		if (a.isLong() && b.isLong()) {
+			try {
+				add(Math.multiplyExact(a.longNumerator(), b.longNumerator()),
+						Math.multiplyExact(a.longDenominator(), b
+								.longDenominator()));
+				return;
+			} catch (ArithmeticException e) {
+				// overflow: fall through to the BigInteger representation
+			}
+		}
+		add(a.getNumerator().multiply(b.getNumerator()), a.getDenominator()
+				.multiply(b.getDenominator()));
+	}
+
+	/**
+	 * Subtracts the product of a and b from the total of this accumulator.
+	 *
+	 * @param a
+	 *            The first factor of the product to be subtracted.
+	 * @param b
+	 *            The second factor of the product to be subtracted.
+	 * @throws NullPointerException
+	 *             If a or b is null.
+	 */
+	public void subtractProduct(BigFraction a, BigFraction b) {
+		if (a.isLong() && b.isLong()) {
+			try {
+				add(Math.negateExact(Math.multiplyExact(a.longNumerator(), b
+						.longNumerator())), Math.multiplyExact(a
+						.longDenominator(), b.longDenominator()));
+				return;
+			} catch (ArithmeticException e) {
+				// overflow: fall through to the BigInteger representation
+			}
+		}
+		add(a.getNumerator().multiply(b.getNumerator()).negate(), a
+				.getDenominator().multiply(b.getDenominator()));
+	}
+
+	/**
+	 * Returns the total of this accumulator as a fraction in reduced normal
+	 * form. The accumulator is unchanged.
+	 *
+	 * @return The total of this accumulator.
+	 */
+	public BigFraction toBigFraction() {
+		return big ? BigFraction.create(bn, bm) : BigFraction.create(n, m);
+	}
+
+	/**
+	 * Returns -1, 0 or 1 as the total of this accumulator is less than, equal
+	 * to or greater than f. The total is not reduced: it is compared with f by
+	 * cross-multiplying the numerators and denominators, so that comparing a
+	 * running total with a threshold after each addition costs no more than
+	 * the additions.
+	 *
+	 * @param f
+	 *            The fraction that the total is compared to.
+	 * @return The sign of the total minus f.
+	 * @throws NullPointerException
+	 *             If f is null.
+	 */
+	public int compareTo(BigFraction f) {
+		if (!big && f.isLong()) {
+			try {
+				return Long.compare(Math.multiplyExact(n, f.longDenominator()),
+						Math.multiplyExact(f.longNumerator(), m));
+			} catch (ArithmeticException e) {
+				// overflow: fall through to the BigInteger representation
+			}
+		}
+		BigInteger num = (big ? bn : BigInteger.valueOf(n));
+		BigInteger den = (big ? bm : BigInteger.valueOf(m));
+		return num.multiply(f.getDenominator()).compareTo(
+				f.getNumerator().multiply(den));
+	}
+
+	@Override
+	public String toString() {
+		return toBigFraction().toString();
+	}
+
+	/**
+	 * Adds n2/m2 to the total, where m2 > 0.
+	 */
+	private void add(long n2, long m2) {
+		if (!big) {
+			try {
+				addLong(n2, m2);
+				return;
+			} catch (ArithmeticException e) {
+				// reduce the total, and try again before giving up on longs
+				long d = BigFraction.gcd(n, m);
+				n /= d;
+				m /= d;
+			}
+			try {
+				addLong(n2, m2);
+				return;
+			} catch (ArithmeticException e) {
+				promote();
+			}
+		}
+		add(BigInteger.valueOf(n2), BigInteger.valueOf(m2));
+	}
+
+	/**
+	 * Adds n2/m2 to the long-valued total, where m2 > 0, leaving the total
+	 * unchanged if an intermediate value overflows a long.
+	 *
+	 * @throws ArithmeticException
+	 *             If an intermediate value overflows a long.
+	 */
+	private void addLong(long n2, long m2) {
+		long d = BigFraction.gcd(m, m2); // the gcd of the denominators
+		// the total and n2/m2 over their least common denominator m * (m2/d)
+		long nr = Math.addExact(Math.multiplyExact(n, m2 / d), Math
+				.multiplyExact(n2, m / d));
+		long mr = Math.multiplyExact(m, m2 / d);
+		n = nr;
+		m = mr;
+	}
+
+	/**
+	 * Adds n2/m2 to the total, where m2 > 0, moving the total to the
+	 * BigInteger representation if it is not already there.
+	 */
+	private void add(BigInteger n2, BigInteger m2) {
+		if (!big) {
+			promote();
+		}
+		BigInteger d = bm.gcd(m2); // the gcd of the denominators
+		if (d.equals(BigInteger.ONE)) {
+			bn = bn.multiply(m2).add(n2.multiply(bm));
+			bm = bm.multiply(m2);
+		} else {
+			BigInteger m2d = m2.divide(d);
+			bn = bn.multiply(m2d).add(n2.multiply(bm.divide(d)));
+			bm = bm.multiply(m2d);
+		}
+	}
+
+	/**
+	 * Moves the long-valued total to the BigInteger representation.
+	 */
+	private void promote() {
+		bn = BigInteger.valueOf(n);
+		bm = BigInteger.valueOf(m);
+		big = true;
+	}
+
+}
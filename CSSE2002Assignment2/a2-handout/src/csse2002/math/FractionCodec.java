@@ -0,0 +1,379 @@
+package csse2002.math;
+
+import java.io.*;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+
+/**
+ * <p>
+ * A compact binary encoding of BigFractions (and BigIntegers), for writing
+ * them to a DataOutput or ByteBuffer and reading them back, without going
+ * through their string representations.
+ * </p>
+ *
+ * <p>
+ * A fraction is encoded as a tag byte followed by its numerator and
+ * denominator (in reduced normal form). Fractions whose numerator and
+ * denominator fit in a long have tag {@link #SMALL}, and are encoded as a
+ * zig-zag varint numerator and a varint denominator: seven bits per byte,
+ * least significant group first, with the top bit of each byte set on all but
+ * the last byte. Small fractions such as 1/2 therefore take three bytes.
+ * Other fractions have tag {@link #BIG}, and are encoded as the two's
+ * complement bytes of the numerator and of the denominator (see
+ * {@link BigInteger#toByteArray()}), each preceded by its length as a varint.
+ * </p>
+ *
+ * <p>
+ * Reading checks that the input is a well-formed encoding of a fraction in
+ * reduced normal form, and throws an IOException if it is not.
+ * </p>
+ */
+public final class FractionCodec {
+
+	/** The tag of a fraction whose numerator and denominator fit in a long. */
+	public final static int SMALL = 0;
+	/** The tag of any other fraction. */
+	public final static int BIG = 1;
+
+	// the largest number of bytes accepted for an encoded BigInteger
+	private final static int MAX_BYTES = 1 << 24;
+	// the largest number of bytes in a varint encoding of a long
+	private final static int MAX_VARINT_BYTES = 10;
+
+	private FractionCodec() {
+	}
+
+	/**
+	 * Returns the number of bytes in the encoding of f.
+	 *
+	 * @param f
+	 *            The fraction to be encoded.
+	 * @return The number of bytes written by write(out, f).
+	 * @throws NullPointerException
+	 *             If f is null.
+	 */
+	public static int encodedSize(BigFraction f) {
+		if (f.isLong()) {
+			return 1 + varintSize(zigzag(f.longNumerator()))
+					+ varintSize(f.longDenominator());
+		}
+		return 1 + encodedSize(f.getNumerator())
+				+ encodedSize(f.getDenominator());
+	}
+
+	/**
+	 * Returns the number of bytes in the encoding of i.
+	 *
+	 * @param i
+	 *            The integer to be encoded.
+	 * @return The number of bytes written by writeInteger(out, i).
+	 * @throws NullPointerException
+	 *             If i is null.
+	 */
+	public static int encodedSize(BigInteger i) {
+		int length = i.bitLength() / 8 + 1; // length of i.toByteArray()
+		return varintSize(length) + length;
+	}
+
+	/**
+	 * Writes the encoding of f to out.
+	 *
+	 * @param out
+	 *            The output to write to.
+	 * @param f
+	 *            The fraction to be written.
+	 * @throws IOException
+	 *             If out throws an IOException.
+	 * @throws NullPointerException
+	 *             If out or f is null.
+	 */
+	public static void write(DataOutput out, BigFraction f)
+			throws IOException {
+		if (f.isLong()) {
+			out.writeByte(SMALL);
+			writeVarint(out, zigzag(f.longNumerator()));
+			writeVarint(out, f.longDenominator());
+		} else {
+			out.writeByte(BIG);
+			writeInteger(out, f.getNumerator());
+			writeInteger(out, f.getDenominator());
+		}
+	}
+
+	/**
+	 * Writes the encoding of f to buffer, starting at its current position.
+	 *
+	 * @param buffer
+	 *            The buffer to write to.
+	 * @param f
+	 *            The fraction to be written.
+	 * @throws java.nio.BufferOverflowException
+	 *             If the encoding of f does not fit in the remaining space of
+	 *             buffer.
+	 * @throws NullPointerException
+	 *             If buffer or f is null.
+	 */
+	public static void write(ByteBuffer buffer, BigFraction f) {
+		if (f.isLong()) {
+			buffer.put((byte) SMALL);
+			writeVarint(buffer, zigzag(f.longNumerator()));
+			writeVarint(buffer, f.longDenominator());
+		} else {
+			buffer.put((byte) BIG);
+			writeInteger(buffer, f.getNumerator());
+			writeInteger(buffer, f.getDenominator());
+		}
+	}
+
+	/**
+	 * Reads the encoding of a fraction from in.
+	 *
+	 * @param in
+	 *            The input to read from.
+	 * @return The fraction read.
+	 * @throws IOException
+	 *             If in throws an IOException (including an EOFException if
+	 *             the input ends too early), or if the input is not the
+	 *             encoding of a fraction in reduced normal form.
+	 * @throws NullPointerException
+	 *             If in is null.
+	 */
+	public static BigFraction read(DataInput in) throws IOException {
+		int tag = in.readUnsignedByte();
+		if (tag == SMALL) {
+			return small(unzigzag(readVarint(in)), readVarint(in));
+		} else if (tag == BIG) {
+			return big(readInteger(in), readInteger(in));
+		}
+		throw new IOException("Invalid fraction tag: " + tag);
+	}
+
+	/**
+	 * Reads the encoding of a fraction from buffer, starting at its current
+	 * position.
+	 *
+	 * @param buffer
+	 *            The buffer to read from.
+	 * @return The fraction read.
+	 * @throws IOException
+	 *             If the buffer ends too early, or its contents are not the
+	 *             encoding of a fraction in reduced normal form.
+	 * @throws NullPointerException
+	 *             If buffer is null.
+	 */
+	public static BigFraction read(ByteBuffer buffer) throws IOException {
+		int tag = readByte(buffer);
+		if (tag == SMALL) {
+			return small(unzigzag(readVarint(buffer)), readVarint(buffer));
+		} else if (tag == BIG) {
+			return big(readInteger(buffer), readInteger(buffer));
+		}
+		throw new IOException("Invalid fraction tag: " + tag);
+	}
+
+	/**
+	 * Writes the encoding of i to out: the length of i.toByteArray() as a
+	 * varint, followed by those bytes.
+	 *
+	 * @param out
+	 *            The output to write to.
+	 * @param i
+	 *            The integer to be written.
+	 * @throws IOException
+	 *             If out throws an IOException.
+	 * @throws NullPointerException
+	 *             If out or i is null.
+	 */
+	public static void writeInteger(DataOutput out, BigInteger i)
+			throws IOException {
+		byte[] bytes = i.toByteArray();
+		writeVarint(out, bytes.length);
+		out.write(bytes);
+	}
+
+	/**
+	 * Reads the encoding of an integer from in (see
+	 * {@link #writeInteger(DataOutput, BigInteger)}).
+	 *
+	 * @param in
+	 *            The input to read from.
+	 * @return The integer read.
+	 * @throws IOException
+	 *             If in throws an IOException, or if the input is not the
+	 *             encoding of an integer.
+	 * @throws NullPointerException
+	 *             If in is null.
+	 */
+	public static BigInteger readInteger(DataInput in) throws IOException {
+		byte[] bytes = new byte[checkLength(readVarint(in))];
+		in.readFully(bytes);
+		return new BigInteger(bytes);
+	}
+
+	/**
+	 * Writes the encoding of i to buffer, starting at its current position
+	 * (see {@link #writeInteger(DataOutput, BigInteger)}).
+	 *
+	 * @param buffer
+	 *            The buffer to write to.
+	 * @param i
+	 *            The integer to be written.
+	 * @throws java.nio.BufferOverflowException
+	 *             If the encoding of i does not fit in the remaining space of
+	 *             buffer.
+	 * @throws NullPointerException
+	 *             If buffer or i is null.
+	 */
+	public static void writeInteger(ByteBuffer buffer, BigInteger i) {
+		byte[] bytes = i.toByteArray();
+		writeVarint(buffer, bytes.length);
+		buffer.put(bytes);
+	}
+
+	/**
+	 * Reads the encoding of an integer from buffer, starting at its current
+	 * position (see {@link #writeInteger(DataOutput, BigInteger)}).
+	 *
+	 * @param buffer
+	 *            The buffer to read from.
+	 * @return The integer read.
+	 * @throws IOException
+	 *             If the buffer ends too early, or its contents are not the
+	 *             encoding of an integer.
+	 * @throws NullPointerException
+	 *             If buffer is null.
+	 */
+	public static BigInteger readInteger(ByteBuffer buffer) throws IOException {
+		int length = checkLength(readVarint(buffer));
+		if (buffer.remaining() < length) {
+			throw new EOFException("Truncated integer.");
+		}
+		byte[] bytes = new byte[length];
+		buffer.get(bytes);
+		return new BigInteger(bytes);
+	}
+
+	/**
+	 * Returns the length of an encoded integer, checking that it is valid.
+	 */
+	private static int checkLength(long length) throws IOException {
+		if (length <= 0 || length > MAX_BYTES) {
+			throw new IOException("Invalid integer length: " + length);
+		}
+		return (int) length;
+	}
+
+	/**
+	 * Returns the fraction n/m, checking that it is in reduced normal form.
+	 */
+	private static BigFraction small(long n, long m) throws IOException {
+		if (m <= 0 || BigFraction.gcd(n, m) != 1) {
+			throw new IOException("Fraction not in reduced normal form: " + n
+					+ "/" + m);
+		}
+		return BigFraction.create(n, m);
+	}
+
+	/**
+	 * Returns the fraction n/m, checking that it is in reduced normal form.
+	 */
+	private static BigFraction big(BigInteger n, BigInteger m)
+			throws IOException {
+		if (m.signum() <= 0 || !n.gcd(m).equals(BigInteger.ONE)) {
+			throw new IOException("Fraction not in reduced normal form: " + n
+					+ "/" + m);
+		}
+		return BigFraction.create(n, m);
+	}
+
+	/**
+	 * Returns the zig-zag encoding of n, which maps integers of small
+	 * magnitude to small non-negative (unsigned) longs.
+	 */
+	private static long zigzag(long n) {
+		return (n << 1) ^ (n >> 63);
+	}
+
+	/**
+	 * Returns the long with zig-zag encoding z.
+	 */
+	private static long unzigzag(long z) {
+		return (z >>> 1) ^ -(z & 1);
+	}
+
+	/**
+	 * Returns the number of bytes in the varint encoding of unsigned long v.
+	 */
+	private static int varintSize(long v) {
+		int size = 1;
+		while ((v & ~0x7fL) != 0) {
+			v >>>= 7;
+			size++;
+		}
+		return size;
+	}
+
+	/**
+	 * Writes the varint encoding of unsigned long v to out.
+	 */
+	private static void writeVarint(DataOutput out, long v) throws IOException {
+		while ((v & ~0x7fL) != 0) {
+			out.writeByte((int) (v & 0x7f) | 0x80);
+			v >>>= 7;
+		}
+		out.writeByte((int) v);
+	}
+
+	/**
+	 * Writes the varint encoding of unsigned long v to buffer.
+	 */
+	private static void writeVarint(ByteBuffer buffer, long v) {
+		while ((v & ~0x7fL) != 0) {
+			buffer.put((byte) ((v & 0x7f) | 0x80));
+			v >>>= 7;
+		}
+		buffer.put((byte) v);
+	}
+
+	/**
+	 * Reads the varint encoding of an unsigned long from in.
+	 */
+	private static long readVarint(DataInput in) throws IOException {
+		long v = 0; // the value read so far
+		for (int i = 0; i < MAX_VARINT_BYTES; i++) {
+			int b = in.readUnsignedByte();
+			v |= (long) (b & 0x7f) << (7 * i);
+			if ((b & 0x80) == 0) {
+				return v;
+			}
+		}
+		throw new IOException("Varint too long.");
+	}
+
+	/**
+	 * Reads the varint encoding of an unsigned long from buffer.
+	 */
+	private static long readVarint(ByteBuffer buffer) throws IOException {
+		long v = 0; // the value read so far
+		for (int i = 0; i < MAX_VARINT_BYTES; i++) {
+			int b = readByte(buffer);
+			v |= (long) (b & 0x7f) << (7 * i);
+			if ((b & 0x80) == 0) {
+				return v;
+			}
+		}
+		throw new IOException("Varint too long.");
+	}
+
+	/**
+	 * Reads an unsigned byte from buffer, throwing an EOFException if there
+	 * are no bytes remaining.
+	 */
+	private static int readByte(ByteBuffer buffer) throws IOException {
+		if (!buffer.hasRemaining()) {
+			throw new EOFException("Truncated fraction.");
+		}
+		return buffer.get() & 0xff;
+	}
+
+}
@@ -0,0 +1,632 @@
+package csse2002.math;
+
+import java.math.BigInteger;
+import java.util.*;
+
+/**
+ * <p>
+ * A mutable, fixed-size vector of fractions, for carrying out the same
+ * arithmetic on many fractions at once without creating a BigFraction for
+ * each intermediate result.
+ * </p>
+ *
+ * <p>
+ * Like BigFraction, each element is held in reduced normal form. Elements
+ * whose numerator and denominator fit in a long are stored in two primitive
+ * arrays, and are operated on with long arithmetic. The (rare) elements that
+ * do not fit are stored in a side table of BigIntegers, which is only
+ * allocated once the first element overflows, and are operated on as
+ * BigFractions. Bulk operations update this vector in place, and return it
+ * so that they can be chained.
+ * </p>
+ */
+public class FractionVector {
+
+	// numerators of the long-valued elements
+	private final long[] num;
+	// denominators of the long-valued elements, or zero for an element that
+	// is held in the side table
+	private final long[] den;
+	// numerators and denominators of the elements that do not fit in a long
+	// (or null if no element has ever overflowed)
+	private BigInteger[] bigNum, bigDen;
+
+	/*
+	 * invariant: num.length == den.length &&
+	 *
+	 * for each i: (den[i] > 0 && num[i]/den[i] is in reduced normal form) ||
+	 * (den[i] == 0 && bigNum[i]/bigDen[i] is in reduced normal form and does
+	 * not fit in a long) &&
+	 *
+	 * (bigNum == null) == (bigDen == null)
+	 */
+
+	/**
+	 * Creates a new vector of size zeros.
+	 *
+	 * @param size
+	 *            The number of elements of the vector.
+	 * @throws IllegalArgumentException
+	 *             If size is negative.
+	 */
+	public FractionVector(int size) {
+		if (size < 0) {
+			throw new IllegalArgumentException("Size cannot be negative.");
+		}
+		num = new long[size];
+		den = new long[size];
+		Arrays.fill(den, 1);
+	}
+
+	/**
+	 * Creates a new vector containing the given fractions, in order.
+	 *
+	 * @param fractions
+	 *            The elements of the new vector.
+	 * @throws NullPointerException
+	 *             If fractions is null, or contains null.
+	 */
+	public FractionVector(List<BigFraction> fractions) {
+		this(fractions.size());
+		int i = 0; // index of the next element
+		for (BigFraction f : fractions) {
+			set(i++, f);
+		}
+	}
+
+	/**
+	 * Creates a new vector with the same elements as v.
+	 *
+	 * @param v
+	 *            The vector to be copied.
+	 * @throws NullPointerException
+	 *             If v is null.
+	 */
+	public FractionVector(FractionVector v) {
+		num = v.num.clone();
+		den = v.den.clone();
+		if (v.bigNum != null) {
+			bigNum = v.bigNum.clone();
+			bigDen = v.bigDen.clone();
+		}
+	}
+
+	/**
+	 * Returns the number of elements of this vector.
+	 *
+	 * @return The size of this vector.
+	 */
+	public int size() {
+		return num.length;
+	}
+
+	/**
+	 * Returns the element at index i.
+	 *
+	 * @param i
+	 *            The index of the element.
+	 * @return The element at index i.
+	 * @throws IndexOutOfBoundsException
+	 *             If i is not a valid index.
+	 */
+	public BigFraction get(int i) {
+		if (den[i] == 0) {
+			return BigFraction.create(bigNum[i], bigDen[i]);
+		}
+		return BigFraction.reduced(num[i], den[i]);
+	}
+
+	/**
+	 * Sets the element at index i to f.
+	 *
+	 * @param i
+	 *            The index of the element.
+	 * @param f
+	 *            The new value of the element.
+	 * @throws IndexOutOfBoundsException
+	 *             If i is not a valid index.
+	 * @throws NullPointerException
+	 *             If f is null.
+	 */
+	public void set(int i, BigFraction f) {
+		if (f.isLong()) {
+			num[i] = f.longNumerator();
+			den[i] = f.longDenominator();
+			if (bigNum != null) {
+				bigNum[i] = null;
+				bigDen[i] = null;
+			}
+		} else {
+			if (bigNum == null) {
+				bigNum = new BigInteger[num.length];
+				bigDen = new BigInteger[num.length];
+			}
+			bigNum[i] = f.getNumerator();
+			bigDen[i] = f.getDenominator();
+			num[i] = 0;
+			den[i] = 0;
+		}
+	}
+
+	/**
+	 * Sets the element at index i to the element at index j of v, without
+	 * creating a BigFraction for it.
+	 *
+	 * @param i
+	 *            The index of the element to be set.
+	 * @param v
+	 *            The vector containing the new value of the element.
+	 * @param j
+	 *            The index of the new value in v.
+	 * @throws IndexOutOfBoundsException
+	 *             If i or j is not a valid index.
+	 * @throws NullPointerException
+	 *             If v is null.
+	 */
+	public void set(int i, FractionVector v, int j) {
+		if (v.den[j] == 0) {
+			set(i, v.get(j));
+		} else {
+			store(i, v.num[j], v.den[j]);
+		}
+	}
+
+	/**
+	 * Returns -1, 0 or 1 as the element at index i is less than, equal to, or
+	 * greater than f.
+	 *
+	 * @param i
+	 *            The index of the element.
+	 * @param f
+	 *            The fraction to compare with.
+	 * @return The sign of the element at index i minus f.
+	 * @throws IndexOutOfBoundsException
+	 *             If i is not a valid index.
+	 * @throws NullPointerException
+	 *             If f is null.
+	 */
+	public int compareTo(int i, BigFraction f) {
+		if (den[i] != 0 && f.isLong()) {
+			return compareLong(num[i], den[i], f.longNumerator(), f
+					.longDenominator());
+		}
+		return Integer.signum(get(i).compareTo(f));
+	}
+
+	/**
+	 * Searches this vector, whose elements must be in ascending order, for f.
+	 *
+	 * @param f
+	 *            The fraction to search for.
+	 * @return The index of f, if it is an element of this vector; otherwise
+	 *         (-(insertion point) - 1), where the insertion point is the index
+	 *         of the first element greater than f, or size() if there is
+	 *         none.
+	 * @throws NullPointerException
+	 *             If f is null.
+	 */
+	public int binarySearch(BigFraction f) {
+		int lo = 0, hi = num.length - 1; // the range still to be searched
+		while (lo <= hi) {
+			int mid = (lo + hi) >>> 1;
+			int c = compareTo(mid, f);
+			if (c < 0) {
+				lo = mid + 1;
+			} else if (c > 0) {
+				hi = mid - 1;
+			} else {
+				return mid;
+			}
+		}
+		return -(lo + 1);
+	}
+
+	/**
+	 * Returns the sign of the element at index i.
+	 *
+	 * @param i
+	 *            The index of the element.
+	 * @return -1, 0 or 1 as the element at index i is negative, zero or
+	 *         positive.
+	 * @throws IndexOutOfBoundsException
+	 *             If i is not a valid index.
+	 */
+	public int signum(int i) {
+		return (den[i] == 0 ? bigNum[i].signum() : Long.signum(num[i]));
+	}
+
+	/**
+	 * Used to calculate if every element of this vector is a probability.
+	 *
+	 * @return True iff every element of this vector has a value in the range
+	 *         [0,1].
+	 */
+	public boolean areProbabilities() {
+		for (int i = 0; i < num.length; i++) {
+			if (den[i] == 0 ? !get(i).isAProbability() : num[i] < 0
+					|| num[i] > den[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Returns the elements of this vector as a list of BigFractions.
+	 *
+	 * @return A new list of the elements of this vector, in order.
+	 */
+	public List<BigFraction> toList() {
+		List<BigFraction> fractions = new ArrayList<BigFraction>(num.length);
+		for (int i = 0; i < num.length; i++) {
+			fractions.add(get(i));
+		}
+		return fractions;
+	}
+
+	/**
+	 * Adds f to each element of this vector.
+	 *
+	 * @param f
+	 *            The fraction to be added.
+	 * @return This vector.
+	 * @throws NullPointerException
+	 *             If f is null.
+	 */
+	public FractionVector add(BigFraction f) {
+		for (int i = 0; i < num.length; i++) {
+			if (den[i] == 0 || !f.isLong()
+					|| !addLong(i, f.longNumerator(), f.longDenominator())) {
+				set(i, get(i).add(f));
+			}
+		}
+		return this;
+	}
+
+	/**
+	 * Adds each element of v to the corresponding element of this vector.
+	 *
+	 * @param v
+	 *            The vector to be added.
+	 * @return This vector.
+	 * @throws IllegalArgumentException
+	 *             If v does not have the same size as this vector.
+	 * @throws NullPointerException
+	 *             If v is null.
+	 */
+	public FractionVector add(FractionVector v) {
+		checkSize(v);
+		for (int i = 0; i < num.length; i++) {
+			if (den[i] == 0 || v.den[i] == 0
+					|| !addLong(i, v.num[i], v.den[i])) {
+				set(i, get(i).add(v.get(i)));
+			}
+		}
+		return this;
+	}
+
+	/**
+	 * Subtracts each element of v from the corresponding element of this
+	 * vector.
+	 *
+	 * @param v
+	 *            The vector to be subtracted.
+	 * @return This vector.
+	 * @throws IllegalArgumentException
+	 *             If v does not have the same size as this vector.
+	 * @throws NullPointerException
+	 *             If v is null.
+	 */
+	public FractionVector subtract(FractionVector v) {
+		checkSize(v);
+		for (int i = 0; i < num.length; i++) {
+			if (den[i] == 0 || v.den[i] == 0 || v.num[i] == Long.MIN_VALUE
+					|| !addLong(i, -v.num[i], v.den[i])) {
+				set(i, get(i).subtract(v.get(i)));
+			}
+		}
+		return this;
+	}
+
+	/**
+	 * Multiplies each element of this vector by f.
+	 *
+	 * @param f
+	 *            The fraction to multiply by.
+	 * @return This vector.
+	 * @throws NullPointerException
+	 *             If f is null.
+	 */
+	public FractionVector multiply(BigFraction f) {
+		for (int i = 0; i < num.length; i++) {
+			if (den[i] == 0 || !f.isLong()
+					|| !multiplyLong(i, f.longNumerator(), f
+							.longDenominator())) {
+				set(i, get(i).multiply(f));
+			}
+		}
+		return this;
+	}
+
+	/**
+	 * Multiplies each element of this vector by the corresponding element of
+	 * v.
+	 *
+	 * @param v
+	 *            The vector to multiply by.
+	 * @return This vector.
+	 * @throws IllegalArgumentException
+	 *             If v does not have the same size as this vector.
+	 * @throws NullPointerException
+	 *             If v is null.
+	 */
+	public FractionVector multiply(FractionVector v) {
+		checkSize(v);
+		for (int i = 0; i < num.length; i++) {
+			if (den[i] == 0 || v.den[i] == 0
+					|| !multiplyLong(i, v.num[i], v.den[i])) {
+				set(i, get(i).multiply(v.get(i)));
+			}
+		}
+		return this;
+	}
+
+	/**
+	 * Divides each element of this vector by the corresponding element of v.
+	 *
+	 * @param v
+	 *            The vector to divide by.
+	 * @return This vector.
+	 * @throws IllegalArgumentException
+	 *             If v does not have the same size as this vector.
+	 * @throws InvalidFractionException
+	 *             If an element of v is zero (in which case the elements of
+	 *             this vector before it have already been divided).
+	 * @throws NullPointerException
+	 *             If v is null.
+	 */
+	public FractionVector divide(FractionVector v) {
+		checkSize(v);
+		for (int i = 0; i < num.length; i++) {
+			long n = v.num[i], m = v.den[i]; // the element of v
+			if (m != 0 && n == 0) {
+				throw new InvalidFractionException("Cannot divide by zero.");
+			}
+			// the reciprocal of n/m is m/n (or -m/-n)
+			if (den[i] == 0 || m == 0 || n == Long.MIN_VALUE
+					|| !multiplyLong(i, (n < 0 ? -m : m), Math.abs(n))) {
+				set(i, get(i).divide(v.get(i)));
+			}
+		}
+		return this;
+	}
+
+	/**
+	 * Replaces each element of this vector by one minus that element.
+	 *
+	 * @return This vector.
+	 */
+	public FractionVector complement() {
+		for (int i = 0; i < num.length; i++) {
+			if (den[i] == 0 || num[i] < den[i] - Long.MAX_VALUE) {
+				set(i, get(i).complement());
+			} else {
+				// (m - n)/m is already in reduced normal form
+				num[i] = den[i] - num[i];
+			}
+		}
+		return this;
+	}
+
+	/**
+	 * Replaces each element p of this vector by p * x + (1 - p) * y (see
+	 * {@link BigFraction#lerp(BigFraction, BigFraction, BigFraction)}).
+	 *
+	 * @param x
+	 *            The value weighted by the elements of this vector.
+	 * @param y
+	 *            The value weighted by the complements of the elements of this
+	 *            vector.
+	 * @return This vector.
+	 * @throws NullPointerException
+	 *             If x or y is null.
+	 */
+	public FractionVector lerp(BigFraction x, BigFraction y) {
+		for (int i = 0; i < num.length; i++) {
+			if (den[i] == 0 || !x.isLong() || !y.isLong()
+					|| !lerpLong(i, x, y)) {
+				set(i, BigFraction.lerp(get(i), x, y));
+			}
+		}
+		return this;
+	}
+
+	/**
+	 * Compares each element of this vector with f.
+	 *
+	 * @param f
+	 *            The fraction to compare with.
+	 * @return An array whose element i is -1, 0 or 1 as element i of this
+	 *         vector is less than, equal to, or greater than f.
+	 * @throws NullPointerException
+	 *             If f is null.
+	 */
+	public int[] compareTo(BigFraction f) {
+		int[] result = new int[num.length];
+		for (int i = 0; i < num.length; i++) {
+			result[i] = (den[i] != 0 && f.isLong() ? compareLong(num[i],
+					den[i], f.longNumerator(), f.longDenominator()) : Integer
+					.signum(get(i).compareTo(f)));
+		}
+		return result;
+	}
+
+	/**
+	 * Compares each element of this vector with the corresponding element of
+	 * v.
+	 *
+	 * @param v
+	 *            The vector to compare with.
+	 * @return An array whose element i is -1, 0 or 1 as element i of this
+	 *         vector is less than, equal to, or greater than element i of v.
+	 * @throws IllegalArgumentException
+	 *             If v does not have the same size as this vector.
+	 * @throws NullPointerException
+	 *             If v is null.
+	 */
+	public int[] compareTo(FractionVector v) {
+		checkSize(v);
+		int[] result = new int[num.length];
+		for (int i = 0; i < num.length; i++) {
+			result[i] = (den[i] != 0 && v.den[i] != 0 ? compareLong(num[i],
+					den[i], v.num[i], v.den[i]) : Integer.signum(get(i)
+					.compareTo(v.get(i))));
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the string "[F1, ... , FN]", where F1 ... FN are the string
+	 * representations of the elements of this vector.
+	 */
+	@Override
+	public String toString() {
+		return toList().toString();
+	}
+
+	/**
+	 * Determines whether this vector is internally consistent.
+	 *
+	 * @return true if this vector is internally consistent, and false
+	 *         otherwise
+	 */
+	public boolean checkInv() {
+		if (num.length != den.length || (bigNum == null) != (bigDen == null)) {
+			return false;
+		}
+		for (int i = 0; i < num.length; i++) {
+			if (den[i] == 0) {
+				if (bigNum == null || bigNum[i] == null || get(i).isLong()
+						|| !get(i).getNumerator().equals(bigNum[i])) {
+					return false;
+				}
+			} else if (den[i] < 0 || BigFraction.gcd(num[i], den[i]) != 1) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Throws an IllegalArgumentException if v and this differ in size.
+	 */
+	private void checkSize(FractionVector v) {
+		if (v.num.length != num.length) {
+			throw new IllegalArgumentException("Vector sizes differ: "
+					+ num.length + " and " + v.num.length);
+		}
+	}
+
+	/**
+	 * Adds n2/m2 (where m2 > 0) to the long-valued element at index i,
+	 * returning false, and leaving the element unchanged, if this overflows a
+	 * long.
+	 */
+	private boolean addLong(int i, long n2, long m2) {
+		long n1 = num[i], m1 = den[i];
+		try {
+			long d = BigFraction.gcd(m1, m2); // the gcd of the denominators
+			long nr = Math.addExact(Math.multiplyExact(n1, m2 / d), Math
+					.multiplyExact(n2, m1 / d));
+			long mr = Math.multiplyExact(m1, m2 / d);
+			store(i, nr, mr);
+			return true;
+		} catch (ArithmeticException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Multiplies the long-valued element at index i by n/m (where m > 0),
+	 * returning false, and leaving the element unchanged, if this overflows a
+	 * long.
+	 */
+	private boolean multiplyLong(int i, long n, long m) {
+		if (num[i] == 0 || n == 0) {
+			store(i, 0, 1);
+			return true;
+		}
+		// cross-reduce, so that the product is already in reduced form
+		long d1 = BigFraction.gcd(num[i], m), d2 = BigFraction.gcd(n, den[i]);
+		try {
+			long nr = Math.multiplyExact(num[i] / d1, n / d2);
+			long mr = Math.multiplyExact(den[i] / d2, m / d1);
+			num[i] = nr;
+			den[i] = mr;
+			return true;
+		} catch (ArithmeticException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Replaces the long-valued element p at index i by p * x + (1 - p) * y,
+	 * for long-valued x and y, returning false, and leaving the element
+	 * unchanged, if this overflows a long.
+	 */
+	private boolean lerpLong(int i, BigFraction x, BigFraction y) {
+		long pn = num[i], pm = den[i];
+		try {
+			// (pn * xn * ym + (pm - pn) * yn * xm) / (pm * xm * ym)
+			long nr = Math.addExact(Math.multiplyExact(Math.multiplyExact(pn,
+					x.longNumerator()), y.longDenominator()), Math
+					.multiplyExact(Math.multiplyExact(Math.subtractExact(pm,
+							pn), y.longNumerator()), x.longDenominator()));
+			long mr = Math.multiplyExact(Math.multiplyExact(pm, x
+					.longDenominator()), y.longDenominator());
+			store(i, nr, mr);
+			return true;
+		} catch (ArithmeticException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Returns the sign of n1/m1 - n2/m2, where m1, m2 > 0.
+	 */
+	private static int compareLong(long n1, long m1, long n2, long m2) {
+		if (m1 == m2) {
+			return Long.compare(n1, n2);
+		}
+		try {
+			return Long.compare(Math.multiplyExact(n1, m2), Math
+					.multiplyExact(n2, m1));
+		} catch (ArithmeticException e) {
+			return BigInteger.valueOf(n1).multiply(BigInteger.valueOf(m2))
+					.compareTo(
+							BigInteger.valueOf(n2).multiply(
+									BigInteger.valueOf(m1)));
+		}
+	}
+
+	/**
+	 * Sets the element at index i to the reduced normal form of n/m, where m
+	 * > 0.
+	 */
+	private void store(int i, long n, long m) {
+		if (n == 0) {
+			m = 1;
+		} else {
+			long d = BigFraction.gcd(n, m); // the gcd of n and m
+			n /= d;
+			m /= d;
+		}
+		num[i] = n;
+		den[i] = m;
+		if (bigNum != null) {
+			bigNum[i] = null;
+			bigDen[i] = null;
+		}
+	}
+
+}
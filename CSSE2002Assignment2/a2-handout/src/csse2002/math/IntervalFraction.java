@@ -0,0 +1,520 @@
+package csse2002.math;
+
+import java.util.*;
+
+/**
+ * <p>
+ * An immutable representation of a rational number by an interval with double
+ * lower and upper bounds that is guaranteed to contain it, together with
+ * enough information to recompute the number exactly as a BigFraction when
+ * the interval is not precise enough.
+ * </p>
+ *
+ * <p>
+ * Arithmetic on IntervalFractions costs a few double operations: each bound
+ * is rounded outwards (using error-free transformations, so bounds are only
+ * widened when a rounding error has actually occurred, or may have occurred
+ * near the smallest doubles, where those transformations cannot be used).
+ * The exact value is only calculated, by replaying the same operations on
+ * BigFractions, when it is asked for, or when a comparison cannot be decided
+ * from the intervals alone. Decisions such as "is this knowledge-state at
+ * least 1/2?" therefore run at double speed, but are always correct.
+ * </p>
+ *
+ * <p>
+ * A fraction keeps the fractions it is derived from until its exact value is
+ * calculated. So that long chains of operations (such as the weights of a
+ * distribution updated by many informants) do not keep their whole history,
+ * a fraction derived through more than 64 successive operations whose exact
+ * values are unknown is evaluated as soon as it is created, which releases
+ * its operands. The memory kept by a chain of operations is therefore
+ * bounded, at the cost of an exact calculation of each part of the chain
+ * that reaches that depth.
+ * </p>
+ *
+ * <p>
+ * IntervalFractions must be safely published to other threads (for example
+ * through a final or volatile field, or a concurrent collection), as their
+ * operands are not final. Once published they may be shared between threads
+ * without synchronization: an exact value is published through a volatile
+ * field as soon as it has been calculated, before the operands it was
+ * calculated from are released, and threads that calculate the same exact
+ * value at the same time simply calculate equal values.
+ * </p>
+ */
+public class IntervalFraction implements Comparable<IntervalFraction> {
+
+	/** The fraction constant zero. */
+	public final static IntervalFraction ZERO = valueOf(BigFraction.ZERO);
+	/** The fraction constant one. */
+	public final static IntervalFraction ONE = valueOf(BigFraction.ONE);
+
+	// the operations from which an IntervalFraction may be derived
+	private final static char ADD = '+', SUBTRACT = '-', MULTIPLY = '*',
+			DIVIDE = '/';
+	// the greatest number of successive operations, whose exact values are
+	// unknown, through which an IntervalFraction is derived without being
+	// evaluated
+	private final static int MAX_DEPTH = 64;
+	// the magnitude below which the rounding error of a product, or the
+	// remainder of a quotient, may be too small to be represented as a double
+	// (so that it cannot be used to tell whether a result was rounded)
+	private final static double EXACT_ERROR_MIN = 0x1p-968;
+
+	// lower bound on the value of this fraction
+	private final double lo;
+	// upper bound on the value of this fraction
+	private final double hi;
+	// the exact value of this fraction, or null if it has not been calculated
+	// (volatile, so that a value calculated by one thread is safely
+	// published to the others)
+	private volatile BigFraction exact;
+	// the operation, and its operands, from which the exact value of this
+	// fraction can be calculated (operands are null once exact is known)
+	private final char op;
+	private IntervalFraction left, right;
+	// the number of operations on the longest chain of operations, whose
+	// exact values were unknown, through which this fraction was derived
+	private final int depth;
+
+	/*
+	 * invariant: lo <= value <= hi, where value is the exact value of the
+	 * fraction (and lo and hi are not NaN) &&
+	 *
+	 * (exact != null || (left != null && right != null)) &&
+	 *
+	 * (exact != null || depth <= MAX_DEPTH)
+	 */
+
+	/**
+	 * Creates a new fraction with the given bounds, and exact value.
+	 */
+	private IntervalFraction(double lo, double hi, BigFraction exact) {
+		this.lo = lo;
+		this.hi = hi;
+		this.exact = exact;
+		this.op = 0;
+		this.depth = 0;
+	}
+
+	/**
+	 * Creates a new fraction with the given bounds, whose exact value is
+	 * left op right.
+	 */
+	private IntervalFraction(double lo, double hi, char op,
+			IntervalFraction left, IntervalFraction right) {
+		this.lo = lo;
+		this.hi = hi;
+		this.op = op;
+		this.left = left;
+		this.right = right;
+		depth = 1 + Math.max(left.pendingDepth(), right.pendingDepth());
+	}
+
+	/**
+	 * Returns a new fraction with the given bounds, whose exact value is left
+	 * op right, and which is evaluated if it is derived through more than
+	 * MAX_DEPTH operations.
+	 */
+	private static IntervalFraction derive(double lo, double hi, char op,
+			IntervalFraction left, IntervalFraction right) {
+		IntervalFraction f = new IntervalFraction(lo, hi, op, left, right);
+		if (f.depth > MAX_DEPTH) {
+			// release the chain of operations f is derived from
+			f.evaluate();
+		}
+		return f;
+	}
+
+	/**
+	 * Returns the depth of the chain of operations, whose exact values are
+	 * unknown, through which this is derived (zero if its exact value is
+	 * known).
+	 */
+	private int pendingDepth() {
+		return (exact != null ? 0 : depth);
+	}
+
+	/**
+	 * Returns an interval fraction with the exact value f.
+	 *
+	 * @param f
+	 *            The value of the interval fraction.
+	 * @return An interval fraction with the value f.
+	 * @throws NullPointerException
+	 *             If f is null.
+	 */
+	public static IntervalFraction valueOf(BigFraction f) {
+		if (isDouble(f)) {
+			// both conversions are exact
+			double d = Math.scalb(f.getNumerator().doubleValue(), 1 - f
+					.getDenominator().bitLength());
+			return new IntervalFraction(d, d, f);
+		}
+		double d = f.getDoubleValue();
+		if (Double.isInfinite(d)) {
+			// f is beyond the largest double
+			return (d > 0 ? new IntervalFraction(Double.MAX_VALUE, d, f)
+					: new IntervalFraction(d, -Double.MAX_VALUE, f));
+		}
+		// getDoubleValue is within three units in the last place, and
+		// rounding d -/+ 4 ulp(d) loses at most one of them
+		double e = 4 * Math.ulp(d);
+		return new IntervalFraction(d - e, d + e, f);
+	}
+
+	/**
+	 * Returns true iff f can be represented exactly as a double.
+	 */
+	private static boolean isDouble(BigFraction f) {
+		// the denominator must be a power of two, and the numerator must fit
+		// in the significand
+		return f.getDenominator().bitCount() == 1
+				&& f.getNumerator().abs().bitLength() <= 53
+				&& f.getDenominator().bitLength() <= 1000;
+	}
+
+	/**
+	 * Returns the lower bound of this interval.
+	 *
+	 * @return A double that is at most the value of this.
+	 */
+	public double lower() {
+		return lo;
+	}
+
+	/**
+	 * Returns the upper bound of this interval.
+	 *
+	 * @return A double that is at least the value of this.
+	 */
+	public double upper() {
+		return hi;
+	}
+
+	/**
+	 * Returns the exact value of this, calculating it if necessary.
+	 *
+	 * @return The exact value of this.
+	 * @throws InvalidFractionException
+	 *             If this fraction was derived by a division by zero.
+	 */
+	public BigFraction exact() {
+		BigFraction e = exact; // (read once, since it is volatile)
+		if (e == null) {
+			evaluate();
+			e = exact;
+		}
+		return e;
+	}
+
+	/**
+	 * Calculates the exact value of this, and of any of the operands it is
+	 * derived from whose exact values are unknown. (Operands are evaluated
+	 * from an explicit stack, since long chains of updates would overflow the
+	 * call stack.) Each exact value is published before its operands are
+	 * released, so a fraction whose operands have been released by another
+	 * thread already has its exact value.
+	 */
+	private void evaluate() {
+		Deque<IntervalFraction> stack = new ArrayDeque<IntervalFraction>();
+		stack.push(this);
+		while (!stack.isEmpty()) {
+			IntervalFraction f = stack.peek(); // next fraction to evaluate
+			if (f.exact != null) {
+				stack.pop();
+				continue;
+			}
+			// the operands of f, or null if another thread has evaluated f
+			// since its exact value was read
+			IntervalFraction l = f.left, r = f.right;
+			if (l == null || r == null) {
+				// (so read the exact value again)
+				continue;
+			}
+			if (l.exact == null) {
+				stack.push(l);
+			} else if (r.exact == null) {
+				stack.push(r);
+			} else {
+				BigFraction a = l.exact, b = r.exact, value;
+				switch (f.op) {
+				case ADD:
+					value = a.add(b);
+					break;
+				case SUBTRACT:
+					value = a.subtract(b);
+					break;
+				case MULTIPLY:
+					value = a.multiply(b);
+					break;
+				default:
+					value = a.divide(b);
+				}
+				f.exact = value;
+				// the operands are no longer needed
+				f.left = null;
+				f.right = null;
+				stack.pop();
+			}
+		}
+	}
+
+	/**
+	 * Returns true iff the exact value of this is known without further
+	 * calculation.
+	 *
+	 * @return True iff the exact value of this has been calculated.
+	 */
+	public boolean isExactKnown() {
+		return exact != null;
+	}
+
+	/**
+	 * Returns a new fraction equal to this plus f.
+	 *
+	 * @param f
+	 *            The fraction to be added to this one.
+	 * @return The value of this added to f.
+	 */
+	public IntervalFraction add(IntervalFraction f) {
+		double l = lo + f.lo, h = hi + f.hi;
+		return derive(down(l, sumError(lo, f.lo, l)), up(h,
+				sumError(hi, f.hi, h)), ADD, this, f);
+	}
+
+	/**
+	 * Returns a new fraction equal to this minus f.
+	 *
+	 * @param f
+	 *            The fraction to be subtracted from this one.
+	 * @return The value of this minus f.
+	 */
+	public IntervalFraction subtract(IntervalFraction f) {
+		double l = lo - f.hi, h = hi - f.lo;
+		return derive(down(l, sumError(lo, -f.hi, l)), up(h,
+				sumError(hi, -f.lo, h)), SUBTRACT, this, f);
+	}
+
+	/**
+	 * Returns a new fraction equal to this multiplied by f.
+	 *
+	 * @param f
+	 *            The fraction to multiply this one by.
+	 * @return The value of this multiplied by f.
+	 */
+	public IntervalFraction multiply(IntervalFraction f) {
+		// the bounds of the product are products of the bounds
+		double l = Double.POSITIVE_INFINITY, h = Double.NEGATIVE_INFINITY;
+		for (double a : new double[] { lo, hi }) {
+			for (double b : new double[] { f.lo, f.hi }) {
+				double p = a * b;
+				if (Math.abs(p) < EXACT_ERROR_MIN && a != 0 && b != 0) {
+					// p may have been rounded (even to zero) without a
+					// representable error, so assume that it was
+					l = Math.min(l, Math.nextDown(p));
+					h = Math.max(h, Math.nextUp(p));
+					continue;
+				}
+				double err = Math.fma(a, b, -p); // a * b - p, exactly
+				l = Math.min(l, down(p, err));
+				h = Math.max(h, up(p, err));
+			}
+		}
+		return derive(l, h, MULTIPLY, this, f);
+	}
+
+	/**
+	 * Returns a new fraction equal to this divided by f. If the interval of f
+	 * contains zero, the result has an unbounded interval; an
+	 * InvalidFractionException is only thrown if the exact value of the
+	 * result is calculated (which may be when it is created) and f is exactly
+	 * zero.
+	 *
+	 * @param f
+	 *            The fraction that will be used to divide this.
+	 * @return The value of this divided by f.
+	 */
+	public IntervalFraction divide(IntervalFraction f) {
+		if (f.lo <= 0 && f.hi >= 0) {
+			return derive(Double.NEGATIVE_INFINITY,
+					Double.POSITIVE_INFINITY, DIVIDE, this, f);
+		}
+		// the bounds of the quotient are quotients of the bounds
+		double l = Double.POSITIVE_INFINITY, h = Double.NEGATIVE_INFINITY;
+		for (double a : new double[] { lo, hi }) {
+			for (double b : new double[] { f.lo, f.hi }) {
+				double q = a / b;
+				if ((Math.abs(q) < Double.MIN_NORMAL || Math.abs(a)
+						< EXACT_ERROR_MIN) && a != 0) {
+					// q may have been rounded (even to zero) without a
+					// representable remainder, so assume that it was
+					l = Math.min(l, Math.nextDown(q));
+					h = Math.max(h, Math.nextUp(q));
+					continue;
+				}
+				// the sign of a / b - q is the sign of (a - q * b) / b, where
+				// the remainder a - q * b is exact (and is not divided by b,
+				// which could round it to zero)
+				double r = Math.fma(q, b, -a); // q * b - a, exactly
+				double err = (b > 0 ? -r : r);
+				l = Math.min(l, down(q, err));
+				h = Math.max(h, up(q, err));
+			}
+		}
+		return derive(l, h, DIVIDE, this, f);
+	}
+
+	/**
+	 * Used to calculate one minus this.
+	 *
+	 * @return One minus this.
+	 */
+	public IntervalFraction complement() {
+		return ONE.subtract(this);
+	}
+
+	/**
+	 * Returns the rounding error (a + b) - s of the sum s = a + b, exactly
+	 * (Knuth's TwoSum), or NaN if the sum is not finite.
+	 */
+	private static double sumError(double a, double b, double s) {
+		double bb = s - a;
+		return (a - (s - bb)) + (b - bb);
+	}
+
+	/**
+	 * Returns the largest double that is at most r + err, where r is a
+	 * rounded result and err is (the sign of) its rounding error.
+	 */
+	private static double down(double r, double err) {
+		if (Double.isNaN(err) || Double.isInfinite(r)) {
+			// the result overflowed, or involved an unbounded interval
+			return Double.NEGATIVE_INFINITY;
+		}
+		return (err < 0 ? Math.nextDown(r) : r);
+	}
+
+	/**
+	 * Returns the smallest double that is at least r + err, where r is a
+	 * rounded result and err is (the sign of) its rounding error.
+	 */
+	private static double up(double r, double err) {
+		if (Double.isNaN(err) || Double.isInfinite(r)) {
+			// the result overflowed, or involved an unbounded interval
+			return Double.POSITIVE_INFINITY;
+		}
+		return (err > 0 ? Math.nextUp(r) : r);
+	}
+
+	/**
+	 * Returns an approximation of the value of this: the midpoint of its
+	 * interval, or its exact value if that is known.
+	 *
+	 * @return An approximation of the value of this.
+	 */
+	public double getDoubleValue() {
+		BigFraction e = exact; // (read once, since it is volatile)
+		if (e != null) {
+			return e.getDoubleValue();
+		}
+		return (lo == hi ? lo : lo / 2 + hi / 2);
+	}
+
+	/**
+	 * Used to calculate if this represents a rational-value in the range [0,1].
+	 *
+	 * @return True iff this fraction has a value in the range [0,1].
+	 */
+	public boolean isAProbability() {
+		return compareTo(ZERO) >= 0 && compareTo(ONE) <= 0;
+	}
+
+	/**
+	 * Returns -1, 0 or 1 as the value of this is less than, equal to or
+	 * greater than threshold. The exact value of this is only calculated if
+	 * the interval of this contains threshold.
+	 *
+	 * @param threshold
+	 *            The fraction that this is compared to.
+	 * @return The sign of this minus threshold.
+	 */
+	public int compareTo(BigFraction threshold) {
+		return compareTo(valueOf(threshold));
+	}
+
+	/**
+	 * Returns -1, 0 or 1 as the value of this is less than, equal to or
+	 * greater than the value of f. The exact values are only calculated if the
+	 * intervals of this and f overlap.
+	 */
+	@Override
+	public int compareTo(IntervalFraction f) {
+		if (f == this) {
+			return 0;
+		}
+		if (hi < f.lo) {
+			return -1;
+		}
+		if (lo > f.hi) {
+			return 1;
+		}
+		if (lo == hi && f.lo == f.hi) {
+			// both intervals are the same single point
+			return 0;
+		}
+		return exact().compareTo(f.exact());
+	}
+
+	/**
+	 * Returns true iff o is an IntervalFraction with the same value as this.
+	 */
+	@Override
+	public boolean equals(Object o) {
+		if (!(o instanceof IntervalFraction)) {
+			return false;
+		}
+		return compareTo((IntervalFraction) o) == 0;
+	}
+
+	/**
+	 * Returns the hash code of the exact value of this (which is calculated if
+	 * it is not already known).
+	 */
+	@Override
+	public int hashCode() {
+		return exact().hashCode();
+	}
+
+	/**
+	 * Returns the string representation of the exact value of this (see
+	 * {@link BigFraction#toString()}), which is calculated if it is not
+	 * already known.
+	 */
+	@Override
+	public String toString() {
+		return exact().toString();
+	}
+
+	/**
+	 * Determines whether this fraction is internally consistent.
+	 *
+	 * @return true if this fraction is internally consistent, and false
+	 *         otherwise
+	 */
+	public boolean checkInv() {
+		if (Double.isNaN(lo) || Double.isNaN(hi) || lo > hi) {
+			return false;
+		}
+		BigFraction e = exact;
+		if (e == null) {
+			// (the operands are only released once exact is known)
+			IntervalFraction l = left, r = right;
+			return (l != null && r != null && depth <= MAX_DEPTH)
+					|| exact != null;
+		}
+		return IntervalFraction.valueOf(e).hi >= lo
+				&& IntervalFraction.valueOf(e).lo <= hi;
+	}
+
+}
@@ -0,0 +1,151 @@
+package csse2002.math;
+
+import java.math.BigInteger;
+
+/**
+ * <p>
+ * Approximate arithmetic on probabilities represented by their natural
+ * logarithms, as (boxed) doubles. Zero is represented by negative infinity.
+ * </p>
+ * 
+ * <p>
+ * Multiplication and division become addition and subtraction of logarithms,
+ * so products of many small probabilities, which would underflow as doubles,
+ * keep their full relative precision. Addition and subtraction are carried out
+ * relative to the larger operand (the "log-sum-exp" trick), so they do not
+ * overflow or underflow either.
+ * </p>
+ */
+public final class LogArithmetic implements ProbabilityArithmetic<Double> {
+
+	/** The (only) instance of log-space arithmetic. */
+	public final static LogArithmetic INSTANCE = new LogArithmetic();
+
+	// the relative difference allowed between approximately equal values
+	private final static double TOLERANCE = 1e-9;
+	// the natural logarithm of two
+	private final static double LN2 = Math.log(2.0);
+
+	private final static Double ZERO = Double.NEGATIVE_INFINITY;
+	private final static Double ONE = 0.0;
+
+	private LogArithmetic() {
+	}
+
+	@Override
+	public Double zero() {
+		return ZERO;
+	}
+
+	@Override
+	public Double one() {
+		return ONE;
+	}
+
+	/**
+	 * @throws InvalidProbabilityException
+	 *             If f is negative, and so has no logarithm.
+	 */
+	@Override
+	public Double valueOf(BigFraction f) {
+		BigInteger n = f.getNumerator(), m = f.getDenominator();
+		if (n.signum() < 0) {
+			throw new InvalidProbabilityException(
+					"Negative values have no logarithm.");
+		}
+		if (n.signum() == 0) {
+			return ZERO;
+		}
+		// log(n/m) = log(n/m * 2^shift) - shift * log(2), where the shift
+		// gives the integer quotient about 64 significant bits
+		int shift = Long.SIZE - (n.bitLength() - m.bitLength());
+		BigInteger q = (shift >= 0 ? n.shiftLeft(shift).divide(m) : n
+				.divide(m.shiftLeft(-shift)));
+		return Math.log(q.doubleValue()) - shift * LN2;
+	}
+
+	@Override
+	public Double add(Double a, Double b) {
+		double hi = Math.max(a, b), lo = Math.min(a, b);
+		if (hi == Double.NEGATIVE_INFINITY) {
+			return ZERO;
+		}
+		return hi + Math.log1p(Math.exp(lo - hi));
+	}
+
+	/**
+	 * @throws ArithmeticException
+	 *             If b is greater than a, so that the result would be negative.
+	 */
+	@Override
+	public Double subtract(Double a, Double b) {
+		if (b > a) {
+			throw new ArithmeticException(
+					"Negative values cannot be represented.");
+		}
+		if (b == Double.NEGATIVE_INFINITY) {
+			return a;
+		}
+		if (a.doubleValue() == b.doubleValue()) {
+			return ZERO;
+		}
+		return a + Math.log(-Math.expm1(b - a));
+	}
+
+	@Override
+	public Double multiply(Double a, Double b) {
+		return a + b;
+	}
+
+	/**
+	 * @throws ArithmeticException
+	 *             If b is zero.
+	 */
+	@Override
+	public Double divide(Double a, Double b) {
+		if (b == Double.NEGATIVE_INFINITY) {
+			throw new ArithmeticException("Division by zero.");
+		}
+		return a - b;
+	}
+
+	/**
+	 * @throws ArithmeticException
+	 *             If a is greater than one, so that the result would be
+	 *             negative.
+	 */
+	@Override
+	public Double complement(Double a) {
+		return subtract(ONE, a);
+	}
+
+	@Override
+	public int compare(Double a, Double b) {
+		return Double.compare(a, b);
+	}
+
+	@Override
+	public boolean approximatelyEqual(Double a, Double b) {
+		if (a.doubleValue() == b.doubleValue()) {
+			return true;
+		}
+		// a relative difference in value is an absolute difference in logs
+		return Math.abs(a - b) <= TOLERANCE;
+	}
+
+	@Override
+	public double getDoubleValue(Double a) {
+		return Math.exp(a);
+	}
+
+	@Override
+	public String toString(Double a) {
+		return Double.toString(Math.exp(a));
+	}
+
+	@Override
+	public String toString() {
+		return "log";
+	}
+
+}
@@ -0,0 +1,213 @@
+package csse2002.math;
+
+import java.util.Comparator;
+
+/**
+ * <p>
+ * The arithmetic used to calculate with probabilities of type P, so that the
+ * same calculations can be carried out exactly (see {@link ExactArithmetic}),
+ * or approximately but much faster (see {@link DoubleArithmetic} and
+ * {@link LogArithmetic}).
+ * </p>
+ * 
+ * <p>
+ * Values of type P are treated as immutable: every operation returns a new
+ * value rather than modifying its arguments. The ordering given by
+ * {@link #compare(Object, Object)} is the natural ordering of the
+ * probabilities represented, so an implementation can be used to order a
+ * sorted collection of values of type P.
+ * </p>
+ * 
+ * @param <P>
+ *            The type used to represent probabilities.
+ */
+public interface ProbabilityArithmetic<P> extends Comparator<P> {
+
+	/**
+	 * Returns the representation of zero.
+	 * 
+	 * @return Zero.
+	 */
+	P zero();
+
+	/**
+	 * Returns the representation of one.
+	 * 
+	 * @return One.
+	 */
+	P one();
+
+	/**
+	 * Returns the representation of (or the closest approximation to) f.
+	 * 
+	 * @param f
+	 *            The fraction to be represented.
+	 * @return The value of f.
+	 * @throws NullPointerException
+	 *             If f is null.
+	 */
+	P valueOf(BigFraction f);
+
+	/**
+	 * Returns a plus b.
+	 * 
+	 * @param a
+	 *            The first value to be added.
+	 * @param b
+	 *            The second value to be added.
+	 * @return The value of a added to b.
+	 */
+	P add(P a, P b);
+
+	/**
+	 * Returns a minus b.
+	 * 
+	 * @param a
+	 *            The value to be subtracted from.
+	 * @param b
+	 *            The value to be subtracted.
+	 * @return The value of a minus b.
+	 */
+	P subtract(P a, P b);
+
+	/**
+	 * Returns a multiplied by b.
+	 * 
+	 * @param a
+	 *            The first value to be multiplied.
+	 * @param b
+	 *            The second value to be multiplied.
+	 * @return The value of a multiplied by b.
+	 */
+	P multiply(P a, P b);
+
+	/**
+	 * Returns a divided by b.
+	 * 
+	 * @param a
+	 *            The value to be divided.
+	 * @param b
+	 *            The value to divide by.
+	 * @return The value of a divided by b.
+	 */
+	P divide(P a, P b);
+
+	/**
+	 * Returns one minus a.
+	 * 
+	 * @param a
+	 *            The value to be complemented.
+	 * @return One minus a.
+	 */
+	P complement(P a);
+
+	/**
+	 * Returns p * x + (1 - p) * y: the probability of an event that has
+	 * probability x if an event of probability p occurs, and probability y
+	 * otherwise. (Each product is calculated as by
+	 * {@link #multiply(Object, Object)}, so that with approximate arithmetic
+	 * the result is never less than either of them.)
+	 * 
+	 * @param p
+	 *            The weight given to x.
+	 * @param x
+	 *            The value returned when p is one.
+	 * @param y
+	 *            The value returned when p is zero.
+	 * @return The affine combination of x and y with weight p.
+	 */
+	default P lerp(P p, P x, P y) {
+		return add(multiply(p, x), multiply(complement(p), y));
+	}
+
+	/**
+	 * Returns a * b / c. (The product is calculated as by
+	 * {@link #multiply(Object, Object)}, so that with approximate arithmetic
+	 * it is the same as the corresponding product of
+	 * {@link #lerp(Object, Object, Object)}.)
+	 * 
+	 * @param a
+	 *            The first factor of the numerator.
+	 * @param b
+	 *            The second factor of the numerator.
+	 * @param c
+	 *            The divisor.
+	 * @return The value of a multiplied by b and divided by c.
+	 */
+	default P mulDiv(P a, P b, P c) {
+		return divide(multiply(a, b), c);
+	}
+
+	/**
+	 * Returns a negative integer, zero or a positive integer as a is less
+	 * than, equal to, or greater than b.
+	 */
+	@Override
+	int compare(P a, P b);
+
+	/**
+	 * Returns true iff a and b are equal to within the precision of this
+	 * arithmetic. For exact arithmetic this is the same as a and b being
+	 * equal; for approximate arithmetic it allows for the rounding errors
+	 * introduced by the operations of this arithmetic.
+	 * 
+	 * @param a
+	 *            The first value to be compared.
+	 * @param b
+	 *            The second value to be compared.
+	 * @return True iff a and b are equal to within the precision of this
+	 *         arithmetic.
+	 */
+	boolean approximatelyEqual(P a, P b);
+
+	/**
+	 * Returns true iff a is noticeably greater than b: greater than b, and
+	 * not equal to it to within the precision of this arithmetic (see
+	 * {@link #approximatelyEqual(Object, Object)}). This is used for checks
+	 * that allow for rounding errors, such as the check that the weight of a
+	 * distribution does not exceed one, so an implementation may allow a
+	 * greater difference if that avoids calculating a and b more precisely.
+	 * 
+	 * @param a
+	 *            The first value to be compared.
+	 * @param b
+	 *            The second value to be compared.
+	 * @return True iff a is noticeably greater than b.
+	 */
+	default boolean exceeds(P a, P b) {
+		return compare(a, b) > 0 && !approximatelyEqual(a, b);
+	}
+
+	/**
+	 * Returns a as a double.
+	 * 
+	 * @param a
+	 *            The value to be converted.
+	 * @return The closest double to the value of a.
+	 */
+	double getDoubleValue(P a);
+
+	/**
+	 * Returns a string representation of the value of a.
+	 * 
+	 * @param a
+	 *            The value to be converted.
+	 * @return A string representation of the value of a.
+	 */
+	String toString(P a);
+
+	/**
+	 * Appends the string representation of the value of a (see
+	 * {@link #toString(Object)}) to sb.
+	 * 
+	 * @param sb
+	 *            The builder to which the representation is appended.
+	 * @param a
+	 *            The value to be converted.
+	 * @return sb.
+	 */
+	default StringBuilder appendTo(StringBuilder sb, P a) {
+		return sb.append(toString(a));
+	}
+
+}
@@ -0,0 +1,543 @@
+package csse2002.math.test;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import csse2002.math.*;
+import java.io.*;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+/**
+ * Basic tests for the {@link BigFraction} class, focusing on the switch
+ * between the long-valued and BigInteger-valued representations.
+ */
+public class BigFractionTest {
+
+	/**
+	 * Test that fractions are constructed in reduced normal form.
+	 */
+	@Test
+	public void testNormalForm() {
+		Assert.assertEquals("1/2", new BigFraction(3, 6).toString());
+		Assert.assertEquals("-1/2", new BigFraction(2, -4).toString());
+		Assert.assertEquals("0", new BigFraction(0, -7).toString());
+		Assert.assertEquals(BigFraction.ZERO, new BigFraction(0, 5));
+		Assert.assertEquals(BigFraction.ONE, new BigFraction(9, 9));
+		Assert.assertTrue(new BigFraction(Integer.MIN_VALUE, -1).checkInv());
+	}
+
+	/**
+	 * Test that a zero denominator is rejected.
+	 */
+	@Test(expected = InvalidFractionException.class)
+	public void testZeroDenominator() {
+		new BigFraction(1, 0);
+	}
+
+	/**
+	 * Test that division by zero is rejected.
+	 */
+	@Test(expected = InvalidFractionException.class)
+	public void testDivideByZero() {
+		new BigFraction(1, 2).divide(BigFraction.ZERO);
+	}
+
+	/**
+	 * Test basic arithmetic on fractions that fit in a long.
+	 */
+	@Test
+	public void testSmallArithmetic() {
+		BigFraction a = new BigFraction(1, 6);
+		BigFraction b = new BigFraction(3, 10);
+		Assert.assertEquals(new BigFraction(7, 15), a.add(b));
+		Assert.assertEquals(new BigFraction(-2, 15), a.subtract(b));
+		Assert.assertEquals(new BigFraction(1, 20), a.multiply(b));
+		Assert.assertEquals(new BigFraction(5, 9), a.divide(b));
+		Assert.assertEquals(new BigFraction(5, 6), a.complement());
+		Assert.assertEquals(BigFraction.ZERO, a.subtract(a));
+		Assert.assertTrue(a.compareTo(b) < 0);
+		Assert.assertTrue(b.compareTo(a) > 0);
+		Assert.assertEquals(0, a.compareTo(new BigFraction(2, 12)));
+	}
+
+	/**
+	 * Test that results which overflow a long are promoted to BigIntegers,
+	 * and that they are demoted again once they fit.
+	 */
+	@Test
+	public void testPromotion() {
+		BigFraction x = new BigFraction(1, Integer.MAX_VALUE);
+		BigFraction y = x.multiply(x).multiply(x); // denominator > 2^63
+		BigInteger max = BigInteger.valueOf(Integer.MAX_VALUE);
+		Assert.assertEquals(BigInteger.ONE, y.getNumerator());
+		Assert.assertEquals(max.pow(3), y.getDenominator());
+		Assert.assertTrue(y.checkInv());
+		Assert.assertTrue(y.compareTo(x) < 0);
+		Assert.assertTrue(y.compareTo(BigFraction.ZERO) > 0);
+
+		// dividing by x twice brings the value back into long range
+		BigFraction z = y.divide(x).divide(x);
+		Assert.assertEquals(x, z);
+		Assert.assertEquals(x.hashCode(), z.hashCode());
+		Assert.assertTrue(z.checkInv());
+
+		// additions and subtractions on large coprime denominators
+		BigFraction u = new BigFraction(Integer.MAX_VALUE - 1, Integer.MAX_VALUE);
+		BigFraction v = new BigFraction(1, Integer.MAX_VALUE - 2);
+		BigFraction w = u.add(v).subtract(v);
+		Assert.assertEquals(u, w);
+		Assert.assertTrue(w.checkInv());
+	}
+
+	/**
+	 * Checks that a.compareTo(b) and b.compareTo(a) agree with the sign of the
+	 * exact cross-multiplied difference of a and b.
+	 */
+	private void checkCompare(BigFraction a, BigFraction b) {
+		int expected = a.getNumerator().multiply(b.getDenominator())
+				.compareTo(b.getNumerator().multiply(a.getDenominator()));
+		Assert.assertEquals(a + " vs " + b, expected, a.compareTo(b));
+		Assert.assertEquals(b + " vs " + a, -expected, b.compareTo(a));
+	}
+
+	/**
+	 * Returns 2 to the power e (which may be negative), exactly.
+	 */
+	private BigFraction powerOfTwo(int e) {
+		BigFraction p = BigFraction.ONE;
+		BigFraction two = new BigFraction(e < 0 ? 1 : 2, e < 0 ? 2 : 1);
+		for (int i = 0; i < Math.abs(e); i++) {
+			p = p.multiply(two);
+		}
+		return p;
+	}
+
+	/**
+	 * Test that BigInteger-valued fractions closer together than the relative
+	 * error of their double approximations (2^-50) are compared exactly.
+	 */
+	@Test
+	public void testCompareClose() {
+		BigFraction x = new BigFraction(1, Integer.MAX_VALUE);
+		BigFraction tiny = x.multiply(x).multiply(x); // about 2^-93
+		BigFraction third = new BigFraction(1, 3);
+		BigFraction a = third.add(tiny);
+		BigFraction b = third.add(tiny).add(tiny);
+		checkCompare(a, b);
+		checkCompare(third, a);
+		// relative difference of about 2^-186
+		checkCompare(a, a.add(tiny.multiply(tiny)));
+		checkCompare(BigFraction.ZERO.subtract(a),
+				BigFraction.ZERO.subtract(b));
+		// equal values, built differently, in distinct instances
+		BigFraction c = tiny.add(third);
+		Assert.assertNotSame(a, c);
+		Assert.assertEquals(0, a.compareTo(c));
+		checkCompare(a, c);
+	}
+
+	/**
+	 * Test that fractions whose approximations overflow a double (beyond
+	 * 2^1024), or are too small to be used (below 2^-900), are compared
+	 * exactly, whether or not the fraction they are compared with has a
+	 * usable approximation.
+	 */
+	@Test
+	public void testCompareExtremes() {
+		BigFraction huge = powerOfTwo(1100).add(new BigFraction(1, 3));
+		BigFraction tiny = BigFraction.ONE.divide(huge); // below 2^-1100
+		BigFraction[] values = { huge, huge.add(BigFraction.ONE),
+				huge.multiply(new BigFraction(3, 2)),
+				BigFraction.ZERO.subtract(huge), tiny,
+				tiny.multiply(new BigFraction(Integer.MAX_VALUE - 1,
+						Integer.MAX_VALUE)),
+				BigFraction.ZERO.subtract(tiny), BigFraction.ZERO,
+				BigFraction.ONE, new BigFraction(-1, 7),
+				powerOfTwo(1023), powerOfTwo(-1100) };
+		for (BigFraction a : values) {
+			for (BigFraction b : values) {
+				checkCompare(a, b);
+			}
+		}
+	}
+
+	/**
+	 * Test the fall-back to exact comparison around APPROX_MIN (2^-900), the
+	 * smallest magnitude at which approximations are used: an approximation
+	 * of NaN on either side, or both, must still give exact results.
+	 */
+	@Test
+	public void testCompareApproximationLimit() {
+		BigFraction limit = powerOfTwo(-900);
+		BigFraction third = new BigFraction(1, 3);
+		BigFraction[] values = { limit, powerOfTwo(-899), powerOfTwo(-901),
+				limit.multiply(third), limit.divide(third),
+				limit.add(powerOfTwo(-960)), limit.subtract(powerOfTwo(-960)),
+				BigFraction.ZERO.subtract(limit), BigFraction.ZERO, third };
+		for (BigFraction a : values) {
+			for (BigFraction b : values) {
+				checkCompare(a, b);
+			}
+		}
+	}
+
+	/**
+	 * Test long-valued fractions whose cross-multiplied numerators overflow a
+	 * long, so that the comparison falls through to the approximations (and,
+	 * when they are too close to separate, to the exact comparison).
+	 */
+	@Test
+	public void testCompareLongOverflow() {
+		int m = Integer.MAX_VALUE;
+		// 1 - 1/(m(m-2)) and 1 - 1/((m-4)(m-6)), about 2^-90 apart, with
+		// numerators and denominators of about 2^62
+		BigFraction a = BigFraction.ONE.subtract(new BigFraction(1, m)
+				.multiply(new BigFraction(1, m - 2)));
+		BigFraction b = BigFraction.ONE.subtract(new BigFraction(1, m - 4)
+				.multiply(new BigFraction(1, m - 6)));
+		Assert.assertTrue(a.getDenominator().bitLength() < Long.SIZE);
+		Assert.assertTrue(b.getDenominator().bitLength() < Long.SIZE);
+		Assert.assertTrue(a.getDenominator().bitLength() > Long.SIZE / 2);
+		checkCompare(a, b);
+		checkCompare(BigFraction.ZERO.subtract(a),
+				BigFraction.ZERO.subtract(b));
+		// separated by the approximations
+		BigFraction c = new BigFraction(m - 1, m).multiply(new BigFraction(
+				m - 3, m - 2));
+		checkCompare(a, c);
+		checkCompare(b, c);
+		// random long-valued products, compared with each other
+		Random random = new Random(2002);
+		List<BigFraction> values = new ArrayList<BigFraction>();
+		for (int i = 0; i < 40; i++) {
+			int n1 = random.nextInt(m - 1) + 1, n2 = random.nextInt(m - 1) + 1;
+			values.add(new BigFraction(n1, m - i).multiply(new BigFraction(
+					n2, m - 2 * i - 1)));
+		}
+		values.add(a);
+		values.add(b);
+		for (BigFraction x : values) {
+			for (BigFraction y : values) {
+				checkCompare(x, y);
+			}
+		}
+	}
+
+	/**
+	 * Checks that valueOf(n, m) is equal to the fraction constructed from n and
+	 * m, and is in reduced normal form, and returns it.
+	 */
+	private BigFraction checkValueOf(int n, int m) {
+		BigFraction f = BigFraction.valueOf(n, m);
+		Assert.assertEquals(new BigFraction(n, m), f);
+		Assert.assertTrue(f.checkInv());
+		Assert.assertEquals(BigInteger.ONE, f.getNumerator().gcd(
+				f.getDenominator()));
+		Assert.assertEquals(1, f.getDenominator().signum());
+		return f;
+	}
+
+	/**
+	 * Test that valueOf returns the instances of the seeded table for fractions
+	 * in [0,1] with small denominators, however they are written.
+	 */
+	@Test
+	public void testValueOfSeeded() {
+		Assert.assertSame(BigFraction.ZERO, BigFraction.valueOf(0));
+		Assert.assertSame(BigFraction.ZERO, BigFraction.valueOf(0, -7));
+		Assert.assertSame(BigFraction.ONE, BigFraction.valueOf(1));
+		Assert.assertSame(BigFraction.ONE, BigFraction.valueOf(-5, -5));
+		for (int m = 1; m <= 12; m++) {
+			for (int n = 0; n <= m; n++) {
+				BigFraction f = checkValueOf(n, m);
+				for (int k = 2; k <= 5; k++) {
+					Assert.assertSame(f, BigFraction.valueOf(n * k, m * k));
+					Assert.assertSame(f, BigFraction.valueOf(-n * k, -m * k));
+				}
+			}
+		}
+	}
+
+	/**
+	 * Test that valueOf gives correct, reduced results for fractions outside
+	 * the seeded table.
+	 */
+	@Test
+	public void testValueOfUnseeded() {
+		int[][] cases = { { 5, 3 }, { -3, 4 }, { 3, -4 }, { 7, 13 },
+				{ 26, 39 }, { -26, -39 }, { 100, 1 }, { -1, 1 },
+				{ Integer.MAX_VALUE, Integer.MAX_VALUE - 1 },
+				{ 1, Integer.MAX_VALUE }, { Integer.MIN_VALUE, 1 },
+				{ Integer.MIN_VALUE, 3 }, { 1, Integer.MIN_VALUE },
+				{ Integer.MIN_VALUE, -2 }, { 6, Integer.MIN_VALUE },
+				{ Integer.MIN_VALUE, Integer.MIN_VALUE } };
+		for (int[] c : cases) {
+			checkValueOf(c[0], c[1]);
+			// a second request, which may be answered from the cache
+			checkValueOf(c[0], c[1]);
+		}
+		Assert.assertEquals(new BigFraction(2, 3), BigFraction.valueOf(26, 39));
+		Assert.assertEquals(new BigFraction(1, Integer.MIN_VALUE), BigFraction
+				.valueOf(-2, Integer.MIN_VALUE).subtract(BigFraction.valueOf(
+				-3, Integer.MIN_VALUE)));
+	}
+
+	/**
+	 * Test that requesting many more distinct fractions than the cache holds
+	 * (1024) does not change any result of valueOf.
+	 */
+	@Test
+	public void testValueOfCacheBound() {
+		Random random = new Random(1024);
+		int[][] requests = new int[3000][];
+		for (int i = 0; i < requests.length; i++) {
+			int m = random.nextInt(1000) + 13;
+			requests[i] = new int[] { random.nextInt(4 * m) - 2 * m, m };
+		}
+		for (int[] r : requests) {
+			checkValueOf(r[0], r[1]);
+		}
+		// again, now that most of the early requests have been evicted
+		for (int[] r : requests) {
+			checkValueOf(r[0], r[1]);
+		}
+		// an equal request answered from the cache gives the same value
+		BigFraction f = BigFraction.valueOf(17, 19);
+		Assert.assertEquals(f, BigFraction.valueOf(34, 38));
+		// the seeded table is unaffected
+		for (int m = 1; m <= 12; m++) {
+			for (int n = 0; n <= m; n++) {
+				Assert.assertSame(BigFraction.valueOf(n, m), BigFraction
+						.valueOf(2 * n, 2 * m));
+				Assert.assertEquals(new BigFraction(n, m), BigFraction
+						.valueOf(n, m));
+			}
+		}
+	}
+
+	/**
+	 * Test that a FractionAccumulator gives the same totals as repeated
+	 * BigFraction arithmetic, including once the total overflows a long.
+	 */
+	@Test
+	public void testAccumulator() {
+		FractionAccumulator acc = new FractionAccumulator();
+		Assert.assertEquals(BigFraction.ZERO, acc.toBigFraction());
+		BigFraction expected = BigFraction.ZERO;
+		for (int i = 1; i <= 60; i++) {
+			BigFraction f = new BigFraction(1, i);
+			acc.add(f);
+			expected = expected.add(f);
+			acc.addProduct(f, f);
+			expected = expected.add(f.multiply(f));
+			Assert.assertEquals(expected, acc.toBigFraction());
+			// the unreduced total compares like the reduced one
+			Assert.assertEquals(0, acc.compareTo(expected));
+			Assert.assertEquals(-1, acc.compareTo(expected.add(f.multiply(f))));
+			Assert.assertEquals(1, acc.compareTo(expected.subtract(f
+					.multiply(f))));
+		}
+		Assert.assertTrue(expected.getDenominator().bitLength() > 64);
+		for (int i = 60; i >= 1; i--) {
+			BigFraction f = new BigFraction(1, i);
+			acc.subtract(f);
+			acc.subtractProduct(f, f);
+		}
+		Assert.assertEquals(BigFraction.ZERO, acc.toBigFraction());
+		acc.reset();
+		acc.add(new BigFraction(1, 3));
+		acc.add(new BigFraction(2, 3));
+		Assert.assertEquals(BigFraction.ONE, acc.toBigFraction());
+	}
+
+	/**
+	 * Test the fused operations against the equivalent sequence of basic
+	 * operations, on both long-valued and BigInteger-valued fractions.
+	 */
+	@Test
+	public void testFusedOperations() {
+		BigFraction big = new BigFraction(1, Integer.MAX_VALUE);
+		big = big.multiply(big).multiply(big);
+		BigFraction[] fs = { BigFraction.ZERO, new BigFraction(1, 3),
+				new BigFraction(5, 7), BigFraction.ONE, big,
+				big.complement() };
+		for (BigFraction p : fs) {
+			for (BigFraction x : fs) {
+				for (BigFraction y : fs) {
+					Assert.assertEquals(p.multiply(x).add(
+							p.complement().multiply(y)), BigFraction.lerp(p,
+							x, y));
+					if (!y.equals(BigFraction.ZERO)) {
+						Assert.assertEquals(p.multiply(x).divide(y),
+								BigFraction.mulDiv(p, x, y));
+					}
+				}
+			}
+		}
+		Assert.assertEquals(fs[1].multiply(fs[2]).add(fs[4].multiply(fs[5])),
+				BigFraction.dot(new BigFraction[] { fs[1], fs[4] },
+						new BigFraction[] { fs[2], fs[5] }));
+		Assert.assertEquals(BigFraction.ZERO, BigFraction.dot(
+				new BigFraction[0], new BigFraction[0]));
+	}
+
+	/**
+	 * Test that mulDiv rejects a zero divisor.
+	 */
+	@Test(expected = InvalidFractionException.class)
+	public void testMulDivByZero() {
+		BigFraction.mulDiv(BigFraction.ONE, BigFraction.ONE, BigFraction.ZERO);
+	}
+
+	/**
+	 * Test best rational approximations with bounded denominators.
+	 */
+	@Test
+	public void testLimitDenominator() {
+		BigFraction pi = new BigFraction(314159265, 100000000);
+		Assert.assertEquals(new BigFraction(22, 7), pi
+				.limitDenominator(BigInteger.valueOf(10)));
+		Assert.assertEquals(new BigFraction(311, 99), pi
+				.limitDenominator(BigInteger.valueOf(100)));
+		Assert.assertEquals(new BigFraction(355, 113), pi
+				.limitDenominator(BigInteger.valueOf(1000)));
+		Assert.assertEquals(new BigFraction(-355, 113), new BigFraction(
+				-314159265, 100000000).limitDenominator(BigInteger
+				.valueOf(1000)));
+		Assert.assertEquals(new BigFraction(3), pi
+				.limitDenominator(BigInteger.ONE));
+		BigFraction third = new BigFraction(1, 3);
+		Assert.assertSame(third, third.limitDenominator(BigInteger.TEN));
+	}
+
+	/**
+	 * Test that a denominator limit must be positive.
+	 */
+	@Test(expected = IllegalArgumentException.class)
+	public void testLimitDenominatorZero() {
+		new BigFraction(1, 3).limitDenominator(BigInteger.ZERO);
+	}
+
+	/**
+	 * Test that appending a fraction to a StringBuilder gives its string
+	 * representation, for both representations.
+	 */
+	@Test
+	public void testAppendTo() {
+		BigFraction big = new BigFraction(-1, Integer.MAX_VALUE);
+		big = big.multiply(big).multiply(big);
+		BigFraction[] fs = { BigFraction.ZERO, new BigFraction(-7),
+				new BigFraction(3, 4), big,
+				BigFraction.ONE.divide(big.multiply(big)) };
+		StringBuilder sb = new StringBuilder("x");
+		String expected = "x";
+		for (BigFraction f : fs) {
+			Assert.assertSame(sb, f.appendTo(sb));
+			expected += f.toString();
+		}
+		Assert.assertEquals(expected, sb.toString());
+	}
+
+	/**
+	 * Test that fractions survive a round trip through the binary codec, both
+	 * through a DataOutput and through a ByteBuffer.
+	 */
+	@Test
+	public void testCodec() throws IOException {
+		BigFraction big = new BigFraction(-1, Integer.MAX_VALUE);
+		big = big.multiply(big).multiply(big);
+		BigFraction[] fs = { BigFraction.ZERO, BigFraction.ONE,
+				new BigFraction(1, 2), new BigFraction(-7, 3),
+				new BigFraction(Integer.MIN_VALUE, 1),
+				new BigFraction(Integer.MAX_VALUE - 1, Integer.MAX_VALUE),
+				big };
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		int size = 0;
+		for (BigFraction f : fs) {
+			FractionCodec.write(out, f);
+			size += FractionCodec.encodedSize(f);
+		}
+		Assert.assertEquals(size, bytes.size());
+		Assert.assertEquals(3, FractionCodec.encodedSize(fs[2]));
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(
+				bytes.toByteArray()));
+		ByteBuffer buffer = ByteBuffer.allocate(size);
+		for (BigFraction f : fs) {
+			Assert.assertEquals(f, FractionCodec.read(in));
+			FractionCodec.write(buffer, f);
+		}
+		Assert.assertEquals(-1, in.read());
+		buffer.flip();
+		for (BigFraction f : fs) {
+			Assert.assertEquals(f, FractionCodec.read(buffer));
+		}
+		Assert.assertFalse(buffer.hasRemaining());
+	}
+
+	/**
+	 * Test that the codec rejects a fraction that is not in reduced normal
+	 * form.
+	 */
+	@Test(expected = IOException.class)
+	public void testCodecNotReduced() throws IOException {
+		// tag SMALL, numerator 2 (zig-zag 4), denominator 4
+		FractionCodec.read(ByteBuffer.wrap(new byte[] { 0, 4, 4 }));
+	}
+
+	/**
+	 * Test the bulk operations of FractionVector against the same operations
+	 * on each element, including elements that overflow a long.
+	 */
+	@Test
+	public void testFractionVector() {
+		BigFraction big = new BigFraction(1, Integer.MAX_VALUE);
+		big = big.multiply(big).multiply(big);
+		List<BigFraction> fs = Arrays.asList(BigFraction.ZERO,
+				new BigFraction(1, 3), new BigFraction(5, 7), BigFraction.ONE,
+				new BigFraction(Integer.MAX_VALUE - 1, Integer.MAX_VALUE), big,
+				big.complement());
+		List<BigFraction> gs = new ArrayList<BigFraction>(fs);
+		Collections.reverse(gs);
+		FractionVector u = new FractionVector(fs);
+		FractionVector v = new FractionVector(gs);
+		Assert.assertEquals(fs, u.toList());
+		Assert.assertTrue(u.areProbabilities());
+
+		BigFraction x = new BigFraction(2, 3), y = new BigFraction(1, 4);
+		FractionVector w = new FractionVector(u).add(v).multiply(x)
+				.subtract(v).complement().multiply(v).lerp(x, y).add(y);
+		for (int i = 0; i < fs.size(); i++) {
+			BigFraction f = fs.get(i), g = gs.get(i);
+			BigFraction expected = BigFraction.lerp(BigFraction.ONE.subtract(
+					f.add(g).multiply(x).subtract(g)).multiply(g), x, y).add(y);
+			Assert.assertEquals(expected, w.get(i));
+			Assert.assertEquals(Integer.signum(f.compareTo(g)),
+					u.compareTo(v)[i]);
+			Assert.assertEquals(Integer.signum(f.compareTo(x)),
+					u.compareTo(x)[i]);
+		}
+		Assert.assertTrue(w.checkInv());
+		Assert.assertEquals(fs, u.toList()); // u was copied, not modified
+
+		// divide by a vector without zeros
+		FractionVector z = new FractionVector(u).add(x).divide(
+				new FractionVector(v).add(y));
+		for (int i = 0; i < fs.size(); i++) {
+			Assert.assertEquals(fs.get(i).add(x).divide(gs.get(i).add(y)), z
+					.get(i));
+		}
+	}
+
+	/**
+	 * Test that FractionVector rejects division by a zero element.
+	 */
+	@Test(expected = InvalidFractionException.class)
+	public void testFractionVectorDivideByZero() {
+		new FractionVector(Arrays.asList(BigFraction.ONE))
+				.divide(new FractionVector(1));
+	}
+
+}
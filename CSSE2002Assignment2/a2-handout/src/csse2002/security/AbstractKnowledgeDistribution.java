@@ -0,0 +1,642 @@
+package csse2002.security;
+
+import java.io.IOException;
+import java.util.*;
+
+import csse2002.math.*;
+
+/**
+ * A mutable discrete sub-distribution on knowledge-states, as described by
+ * {@link KnowledgeDistribution}, in which knowledge-states and their
+ * probabilities are values of type P calculated using a
+ * {@link ProbabilityArithmetic}. <br>
+ * <br>
+ *
+ * This class is the core shared by every knowledge distribution: it keeps the
+ * weight of the distribution, and implements adding, subtracting and updating
+ * in terms of its arithmetic, leaving the storage of the support to its
+ * subclasses. KnowledgeDistribution is the exact distribution, with
+ * {@link ExactArithmetic}; distributions that use any arithmetic are created
+ * by {@link KnowledgeDistribution#create(ProbabilityArithmetic)}. <br>
+ * <br>
+ *
+ * With approximate arithmetic, such as {@link DoubleArithmetic} or
+ * {@link LogArithmetic}, the same informant pipelines run much faster, but
+ * knowledge-states and their probabilities are subject to rounding errors. To
+ * allow for this, a knowledge-state that is not in the support, but is
+ * approximately equal to one that is (see
+ * {@link ProbabilityArithmetic#approximatelyEqual(Object, Object)}), is
+ * treated as that knowledge-state: by weight, add and subtract, when matching
+ * the conditions of informants, and when adding the a posteriori
+ * knowledge-states of an update, so that approximately equal posteriors are
+ * merged rather than kept apart. With exact arithmetic, knowledge-states are
+ * only ever equal to themselves. <br>
+ * <br>
+ *
+ * The weight of the distribution is only treated as exceeding one if it
+ * noticeably exceeds it (see
+ * {@link ProbabilityArithmetic#exceeds(Object, Object)}). With
+ * {@link IntervalArithmetic}, that is if its interval lies entirely above
+ * one, so the weight may exceed one by up to the width of its interval, but
+ * checking it never calculates the exact values of the probabilities.
+ *
+ * @param <P>
+ *            The type used to represent probabilities.
+ */
+public abstract class AbstractKnowledgeDistribution<P> implements Iterable<P> {
+
+    // the number of informants applied at a time by update(Iterator)
+    private final static int UPDATE_BATCH_SIZE = 1024;
+    // the number of characters of its string representation that writeTo
+    // buffers before appending them to its output
+    private final static int WRITE_BUFFER_SIZE = 8192;
+    // the outcomes of a coin flip, in the order in which updates apply them
+    private final static boolean[] OUTCOMES = { true, false };
+
+    // The arithmetic used to calculate with knowledge-states and
+    // probabilities.
+    private final ProbabilityArithmetic<P> arithmetic;
+    // The sum of the probabilities of the support (the weight of the
+    // distribution), kept up to date by every modification of the support.
+    P total;
+
+    /*
+     * invariant:
+     *
+     * arithmetic != null &&
+     *
+     * the knowledge-states in the support are probabilities &&
+     *
+     * their probabilities are non-zero probabilities &&
+     *
+     * total is (approximately) the sum of the probabilities of the support,
+     * and is (approximately) at most one.
+     */
+
+    /**
+     * Creates a new empty distribution with zero weight, that calculates using
+     * the given arithmetic.
+     *
+     * @throws NullPointerException
+     *             If arithmetic is null.
+     */
+    AbstractKnowledgeDistribution(ProbabilityArithmetic<P> arithmetic) {
+	if (arithmetic == null) {
+	    throw new NullPointerException("Arithmetic cannot be null.");
+	}
+	this.arithmetic = arithmetic;
+	total = arithmetic.zero();
+    }
+
+    /**
+     * Returns the probability of knowledge-state s in the support of this, or
+     * null if s is not in the support.
+     */
+    abstract P get(P s);
+
+    /**
+     * Sets the probability of knowledge-state s in the support of this to w,
+     * which is not zero. (The weight of this is not changed.)
+     */
+    abstract void put(P s, P w);
+
+    /**
+     * Removes knowledge-state s from the support of this. (The weight of this
+     * is not changed.)
+     */
+    abstract void remove(P s);
+
+    /**
+     * Returns the knowledge-state that s is treated as by this distribution: a
+     * knowledge-state in the support that is approximately equal to s, if s is
+     * not in the support and there is one, and s otherwise.
+     */
+    abstract P match(P s);
+
+    /**
+     * Returns knowledge-state s, produced by an update, as it is to be added
+     * to this distribution. (Subclasses may round it.)
+     */
+    P round(P s) {
+	return s;
+    }
+
+    /**
+     * Called after an update by an informant has modified this distribution.
+     */
+    void updated() {
+    }
+
+    /**
+     * Returns the arithmetic used by this distribution.
+     *
+     * @return The arithmetic of this distribution.
+     */
+    public ProbabilityArithmetic<P> getArithmetic() {
+	return arithmetic;
+    }
+
+    /**
+     * Returns a new distribution with the same arithmetic, knowledge-states
+     * and corresponding weights as this one. Neither distribution is affected
+     * by future modifications of the other.
+     *
+     * @return A copy of this distribution.
+     */
+    public abstract AbstractKnowledgeDistribution<P> copy();
+
+    /**
+     * Returns the probability of knowledge-state s in this.
+     *
+     * @param s
+     *            The knowledge-state for which the probability is retrieved.
+     * @throws NullPointerException
+     *             If parameter s is null.
+     * @return The probability of knowledge-state s.
+     */
+    public P weight(P s) {
+	if (s == null) {
+	    throw new NullPointerException("Parameter s cannot be null.");
+	}
+	P w = get(match(s)); // the probability of s, if non-zero
+	return (w == null ? arithmetic.zero() : w);
+    }
+
+    /**
+     * Returns the combined probability of all the knowledge-states in the
+     * support of the distribution. This is kept up to date as the
+     * distribution is modified, so it takes constant time.
+     *
+     * @return The probability of all the knowledge-states in the support of
+     *         this added together.
+     */
+    public P weight() {
+	return total;
+    }
+
+    /**
+     * Returns an iterator over the knowledge-states in the <i>support</i> of
+     * this distribution. The support of this distribution is defined as the
+     * knowledge-states with non-zero probability in this. <br>
+     * <br>
+     *
+     * The knowledge-states returned are represented by values of type P,
+     * describing the probability that the secret is true in that
+     * knowledge-state.<br>
+     * <br>
+     *
+     * The knowledge-states are returned in (ascending) sorted order of their
+     * likelihood that the secret is true, with the knowledge-state with the
+     * smallest probability that the secret is true being returned first.<br>
+     * <br>
+     *
+     * The iterator's behaviour is not defined if the distribution is modified
+     * after it has been created. (That is, don't use this method to get an
+     * iterator, modify the distribution, and then try to use the iterator.)
+     *
+     */
+    @Override
+    public Iterator<P> iterator() {
+	return new KnowledgeDistributionIterator();
+    }
+
+    /**
+     * Iterator over support of this distribution. Essentially a wrapper around
+     * another iterator that disallows removal of elements. (Since we haven't
+     * explicitly said in the specification of iterator() that removal is
+     * allowed.)
+     */
+    private class KnowledgeDistributionIterator implements Iterator<P> {
+
+	// iterator over the (knowledge-state, probability) pairs of this
+	Iterator<Map.Entry<P, P>> it;
+
+	public KnowledgeDistributionIterator() {
+	    it = entryIterator();
+	}
+
+	@Override
+	public boolean hasNext() {
+	    return it.hasNext();
+	}
+
+	@Override
+	public P next() {
+	    return it.next().getKey();
+	}
+
+	@Override
+	public void remove() {
+	    throw new UnsupportedOperationException();
+	}
+    }
+
+    /**
+     * Returns an iterator over the (knowledge-state, probability) pairs of the
+     * support of this distribution, in the same order as {@link #iterator()}.
+     * Unlike iterating over the knowledge-states and calling
+     * {@link #weight(Object)} for each of them, this does not look up each
+     * knowledge-state. <br>
+     * <br>
+     *
+     * The iterator does not support removal, and the entries it returns do
+     * not support setValue. Its behaviour is not defined if the distribution
+     * is modified after it has been created.
+     *
+     * @return An iterator over the knowledge-states of this, and their
+     *         probabilities.
+     */
+    public abstract Iterator<Map.Entry<P, P>> entryIterator();
+
+    /**
+     * Returns the string <br>
+     * <br>
+     *
+     * "{KS1@W1, ... , KSN@WN}",<br>
+     * <br>
+     *
+     * where N is the number of knowledge-states in the support of this (i.e.
+     * those states with a non-zero probability of occurrence), and for i in
+     * 1..N, KSi is a string representation -- described below -- of the
+     * knowledge-state in the support of this with the ith-smallest probability
+     * that the secret is true, and Wi is its corresponding probability of
+     * occurrence.<br>
+     * <br>
+     *
+     * The string representation of a knowledge-state in which the secret is
+     * true with probability P and false with the complementary probability P'
+     * is given by:<br>
+     * <br>
+     *
+     * "{true@P, false@P'}"<br>
+     * <br>
+     *
+     * where P and P' (and the probabilities Wi) are given by the string
+     * representation of the arithmetic of this, which for
+     * {@link ExactArithmetic} is the toString representation of BigFraction.
+     * <br>
+     * <br>
+     *
+     * For example, the string:<br>
+     * <br>
+     *
+     * "{{true@1/4, false@3/4}@1/2, {true@2/3, false@1/3}@3/16, {true@4/5,
+     * false@1/5}@5/16}"<br>
+     * <br>
+     *
+     * is used to represent a KnowledgeDistribution with a three-element support
+     * in which knowledge-state 1/4 occurs with probability 1/2, 2/3 occurs with
+     * probability 3/16, and 4/5 occurs with probability 5/16.
+     */
+    @Override
+    public String toString() {
+	// the string representation being constructed
+	StringBuilder sb = new StringBuilder("{");
+	appendEntries(sb, entryIterator(), Integer.MAX_VALUE);
+	return sb.append("}").toString();
+    }
+
+    /**
+     * Writes the string representation of this distribution (see
+     * {@link #toString()}) to out, without building it as a single string.
+     * <br>
+     * <br>
+     *
+     * The representation is built a few thousand characters at a time, in a
+     * buffer of bounded size, and each part is appended to out as soon as it
+     * is complete, so the memory used does not depend on the size of the
+     * support of this. Knowledge-states and probabilities are appended to the
+     * buffer directly (see
+     * {@link ProbabilityArithmetic#appendTo(StringBuilder, Object)}), rather
+     * than being converted to strings and concatenated. Since the parts are
+     * written separately, out should be buffered if appending to it is
+     * expensive.
+     *
+     * @param out
+     *            The output (for example, a Writer) to which this distribution
+     *            is written.
+     *
+     * @throws IOException
+     *             If out throws an IOException.
+     * @throws NullPointerException
+     *             If out is null.
+     */
+    public void writeTo(Appendable out) throws IOException {
+	if (out == null) {
+	    throw new NullPointerException("Parameter out cannot be null.");
+	}
+	// the part of the representation not yet written to out
+	StringBuilder buffer = new StringBuilder(WRITE_BUFFER_SIZE + 64);
+	buffer.append("{");
+	// an iterator over the elements in the support of this
+	Iterator<Map.Entry<P, P>> it = entryIterator();
+	while (it.hasNext()) {
+	    appendEntries(buffer, it, WRITE_BUFFER_SIZE);
+	    out.append(buffer);
+	    buffer.setLength(0);
+	}
+	out.append(buffer.append("}"));
+    }
+
+    /**
+     * Appends the representations of the (knowledge-state, probability) pairs
+     * returned by it to sb, each followed by a separator if it is not the
+     * last, until either it has no more pairs or sb holds at least maxLength
+     * characters.
+     */
+    private void appendEntries(StringBuilder sb, Iterator<Map.Entry<P, P>> it,
+	    int maxLength) {
+	while (it.hasNext() && sb.length() < maxLength) {
+	    Map.Entry<P, P> e = it.next();
+	    P s = e.getKey(); // knowledge-state
+	    P p = e.getValue(); // probability of state
+	    sb.append("{true@");
+	    arithmetic.appendTo(sb, s).append(", false@");
+	    arithmetic.appendTo(sb, arithmetic.complement(s)).append("}@");
+	    arithmetic.appendTo(sb, p);
+	    if (it.hasNext()) {
+		sb.append(", ");
+	    }
+	}
+    }
+
+    /**
+     * Increase the likelihood of knowledge-state s in this by probability p.
+     *
+     * @param s
+     *            The knowledge-state that will have its likelihood increased.
+     * @param p
+     *            The probability by which the likelihood of s will be
+     *            increased.
+     *
+     * @throws NullPointerException
+     *             If either s or p are null.
+     * @throws InvalidProbabilityException
+     *             If either p or s is not a probability.
+     * @throws InvalidKnowledgeDistributionException
+     *             If, as a result of this operation, the weight of the
+     *             distribution would (noticeably) exceed the value one.
+     *
+     */
+    public void add(P s, P p) {
+	checkParameters(s, p);
+	// check that overall weight would not exceed one if this operation were
+	// to be carried out
+	P t = arithmetic.add(total, p); // the new weight of this
+	if (arithmetic.exceeds(t, arithmetic.one())) {
+	    throw new InvalidKnowledgeDistributionException(
+		    "Distribution weight cannot exceed one.");
+	}
+	// perform addition
+	P state = match(s); // the knowledge-state that s is treated as
+	P w = get(state); // the current likelihood of state, if non-zero
+	w = (w == null ? p : arithmetic.add(w, p)); // its new likelihood
+	if (arithmetic.compare(w, arithmetic.zero()) != 0) {
+	    put(state, w);
+	}
+	total = t;
+    }
+
+    /**
+     * Decreases the likelihood of knowledge-state s in this by probability p.
+     *
+     * @param s
+     *            The knowledge-state that will have its likelihood decreased.
+     * @param p
+     *            The probability by which the likelihood of s will be
+     *            decreased.
+     *
+     * @throws NullPointerException
+     *             If either s or p are null.
+     * @throws InvalidProbabilityException
+     *             If either s or p is not a probability.
+     * @throws InvalidKnowledgeDistributionException
+     *             If, as a result of this operation, the likelihood of s would
+     *             fall below zero.
+     *
+     */
+    public void subtract(P s, P p) {
+	checkParameters(s, p);
+	// check that resulting distribution would be valid
+	P state = match(s); // the knowledge-state that s is treated as
+	P w = get(state); // the current likelihood of state, if non-zero
+	int c = arithmetic.compare(w == null ? arithmetic.zero() : w, p);
+	if (c < 0) {
+	    throw new InvalidKnowledgeDistributionException(
+		    "Distribution weight cannot be negative.");
+	}
+	// perform subtraction
+	if (c == 0) {
+	    // remove state if its new weight is zero
+	    remove(state);
+	} else {
+	    // update likelihood of state if new weight is non-zero
+	    put(state, arithmetic.subtract(w, p));
+	}
+	total = arithmetic.subtract(total, p);
+    }
+
+    /**
+     * Checks the parameters of add and subtract.
+     */
+    private void checkParameters(P s, P p) {
+	if (s == null || p == null) {
+	    throw new NullPointerException("Parameters cannot be null.");
+	}
+	if (!isAProbability(p) || !isAProbability(s)) {
+	    throw new InvalidProbabilityException(
+		    "Parameters must be probabilities.");
+	}
+    }
+
+    /**
+     * Returns true iff p is in the range [0,1].
+     */
+    private boolean isAProbability(P p) {
+	return arithmetic.compare(p, arithmetic.zero()) >= 0
+		&& arithmetic.compare(p, arithmetic.one()) <= 0;
+    }
+
+    /**
+     *
+     * Recall that this distribution may be used to describe the likelihood of
+     * the spy being in each possible knowledge-state, following a sequence of
+     * of interactions with informants using conditional two-coin channels. <br>
+     * <br>
+     *
+     * This operation updates this distribution to reflect the change of
+     * knowledge that would result from an interaction with an informant using
+     * conditional two-coin channel c.<br>
+     * <br>
+     *
+     * Recall that such an informant first checks to see if the knowledge-state
+     * of the spy is c.getCondition(). If it is, then the informant reveals the
+     * bias of both coins in c.getTwoCoinChannel() to the spy. Then, in private,
+     * the informant flips coin1 if the secret is true, and coin2 if the secret
+     * is false, and reveals the outcome of the coin flip to the spy (but not
+     * which coin has been flipped).<br>
+     * <br>
+     *
+     * If the knowledge-state of the spy is not c.getCondition(), then the
+     * informant reveals nothing and vanishes.<br>
+     * <br>
+     *
+     * Assume, for example that this knowledge distribution is currently:<br>
+     * <br>
+     *
+     * {{true@1/2, false@1/2}@1/4, {true@4/5, false@1/5}@3/4}<br>
+     * <br>
+     *
+     * Following an interaction with an informant using the conditional two-coin
+     * channel <i>if true@1/2 then (3/4, 1/4)</i>, then the updated
+     * distribution will be:<br>
+     * <br>
+     *
+     * {{true@1/4, false@3/4}@1/8, {true@3/4, false@1/4}@1/8, {true@4/5,
+     * false@1/5}@3/4}
+     *
+     * @param c
+     *            The conditional two-coin channel that will be used to update
+     *            this distribution
+     *
+     * @throws NullPointerException
+     *             If c is null.
+     */
+    public void update(ConditionalTwoCoinChannel c) {
+	// the knowledge-state that this update is conditional on
+	P aPriori = match(arithmetic.valueOf(c.getCondition()));
+	// the probability that the spy is in knowledge-state aPriori
+	P p = get(aPriori);
+	if (p == null) {
+	    // this revelation won't affect the knowledge distribution
+	    return;
+	}
+	// split knowledge-state using revelation
+	TwoCoinChannel channel = c.getTwoCoinChannel();
+	this.subtract(aPriori, p);
+	for (boolean outcome : OUTCOMES) {
+	    // probability of outcome
+	    P q = channel.outcomeProbability(arithmetic, aPriori, outcome);
+	    if (arithmetic.compare(q, arithmetic.zero()) != 0) {
+		this.add(round(channel.aPosteriori(arithmetic, aPriori,
+			outcome)), arithmetic.multiply(p, q));
+	    }
+	}
+	updated();
+    }
+
+    /**
+     * This operation updates this distribution to reflect the change of
+     * knowledge that would result from interactions with each informant in
+     * the list informants, in the order in which they appear in that list, by
+     * calling {@link #update(ConditionalTwoCoinChannel)} for each informant in
+     * turn.
+     *
+     * @param informants
+     *            The list of conditional two-coin channels that will be used to
+     *            update this distribution
+     *
+     * @throws NullPointerException
+     *             If informants is null or contains null TwoCoinChannels.
+     */
+    public void update(List<ConditionalTwoCoinChannel> informants) {
+	if (informants == null || informants.contains(null)) {
+	    throw new NullPointerException(
+		    "Parameter cannot be null or contain null elements");
+	}
+	for (ConditionalTwoCoinChannel c : informants) {
+	    update(c);
+	}
+    }
+
+    /**
+     * This operation updates this distribution to reflect the change of
+     * knowledge that would result from interactions with each informant
+     * returned by iterator informants, in the order in which they are
+     * returned.<br>
+     * <br>
+     *
+     * The result is exactly the same as that of {@link #update(List)} for a
+     * list of the same informants, but the informants never need to be held
+     * in memory all at once: they are applied in batches of a fixed size as
+     * they are returned, so informants can be applied while they are still
+     * being read (or generated), and the memory used is bounded by the size
+     * of this distribution rather than by the number of informants. (An
+     * informant stream can be applied by passing its iterator().)
+     *
+     * @param informants
+     *            An iterator over the conditional two-coin channels that will
+     *            be used to update this distribution
+     *
+     * @throws NullPointerException
+     *             If informants is null or returns a null TwoCoinChannel (in
+     *             which case the informants returned before it will have been
+     *             applied).
+     */
+    public void update(Iterator<ConditionalTwoCoinChannel> informants) {
+	if (informants == null) {
+	    throw new NullPointerException("Parameter cannot be null.");
+	}
+	// the informants returned, but not yet applied
+	List<ConditionalTwoCoinChannel> batch =
+		new ArrayList<ConditionalTwoCoinChannel>();
+	while (informants.hasNext()) {
+	    ConditionalTwoCoinChannel c = informants.next();
+	    if (c == null) {
+		update(batch);
+		throw new NullPointerException(
+			"Parameter cannot contain null elements.");
+	    }
+	    batch.add(c);
+	    if (batch.size() == UPDATE_BATCH_SIZE) {
+		update(batch);
+		batch.clear();
+	    }
+	}
+	update(batch);
+    }
+
+    /**
+     * Determines whether this knowledge sub-distribution is internally
+     * consistent.
+     *
+     * @return true if this distribution is internally consistent, and false
+     *         otherwise
+     */
+    public boolean checkInv() {
+	if (arithmetic == null || total == null) {
+	    return false;
+	}
+	P weight = arithmetic.zero(); // calculated weight
+	P previous = null; // the previous knowledge-state
+	Iterator<Map.Entry<P, P>> it = entryIterator();
+	while (it.hasNext()) {
+	    Map.Entry<P, P> e = it.next();
+	    P s = e.getKey(), w = e.getValue();
+	    // check for null values
+	    if (s == null || w == null) {
+		return false;
+	    }
+	    // check that each of the knowledge-states are probabilities, in
+	    // ascending order
+	    if (!isAProbability(s) || (previous != null
+		    && arithmetic.compare(previous, s) >= 0)) {
+		return false;
+	    }
+	    // check that weights for each knowledge-state are non-zero
+	    // probabilities
+	    if (!isAProbability(w)
+		    || arithmetic.compare(w, arithmetic.zero()) == 0) {
+		return false;
+	    }
+	    weight = arithmetic.add(weight, w);
+	    previous = s;
+	}
+	// check that the sum of the probabilities is (approximately) at most
+	// one, and (approximately) the cached weight
+	return !arithmetic.exceeds(weight, arithmetic.one())
+		&& (arithmetic.compare(weight, total) == 0 || arithmetic
+			.approximatelyEqual(weight, total));
+    }
+
+}
@@ -0,0 +1,278 @@
+package csse2002.security;
+
+import java.util.*;
+import java.util.function.BiConsumer;
+
+import csse2002.math.*;
+
+/**
+ * <p>
+ * A StateStore that keeps its knowledge-states and their probabilities in a
+ * pair of parallel FractionVectors, sorted by knowledge-state (see
+ * {@link KnowledgeDistribution.Storage#ARRAY}). Knowledge-states and
+ * probabilities whose numerators and denominators fit in a long therefore
+ * cost two longs each, rather than a BigFraction (and a map entry) each.
+ * </p>
+ * 
+ * <p>
+ * Lookups use a binary search of the sorted vectors. New knowledge-states are
+ * collected in a small sorted buffer, which is merged into the vectors once
+ * it grows beyond a fraction of their size; removed knowledge-states are
+ * marked by a zero probability until the next merge. Each insertion or
+ * removal therefore costs a constant number of element copies on average.
+ * </p>
+ */
+class ArrayStateStore implements StateStore {
+
+    // the smallest number of buffered insertions (or marked removals) that
+    // triggers a merge
+    private final static int MIN_MERGE = 32;
+
+    // the knowledge-states of the vectors, in ascending order
+    private FractionVector keys;
+    // the probabilities of the knowledge-states in keys, or zero for a
+    // knowledge-state that has been removed
+    private FractionVector weights;
+    // the number of knowledge-states in keys that have been removed
+    private int removed;
+    // the knowledge-states (and probabilities) not yet merged into keys
+    private TreeMap<BigFraction, BigFraction> buffer;
+    // the summary of the (knowledge-state, probability) pairs of this store
+    private final StoreSummary summary;
+
+    /*
+     * invariant: keys.size() == weights.size() &&
+     * 
+     * removed is the number of zero elements of weights &&
+     * 
+     * no knowledge-state in buffer is an element of keys
+     */
+
+    /**
+     * Creates a new empty store.
+     */
+    ArrayStateStore() {
+	keys = new FractionVector(0);
+	weights = new FractionVector(0);
+	buffer = new TreeMap<BigFraction, BigFraction>();
+	summary = new StoreSummary();
+    }
+
+    /**
+     * Creates a new store with the same contents as store.
+     */
+    private ArrayStateStore(ArrayStateStore store) {
+	keys = new FractionVector(store.keys);
+	weights = new FractionVector(store.weights);
+	removed = store.removed;
+	buffer = new TreeMap<BigFraction, BigFraction>(store.buffer);
+	summary = new StoreSummary(store.summary);
+    }
+
+    @Override
+    public BigFraction get(BigFraction s) {
+	int i = keys.binarySearch(s); // index of s in keys
+	if (i >= 0) {
+	    return (weights.signum(i) == 0 ? null : weights.get(i));
+	}
+	return buffer.get(s);
+    }
+
+    @Override
+    public void put(BigFraction s, BigFraction w) {
+	int i = keys.binarySearch(s); // index of s in keys
+	summary.add(s, w);
+	if (i >= 0) {
+	    if (weights.signum(i) == 0) {
+		removed--;
+	    } else {
+		summary.remove(s, weights.get(i));
+	    }
+	    weights.set(i, w);
+	} else {
+	    BigFraction old = buffer.put(s, w); // previous probability, if any
+	    if (old != null) {
+		summary.remove(s, old);
+	    }
+	    if (buffer.size() > Math.max(MIN_MERGE, keys.size() / 8)) {
+		merge();
+	    }
+	}
+    }
+
+    @Override
+    public void remove(BigFraction s) {
+	int i = keys.binarySearch(s); // index of s in keys
+	if (i < 0) {
+	    BigFraction old = buffer.remove(s); // previous probability, if any
+	    if (old != null) {
+		summary.remove(s, old);
+	    }
+	} else if (weights.signum(i) != 0) {
+	    summary.remove(s, weights.get(i));
+	    weights.set(i, BigFraction.ZERO);
+	    removed++;
+	    if (removed > Math.max(MIN_MERGE, keys.size() / 2)) {
+		merge();
+	    }
+	}
+    }
+
+    @Override
+    public int size() {
+	return keys.size() - removed + buffer.size();
+    }
+
+    @Override
+    public BigFraction lastKey() {
+	// the largest knowledge-state in keys that has not been removed
+	BigFraction last = null;
+	for (int i = keys.size() - 1; i >= 0 && last == null; i--) {
+	    if (weights.signum(i) != 0) {
+		last = keys.get(i);
+	    }
+	}
+	if (buffer.isEmpty()) {
+	    return last;
+	}
+	return (last == null || buffer.lastKey().compareTo(last) > 0 ? buffer
+		.lastKey() : last);
+    }
+
+    @Override
+    public StoreSummary summary() {
+	return summary;
+    }
+
+    @Override
+    public Iterator<Map.Entry<BigFraction, BigFraction>> iterator() {
+	return new MergingIterator(0, buffer);
+    }
+
+    @Override
+    public Iterator<Map.Entry<BigFraction, BigFraction>> iterator(
+	    BigFraction from) {
+	int i = keys.binarySearch(from); // index (or insertion point) of from
+	return new MergingIterator((i >= 0 ? i : -(i + 1)), buffer.tailMap(
+		from, true));
+    }
+
+    @Override
+    public void forEach(BiConsumer<BigFraction, BigFraction> action) {
+	int i = nextIndex(0); // index of the next element of keys
+	for (Map.Entry<BigFraction, BigFraction> e : buffer.entrySet()) {
+	    // the elements of keys before the buffered knowledge-state
+	    while (i < keys.size() && keys.compareTo(i, e.getKey()) < 0) {
+		action.accept(keys.get(i), weights.get(i));
+		i = nextIndex(i + 1);
+	    }
+	    action.accept(e.getKey(), e.getValue());
+	}
+	for (; i < keys.size(); i = nextIndex(i + 1)) {
+	    action.accept(keys.get(i), weights.get(i));
+	}
+    }
+
+    @Override
+    public StateStore copy() {
+	return new ArrayStateStore(this);
+    }
+
+    @Override
+    public KnowledgeDistribution.Storage storage() {
+	return KnowledgeDistribution.Storage.ARRAY;
+    }
+
+    /**
+     * Merges the buffer into the vectors, dropping the knowledge-states that
+     * have been removed.
+     */
+    private void merge() {
+	int size = size();
+	FractionVector newKeys = new FractionVector(size);
+	FractionVector newWeights = new FractionVector(size);
+	int j = 0; // index of the next element of the new vectors
+	int i = nextIndex(0); // index of the next element of keys
+	for (Map.Entry<BigFraction, BigFraction> e : buffer.entrySet()) {
+	    // copy the elements of keys before the buffered knowledge-state
+	    while (i < keys.size() && keys.compareTo(i, e.getKey()) < 0) {
+		newKeys.set(j, keys, i);
+		newWeights.set(j++, weights, i);
+		i = nextIndex(i + 1);
+	    }
+	    newKeys.set(j, e.getKey());
+	    newWeights.set(j++, e.getValue());
+	}
+	for (; i < keys.size(); i = nextIndex(i + 1)) {
+	    newKeys.set(j, keys, i);
+	    newWeights.set(j++, weights, i);
+	}
+	keys = newKeys;
+	weights = newWeights;
+	removed = 0;
+	buffer.clear();
+    }
+
+    /**
+     * Returns the index of the first knowledge-state in keys at or after
+     * index i that has not been removed, or keys.size() if there is none.
+     */
+    private int nextIndex(int i) {
+	while (i < keys.size() && weights.signum(i) == 0) {
+	    i++;
+	}
+	return i;
+    }
+
+    /**
+     * Iterator over the (knowledge-state, probability) pairs of this store,
+     * merging the vectors (from a given index) and (part of) the buffer.
+     */
+    private class MergingIterator implements
+	    Iterator<Map.Entry<BigFraction, BigFraction>> {
+
+	// index of the next element of keys
+	private int i;
+	// iterator over the buffer
+	private final Iterator<Map.Entry<BigFraction, BigFraction>> it;
+	// the next pair from the buffer, or null if there is none
+	private Map.Entry<BigFraction, BigFraction> next;
+
+	public MergingIterator(int start,
+		SortedMap<BigFraction, BigFraction> pending) {
+	    i = nextIndex(start);
+	    it = pending.entrySet().iterator();
+	    next = (it.hasNext() ? it.next() : null);
+	}
+
+	@Override
+	public boolean hasNext() {
+	    return i < keys.size() || next != null;
+	}
+
+	@Override
+	public Map.Entry<BigFraction, BigFraction> next() {
+	    BigFraction s, w; // the next knowledge-state and probability
+	    if (i < keys.size()
+		    && (next == null || keys.compareTo(i, next.getKey()) < 0)) {
+		s = keys.get(i);
+		w = weights.get(i);
+		i = nextIndex(i + 1);
+	    } else if (next != null) {
+		s = next.getKey();
+		w = next.getValue();
+		next = (it.hasNext() ? it.next() : null);
+	    } else {
+		throw new NoSuchElementException();
+	    }
+	    return new AbstractMap.SimpleImmutableEntry<BigFraction, BigFraction>(
+		    s, w);
+	}
+
+	@Override
+	public void remove() {
+	    throw new UnsupportedOperationException();
+	}
+    }
+
+}
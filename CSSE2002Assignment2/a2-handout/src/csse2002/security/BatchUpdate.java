@@ -0,0 +1,216 @@
+package csse2002.security;
+
+import java.math.BigInteger;
+import java.util.*;
+
+import csse2002.math.*;
+
+/**
+ * <p>
+ * Applies a whole list of informants to the store of a KnowledgeDistribution,
+ * with exactly the same result as applying them one at a time (see
+ * {@link KnowledgeDistribution#update(ConditionalTwoCoinChannel)}).
+ * </p>
+ * 
+ * <p>
+ * An informant only changes the distribution if the spy can be in its
+ * condition when it is met, so the informants are indexed by their
+ * conditions, and only the informants whose conditions hold some probability
+ * are visited, in the order in which they appear in the list. (Each informant
+ * is scheduled, in a priority queue, when probability first arrives at its
+ * condition after the previous informant with that condition.) The
+ * probabilities of the knowledge-states involved are kept in accumulators,
+ * separate from the store, and are only reduced when an informant splits
+ * them; the store itself is only modified once, at the end, in ascending
+ * order of knowledge-state.
+ * </p>
+ */
+class BatchUpdate {
+
+    // the store being updated
+    private final StateStore store;
+    // the largest denominator allowed in updated knowledge-states, or null
+    private final BigInteger maxDenominator;
+    // the informants being applied
+    private final List<ConditionalTwoCoinChannel> informants;
+    // the (ascending) indices of the informants with each condition
+    private final Map<BigFraction, int[]> byCondition;
+    // the probabilities of the knowledge-states modified so far
+    private final Map<BigFraction, FractionAccumulator> mass;
+    // the index of the next informant to visit for each condition that
+    // currently holds probability (if there is such an informant)
+    private final Map<BigFraction, Integer> scheduled;
+    // the indices of the informants scheduled to be visited
+    private final PriorityQueue<Integer> queue;
+
+    /**
+     * Creates a new batch update of store by informants, where maxDenominator
+     * is the denominator limit of the distribution (or null if it has none).
+     */
+    BatchUpdate(StateStore store, BigInteger maxDenominator,
+	    List<ConditionalTwoCoinChannel> informants) {
+	this(store, maxDenominator, informants, index(informants));
+    }
+
+    /**
+     * Creates a new batch update of store by informants, like
+     * BatchUpdate(store, maxDenominator, informants), where byCondition is
+     * index(informants). (The index is only read, so it may be shared by
+     * several batch updates by the same informants.)
+     */
+    BatchUpdate(StateStore store, BigInteger maxDenominator,
+	    List<ConditionalTwoCoinChannel> informants,
+	    Map<BigFraction, int[]> byCondition) {
+	this.store = store;
+	this.maxDenominator = maxDenominator;
+	this.informants = informants;
+	this.byCondition = byCondition;
+	mass = new HashMap<BigFraction, FractionAccumulator>();
+	scheduled = new HashMap<BigFraction, Integer>();
+	queue = new PriorityQueue<Integer>();
+    }
+
+    /**
+     * Returns the indices of the informants with each condition.
+     */
+    static Map<BigFraction, int[]> index(
+	    List<ConditionalTwoCoinChannel> informants) {
+	Map<BigFraction, List<Integer>> lists =
+		new HashMap<BigFraction, List<Integer>>();
+	int i = 0; // index of the next informant
+	for (ConditionalTwoCoinChannel c : informants) {
+	    List<Integer> list = lists.get(c.getCondition());
+	    if (list == null) {
+		list = new ArrayList<Integer>(1);
+		lists.put(c.getCondition(), list);
+	    }
+	    list.add(i++);
+	}
+	Map<BigFraction, int[]> index = new HashMap<BigFraction, int[]>();
+	for (Map.Entry<BigFraction, List<Integer>> e : lists.entrySet()) {
+	    int[] indices = new int[e.getValue().size()];
+	    for (int j = 0; j < indices.length; j++) {
+		indices[j] = e.getValue().get(j);
+	    }
+	    index.put(e.getKey(), indices);
+	}
+	return index;
+    }
+
+    /**
+     * Applies the informants to the store.
+     */
+    void apply() {
+	// schedule the first informant for each condition that holds
+	// probability before any informant is met (looking up whichever of
+	// the conditions and the knowledge-states in the store are fewer)
+	if (byCondition.size() <= store.size()) {
+	    for (BigFraction s : byCondition.keySet()) {
+		if (store.get(s) != null) {
+		    schedule(s, -1);
+		}
+	    }
+	} else {
+	    for (Map.Entry<BigFraction, BigFraction> e : store) {
+		schedule(e.getKey(), -1);
+	    }
+	}
+	while (!queue.isEmpty()) {
+	    visit(queue.poll());
+	}
+	// write the modified probabilities back to the store, in order
+	List<BigFraction> states = new ArrayList<BigFraction>(mass.keySet());
+	Collections.sort(states);
+	for (BigFraction s : states) {
+	    BigFraction w = mass.get(s).toBigFraction();
+	    if (w.equals(BigFraction.ZERO)) {
+		store.remove(s);
+	    } else {
+		store.put(s, w);
+	    }
+	}
+    }
+
+    /**
+     * Applies the informant at index i, whose condition currently holds
+     * probability.
+     */
+    private void visit(int i) {
+	ConditionalTwoCoinChannel c = informants.get(i);
+	BigFraction aPriori = c.getCondition();
+	scheduled.remove(aPriori);
+	// all of the probability of aPriori is split between the outcomes
+	FractionAccumulator acc = accumulator(aPriori);
+	BigFraction p = acc.toBigFraction();
+	if (p.equals(BigFraction.ZERO)) {
+	    // this revelation won't affect the knowledge distribution
+	    return;
+	}
+	acc.reset();
+	BigFraction heads = c.outcomeProbability(true); // prob. heads
+	BigFraction tails = c.outcomeProbability(false); // prob. tails
+	if (!heads.equals(BigFraction.ZERO)) {
+	    receive(round(c.aPosteriori(true)), p, heads, i);
+	}
+	if (!tails.equals(BigFraction.ZERO)) {
+	    receive(round(c.aPosteriori(false)), p, tails, i);
+	}
+    }
+
+    /**
+     * Adds probability p * q to knowledge-state s, as a result of the
+     * informant at index i.
+     */
+    private void receive(BigFraction s, BigFraction p, BigFraction q, int i) {
+	accumulator(s).addProduct(p, q);
+	if (!scheduled.containsKey(s)) {
+	    // s may not have held probability before, so make sure that the
+	    // next informant with condition s will be visited
+	    schedule(s, i);
+	}
+    }
+
+    /**
+     * Schedules the first informant after index i with condition s, if there
+     * is one.
+     */
+    private void schedule(BigFraction s, int i) {
+	int[] indices = byCondition.get(s);
+	if (indices == null) {
+	    return;
+	}
+	// the position of the first index after i
+	int j = Arrays.binarySearch(indices, i + 1);
+	if (j < 0) {
+	    j = -(j + 1);
+	}
+	if (j < indices.length) {
+	    scheduled.put(s, indices[j]);
+	    queue.add(indices[j]);
+	}
+    }
+
+    /**
+     * Returns the accumulator holding the current probability of s, creating
+     * it (with the probability of s in the store) if necessary.
+     */
+    private FractionAccumulator accumulator(BigFraction s) {
+	FractionAccumulator acc = mass.get(s);
+	if (acc == null) {
+	    BigFraction w = store.get(s); // probability of s, if non-zero
+	    acc = (w == null ? new FractionAccumulator()
+		    : new FractionAccumulator(w));
+	    mass.put(s, acc);
+	}
+	return acc;
+    }
+
+    /**
+     * Returns knowledge-state s rounded according to the denominator limit.
+     */
+    private BigFraction round(BigFraction s) {
+	return (maxDenominator == null ? s : s
+		.limitDenominator(maxDenominator));
+    }
+
+}
@@ -0,0 +1,262 @@
+package csse2002.security;
+
+import java.io.*;
+import java.math.BigInteger;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.file.*;
+import java.util.*;
+
+import csse2002.math.*;
+
+/**
+ * <p>
+ * A checkpoint of a KnowledgeDistribution in a file (see
+ * {@link KnowledgeDistribution#checkpoint(File)}), which is restored by
+ * memory-mapping the file rather than by reading it.
+ * </p>
+ *
+ * <p>
+ * The file consists of:
+ * </p>
+ *
+ * <ul>
+ * <li>a header of HEADER_SIZE bytes: a magic number, the format version, the
+ * number n of knowledge-states, a flag that is one iff there is a denominator
+ * limit, the summary of the store (see {@link StoreSummary}), and the offset
+ * of the trailer in the file;</li>
+ * <li>an index of n longs: the offset of each knowledge-state from the start
+ * of the data;</li>
+ * <li>the data: each knowledge-state and its probability, in ascending order
+ * of knowledge-state, encoded by {@link FractionCodec};</li>
+ * <li>a trailer: the weight of the distribution, followed by its denominator
+ * limit, if it has one, encoded by FractionCodec.</li>
+ * </ul>
+ *
+ * <p>
+ * The index and data are mapped read-only, the data in chunks of
+ * CHUNK_STATES knowledge-states (so that each chunk fits in a ByteBuffer),
+ * and only the header and trailer are read when a checkpoint is restored:
+ * knowledge-states are decoded (and their pages of the file read) only when
+ * they are looked up, so restoring takes time proportional to the number of
+ * chunks rather than the number of knowledge-states.
+ * </p>
+ */
+final class Checkpoint {
+
+    /** The number of knowledge-states in each mapped chunk of the data. */
+    final static int CHUNK_STATES = 1 << 16;
+
+    // the first four bytes of a checkpoint ("KDCP")
+    private final static int MAGIC = 0x4b444350;
+    // the version of the format described above
+    private final static int VERSION = 1;
+    // the number of bytes in the header
+    private final static int HEADER_SIZE = 4 * 4 + StoreSummary.ENCODED_SIZE
+	    + 8;
+    // the size of the buffer used to write the data
+    private final static int BUFFER_SIZE = 1 << 16;
+
+    // the store of the restored distribution
+    private final StateStore store;
+    // the weight of the restored distribution
+    private final BigFraction weight;
+    // the denominator limit of the restored distribution, or null
+    private final BigInteger maxDenominator;
+
+    /**
+     * Creates a new restored checkpoint.
+     */
+    private Checkpoint(StateStore store, BigFraction weight,
+	    BigInteger maxDenominator) {
+	this.store = store;
+	this.weight = weight;
+	this.maxDenominator = maxDenominator;
+    }
+
+    /**
+     * Returns the store of the restored distribution, which reads its
+     * knowledge-states from the file.
+     */
+    StateStore store() {
+	return store;
+    }
+
+    /**
+     * Returns the weight of the restored distribution.
+     */
+    BigFraction weight() {
+	return weight;
+    }
+
+    /**
+     * Returns the denominator limit of the restored distribution, or null if
+     * it has none.
+     */
+    BigInteger denominatorLimit() {
+	return maxDenominator;
+    }
+
+    /**
+     * Writes a checkpoint of the distribution with the given store, weight
+     * and denominator limit (or null) to file. The checkpoint is written to a
+     * temporary file, which then replaces file, so file holds either its
+     * previous contents or the complete checkpoint, even if writing fails.
+     *
+     * @throws IOException
+     *             If the checkpoint cannot be written, or the distribution is
+     *             too large to be mapped.
+     */
+    static void write(File file, StateStore store, BigFraction weight,
+	    BigInteger maxDenominator) throws IOException {
+	int n = store.size(); // the number of knowledge-states
+	if (8L * n > Integer.MAX_VALUE) {
+	    throw new IOException("Too many knowledge-states to checkpoint: "
+		    + n);
+	}
+	Path temp = Paths.get(file.getPath() + ".tmp");
+	boolean written = false; // whether temp is complete
+	FileChannel channel = FileChannel.open(temp,
+		StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+		StandardOpenOption.READ, StandardOpenOption.WRITE);
+	try {
+	    long dataStart = HEADER_SIZE + 8L * n; // the offset of the data
+	    MappedByteBuffer index = channel.map(
+		    FileChannel.MapMode.READ_WRITE, HEADER_SIZE, 8L * n);
+	    channel.position(dataStart);
+	    DataOutputStream out = new DataOutputStream(
+		    new BufferedOutputStream(Channels.newOutputStream(channel),
+			    BUFFER_SIZE));
+	    long offset = 0; // the offset of the next entry in the data
+	    long chunkStart = 0; // the offset of the current chunk
+	    int i = 0; // the index of the next entry
+	    for (Map.Entry<BigFraction, BigFraction> e : store) {
+		if (i % CHUNK_STATES == 0) {
+		    chunkStart = offset;
+		}
+		index.putLong(offset);
+		FractionCodec.write(out, e.getKey());
+		FractionCodec.write(out, e.getValue());
+		offset += FractionCodec.encodedSize(e.getKey())
+			+ FractionCodec.encodedSize(e.getValue());
+		if (offset - chunkStart > Integer.MAX_VALUE) {
+		    throw new IOException(
+			    "Knowledge-states too large to checkpoint.");
+		}
+		i++;
+	    }
+	    FractionCodec.write(out, weight);
+	    if (maxDenominator != null) {
+		FractionCodec.writeInteger(out, maxDenominator);
+	    }
+	    out.flush();
+	    index.force();
+	    // the header is written last, so that an incomplete file is never
+	    // mistaken for a checkpoint
+	    ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+	    header.putInt(MAGIC).putInt(VERSION).putInt(n).putInt(
+		    maxDenominator != null ? 1 : 0);
+	    store.summary().writeTo(header);
+	    header.putLong(dataStart + offset);
+	    header.flip();
+	    while (header.hasRemaining()) {
+		channel.write(header, header.position());
+	    }
+	    channel.force(true);
+	    written = true;
+	} finally {
+	    channel.close();
+	    if (!written) {
+		Files.deleteIfExists(temp);
+	    }
+	}
+	try {
+	    Files.move(temp, file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+		    StandardCopyOption.ATOMIC_MOVE);
+	} catch (AtomicMoveNotSupportedException e) {
+	    Files.move(temp, file.toPath(),
+		    StandardCopyOption.REPLACE_EXISTING);
+	}
+    }
+
+    /**
+     * Restores the checkpoint in file, mapping (but not reading) its index and
+     * data.
+     *
+     * @throws IOException
+     *             If the file cannot be read or mapped, or its header or
+     *             trailer is not that of a valid checkpoint.
+     */
+    static Checkpoint read(File file) throws IOException {
+	FileChannel channel = FileChannel.open(file.toPath(),
+		StandardOpenOption.READ);
+	try {
+	    long length = channel.size(); // the length of the file
+	    if (length < HEADER_SIZE) {
+		throw new EOFException("Truncated checkpoint.");
+	    }
+	    ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+	    while (header.hasRemaining()) {
+		if (channel.read(header, header.position()) < 0) {
+		    throw new EOFException("Truncated checkpoint.");
+		}
+	    }
+	    header.flip();
+	    if (header.getInt() != MAGIC) {
+		throw new IOException("Not a checkpoint: " + file);
+	    }
+	    int version = header.getInt();
+	    if (version != VERSION) {
+		throw new IOException("Unsupported checkpoint version: "
+			+ version);
+	    }
+	    int n = header.getInt(); // the number of knowledge-states
+	    int flags = header.getInt();
+	    StoreSummary summary = StoreSummary.readFrom(header);
+	    long trailer = header.getLong(); // the offset of the trailer
+	    long dataStart = HEADER_SIZE + 8L * n; // the offset of the data
+	    if (n < 0 || 8L * n > Integer.MAX_VALUE || (flags & ~1) != 0
+		    || trailer < dataStart || trailer > length) {
+		throw new IOException("Corrupt checkpoint header.");
+	    }
+	    LongBuffer index = channel.map(FileChannel.MapMode.READ_ONLY,
+		    HEADER_SIZE, 8L * n).asLongBuffer();
+	    // map the data in chunks
+	    int chunks = (n + CHUNK_STATES - 1) / CHUNK_STATES;
+	    ByteBuffer[] data = new ByteBuffer[chunks];
+	    long[] offsets = new long[chunks]; // data offsets of the chunks
+	    for (int k = 0; k < chunks; k++) {
+		long start = index.get(k * CHUNK_STATES);
+		long end = (k + 1 < chunks ? index.get((k + 1) * CHUNK_STATES)
+			: trailer - dataStart);
+		if (start < 0 || end < start || end > trailer - dataStart
+			|| end - start > Integer.MAX_VALUE) {
+		    throw new IOException("Corrupt checkpoint index.");
+		}
+		data[k] = channel.map(FileChannel.MapMode.READ_ONLY, dataStart
+			+ start, end - start);
+		offsets[k] = start;
+	    }
+	    // read the trailer
+	    ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY,
+		    trailer, length - trailer);
+	    BigFraction weight = FractionCodec.read(buffer);
+	    if (!weight.isAProbability()) {
+		throw new IOException("Invalid distribution weight: " + weight);
+	    }
+	    BigInteger maxDenominator = null;
+	    if (flags != 0) {
+		maxDenominator = FractionCodec.readInteger(buffer);
+		if (maxDenominator.signum() <= 0) {
+		    throw new IOException("Invalid denominator limit: "
+			    + maxDenominator);
+		}
+	    }
+	    return new Checkpoint(new MappedStateStore(index, data, offsets, n,
+		    summary), weight, maxDenominator);
+	} finally {
+	    channel.close();
+	}
+    }
+
+}
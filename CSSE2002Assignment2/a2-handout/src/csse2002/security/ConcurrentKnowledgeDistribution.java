@@ -0,0 +1,453 @@
+package csse2002.security;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicReference;
+import java.math.BigInteger;
+
+import csse2002.math.*;
+
+/**
+ * A discrete sub-distribution on knowledge-states, exactly as described by
+ * {@link KnowledgeDistribution}, that may be modified and read by many
+ * threads at once without locking. <br>
+ * <br>
+ *
+ * The probability of each knowledge-state is kept in a concurrent sorted map,
+ * and is changed by compare-and-set on that knowledge-state alone, so threads
+ * updating different knowledge-states do not contend. Updates move
+ * probability between knowledge-states without changing the weight of the
+ * distribution, so they never touch the weight at all: only add and subtract
+ * do, by compare-and-set on the weight. An add reserves its probability in the
+ * weight before adding it to its knowledge-state, and a subtract removes its
+ * probability from its knowledge-state before releasing it from the weight,
+ * so the weight never exceeds one, and is never less than the sum of the
+ * probabilities of the knowledge-states. <br>
+ * <br>
+ *
+ * Each operation is atomic with respect to each knowledge-state it modifies,
+ * but not with respect to the distribution as a whole. In particular, an
+ * update takes the probability of its condition as it is when the update
+ * begins, and then adds it to the a-posteriori knowledge-states, so
+ * probability added to the condition by another thread in the meantime is
+ * not moved by that update. While operations are in progress, readers may
+ * therefore see knowledge-states whose probabilities do not sum to the
+ * weight. Whenever no operations are in progress, though, this distribution
+ * satisfies the same invariant as a KnowledgeDistribution (see
+ * {@link #checkInv()}), and (see {@link #snapshot()}) it can be copied to one.
+ * When the informants given to different threads are conditional on
+ * knowledge-states that no other thread's informants produce, the result is
+ * exactly that of applying all of the informants, in order, to a
+ * KnowledgeDistribution.
+ */
+public class ConcurrentKnowledgeDistribution implements Iterable<BigFraction> {
+
+    // A concurrent ordered map storing (knowledge-state, probability) pairs
+    // for knowledge-states in the support of the distribution.
+    private final ConcurrentSkipListMap<BigFraction, BigFraction> dist;
+    // The weight of this distribution, including the probability reserved by
+    // adds in progress.
+    private final AtomicReference<BigFraction> total;
+    // The largest denominator allowed in updated knowledge-states, or null if
+    // updates are exact.
+    private volatile BigInteger maxDenominator;
+
+    /*
+     * invariant:
+     *
+     * dist != null && total != null && total.get() != null &&
+     *
+     * the keys (representing knowledge-states) in dist are probabilities &&
+     *
+     * the values in dist are non-zero probabilities (and so they cannot be
+     * null) &&
+     *
+     * total.get() is a probability that is at least the sum of the values in
+     * dist, and equal to it whenever no operation is in progress &&
+     *
+     * (maxDenominator == null || maxDenominator >= 1).
+     */
+
+    /**
+     * Creates a new empty ConcurrentKnowledgeDistribution with zero weight.
+     */
+    public ConcurrentKnowledgeDistribution() {
+	dist = new ConcurrentSkipListMap<BigFraction, BigFraction>();
+	total = new AtomicReference<BigFraction>(BigFraction.ZERO);
+    }
+
+    /**
+     * Creates a new point distribution on s, i.e. a new
+     * ConcurrentKnowledgeDistribution in which s has probability one.
+     *
+     * @param s
+     *            The knowledge-state from which the point distribution will be
+     *            created.
+     *
+     * @throws NullPointerException
+     *             If parameter s is null.
+     *
+     * @throws InvalidProbabilityException
+     *             If s is not a probability.
+     */
+    public ConcurrentKnowledgeDistribution(BigFraction s) {
+	this();
+	add(s, BigFraction.ONE);
+    }
+
+    /**
+     * Creates a new ConcurrentKnowledgeDistribution with the same
+     * knowledge-states and corresponding weights, and the same denominator
+     * limit, as KnowledgeDistribution k. Parameter k is unmodified by the
+     * operation, and future operations on this. Similarly, this is unmodified
+     * by future modifications to k.
+     *
+     * @param k
+     *            The KnowledgeDistribution from which the new distribution will
+     *            be created.
+     *
+     * @throws NullPointerException
+     *             If parameter k is null.
+     */
+    public ConcurrentKnowledgeDistribution(KnowledgeDistribution k) {
+	this();
+	if (k == null) {
+	    throw new NullPointerException("Parameter k cannot be null.");
+	}
+	Iterator<Map.Entry<BigFraction, BigFraction>> it = k.entryIterator();
+	while (it.hasNext()) {
+	    Map.Entry<BigFraction, BigFraction> e = it.next();
+	    dist.put(e.getKey(), e.getValue());
+	}
+	total.set(k.weight());
+	maxDenominator = k.getDenominatorLimit();
+    }
+
+    /**
+     * Sets the largest denominator allowed in the knowledge-states produced by
+     * future updates of this distribution, or removes the limit if
+     * maxDenominator is null (see
+     * {@link KnowledgeDistribution#setDenominatorLimit(BigInteger)}). Updates
+     * already in progress may use either the old or the new limit.
+     *
+     * @param maxDenominator
+     *            The largest denominator allowed in updated knowledge-states,
+     *            or null for exact updates.
+     *
+     * @throws IllegalArgumentException
+     *             If maxDenominator is less than one.
+     */
+    public void setDenominatorLimit(BigInteger maxDenominator) {
+	if (maxDenominator != null && maxDenominator.signum() <= 0) {
+	    throw new IllegalArgumentException(
+		    "Maximum denominator must be at least one.");
+	}
+	this.maxDenominator = maxDenominator;
+    }
+
+    /**
+     * Returns the largest denominator allowed in the knowledge-states produced
+     * by updates of this distribution, or null if updates are exact.
+     *
+     * @return The denominator limit of this distribution, or null if there is
+     *         none.
+     */
+    public BigInteger getDenominatorLimit() {
+	return maxDenominator;
+    }
+
+    /**
+     * Returns the probability of knowledge-state s in this.
+     *
+     * @param s
+     *            The knowledge-state for which the probability is retrieved.
+     * @throws NullPointerException
+     *             If parameter s is null.
+     * @return The probability of knowledge-state s.
+     */
+    public BigFraction weight(BigFraction s) {
+	if (s == null) {
+	    throw new NullPointerException("Parameter s cannot be null.");
+	}
+	BigFraction w = dist.get(s); // the probability of s, if non-zero
+	return (w == null ? BigFraction.ZERO : w);
+    }
+
+    /**
+     * Returns the combined probability of all the knowledge-states in the
+     * support of this distribution. While adds are in progress, this includes
+     * the probabilities that they are about to add.
+     *
+     * @return The weight of this distribution.
+     */
+    public BigFraction weight() {
+	return total.get();
+    }
+
+    /**
+     * Returns an iterator over the knowledge-states in the support of this
+     * distribution, in ascending order. The iterator is weakly consistent: it
+     * never throws ConcurrentModificationException, and it returns each
+     * knowledge-state that is in the support throughout the iteration, but it
+     * may or may not return knowledge-states that are added to or removed from
+     * the support while it is in use. It does not support removal.
+     */
+    @Override
+    public Iterator<BigFraction> iterator() {
+	return Collections.unmodifiableSet(dist.keySet()).iterator();
+    }
+
+    /**
+     * Returns a KnowledgeDistribution with the same knowledge-states and
+     * corresponding weights, and the same denominator limit, as this
+     * distribution. Future modifications of either distribution do not affect
+     * the other.<br>
+     * <br>
+     *
+     * The snapshot is an exact copy if no operations are in progress while it
+     * is taken. Otherwise each knowledge-state has a probability that it had
+     * at some point while the snapshot was being taken, so probability moved
+     * by a concurrent update may be missed, or counted twice.
+     *
+     * @return A copy of this distribution.
+     *
+     * @throws InvalidKnowledgeDistributionException
+     *             If probability counted twice, because of operations in
+     *             progress, gives the copy a weight greater than one.
+     */
+    public KnowledgeDistribution snapshot() {
+	KnowledgeDistribution k = new KnowledgeDistribution();
+	for (Map.Entry<BigFraction, BigFraction> e : dist.entrySet()) {
+	    k.add(e.getKey(), e.getValue());
+	}
+	k.setDenominatorLimit(maxDenominator);
+	return k;
+    }
+
+    /**
+     * Returns a string representation of this distribution: that of a
+     * {@link #snapshot()} of it.
+     */
+    @Override
+    public String toString() {
+	return snapshot().toString();
+    }
+
+    /**
+     * Increases the likelihood of knowledge-state s in this by probability p.
+     * The weight of this is increased (atomically) before the likelihood of s,
+     * so concurrent adds can never make the weight exceed one.
+     *
+     * @param s
+     *            The knowledge-state that will have its likelihood increased.
+     * @param p
+     *            The probability by which the likelihood of s will be
+     *            increased.
+     *
+     * @throws NullPointerException
+     *             If either s or p are null.
+     * @throws InvalidProbabilityException
+     *             If either s or p is not a probability.
+     * @throws InvalidKnowledgeDistributionException
+     *             If, as a result of this operation, the overall weight of the
+     *             distribution would exceed one.
+     */
+    public void add(BigFraction s, BigFraction p) {
+	checkParameters(s, p);
+	// reserve p in the weight of this
+	while (true) {
+	    BigFraction t = total.get(); // the current weight of this
+	    BigFraction u = t.add(p); // the new weight of this
+	    if (!u.isAProbability()) {
+		throw new InvalidKnowledgeDistributionException(
+			"Distribution weight cannot exceed one.");
+	    }
+	    if (total.compareAndSet(t, u)) {
+		break;
+	    }
+	}
+	increase(s, p);
+    }
+
+    /**
+     * Decreases the likelihood of knowledge-state s in this by probability p.
+     * The likelihood of s is decreased (atomically) before the weight of this.
+     *
+     * @param s
+     *            The knowledge-state that will have its likelihood decreased.
+     * @param p
+     *            The probability by which the likelihood of s will be
+     *            decreased.
+     *
+     * @throws NullPointerException
+     *             If either s or p are null.
+     * @throws InvalidProbabilityException
+     *             If either s or p is not a probability.
+     * @throws InvalidKnowledgeDistributionException
+     *             If, as a result of this operation, the likelihood of s would
+     *             fall below zero.
+     */
+    public void subtract(BigFraction s, BigFraction p) {
+	checkParameters(s, p);
+	if (p.equals(BigFraction.ZERO)) {
+	    return;
+	}
+	// decrease the likelihood of s
+	while (true) {
+	    BigFraction w = dist.get(s); // the current likelihood of s
+	    BigFraction v = (w == null ? BigFraction.ZERO : w).subtract(p);
+	    if (v.compareTo(BigFraction.ZERO) < 0) {
+		throw new InvalidKnowledgeDistributionException(
+			"Knowledge-state probability cannot fall below zero.");
+	    }
+	    if (v.equals(BigFraction.ZERO) ? dist.remove(s, w) : dist.replace(
+		    s, w, v)) {
+		break;
+	    }
+	}
+	// release p from the weight of this
+	while (true) {
+	    BigFraction t = total.get(); // the current weight of this
+	    if (total.compareAndSet(t, t.subtract(p))) {
+		break;
+	    }
+	}
+    }
+
+    /**
+     * This operation updates this distribution to reflect the change of
+     * knowledge that would result from an interaction with the informant
+     * described by the conditional two-coin channel c, exactly as
+     * {@link KnowledgeDistribution#update(ConditionalTwoCoinChannel)} does.
+     * The probability of the condition of c is removed from it atomically,
+     * and then added to the a-posteriori knowledge-states; the weight of this
+     * distribution is not changed.
+     *
+     * @param c
+     *            The conditional two-coin channel that will be used to update
+     *            this distribution.
+     *
+     * @throws NullPointerException
+     *             If c is null.
+     */
+    public void update(ConditionalTwoCoinChannel c) {
+	// the probability that the spy is in knowledge-state c.getCondition()
+	BigFraction p = dist.remove(c.getCondition());
+	if (p == null) {
+	    // this revelation won't affect the knowledge distribution
+	    return;
+	}
+	BigInteger limit = maxDenominator; // the limit used by this update
+	BigFraction heads = c.outcomeProbability(true); // prob. heads
+	BigFraction tails = c.outcomeProbability(false); // prob. tails
+	if (!heads.equals(BigFraction.ZERO)) {
+	    increase(round(c.aPosteriori(true), limit), p.multiply(heads));
+	}
+	if (!tails.equals(BigFraction.ZERO)) {
+	    increase(round(c.aPosteriori(false), limit), p.multiply(tails));
+	}
+    }
+
+    /**
+     * This operation updates this distribution to reflect the change of
+     * knowledge that would result from interactions with each informant in
+     * the list informants, in the order in which they appear in that list, by
+     * calling {@link #update(ConditionalTwoCoinChannel)} for each of them.
+     *
+     * @param informants
+     *            The list of conditional two-coin channels that will be used to
+     *            update this distribution.
+     *
+     * @throws NullPointerException
+     *             If informants is null or contains null TwoCoinChannels.
+     */
+    public void update(List<ConditionalTwoCoinChannel> informants) {
+	if (informants == null || informants.contains(null)) {
+	    throw new NullPointerException(
+		    "Parameter cannot be null or contain null elements");
+	}
+	for (ConditionalTwoCoinChannel c : informants) {
+	    update(c);
+	}
+    }
+
+    /**
+     * Determines whether this distribution is internally consistent. The
+     * result is only meaningful when no operations are in progress, as the
+     * weight of this distribution may differ from the sum of the
+     * probabilities of its knowledge-states while they are.
+     *
+     * @return true if this distribution is internally consistent, and false
+     *         otherwise
+     */
+    public boolean checkInv() {
+	if (dist == null || total == null || total.get() == null) {
+	    return false;
+	}
+	// calculated weight
+	FractionAccumulator weight = new FractionAccumulator();
+	for (Map.Entry<BigFraction, BigFraction> e : dist.entrySet()) {
+	    BigFraction s = e.getKey(), w = e.getValue();
+	    // check that each of the knowledge-states is a probability, with a
+	    // non-zero probability
+	    if (!s.isAProbability() || !w.isAProbability()
+		    || w.equals(BigFraction.ZERO)) {
+		return false;
+	    }
+	    weight.add(w);
+	}
+	// check that the weight is a probability, and is the sum of the values
+	// in dist
+	if (!total.get().isAProbability()
+		|| !total.get().equals(weight.toBigFraction())) {
+	    return false;
+	}
+	// check that the denominator limit, if any, is positive
+	BigInteger limit = maxDenominator;
+	if (limit != null && limit.signum() <= 0) {
+	    return false;
+	}
+	// everything is OK
+	return true;
+    }
+
+    /**
+     * Increases the likelihood of knowledge-state s by probability p, without
+     * changing the weight of this.
+     */
+    private void increase(BigFraction s, BigFraction p) {
+	if (p.equals(BigFraction.ZERO)) {
+	    return;
+	}
+	while (true) {
+	    BigFraction w = dist.get(s); // the current likelihood of s
+	    if (w == null ? dist.putIfAbsent(s, p) == null : dist.replace(s,
+		    w, w.add(p))) {
+		return;
+	    }
+	}
+    }
+
+    /**
+     * Returns knowledge-state s rounded to denominator limit, if it is not
+     * null.
+     */
+    private static BigFraction round(BigFraction s, BigInteger limit) {
+	return (limit == null ? s : s.limitDenominator(limit));
+    }
+
+    /**
+     * Checks that knowledge-state s and probability p are valid parameters
+     * for add and subtract.
+     */
+    private static void checkParameters(BigFraction s, BigFraction p) {
+	if (s == null || p == null) {
+	    throw new NullPointerException("Parameters cannot be null.");
+	}
+	if (!p.isAProbability() || !s.isAProbability()) {
+	    throw new InvalidProbabilityException(
+		    "Parameters must be probabilities.");
+	}
+    }
+
+}
@@ -1,6 +1,11 @@
 package csse2002.security;
 
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.BiConsumer;
+import java.io.*;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
 
 import csse2002.math.*;
 
@@ -60,15 +65,114 @@ import csse2002.math.*;
  * <br>
  * 
  * {{true@1/4, false@3/4}@1/2, {true@2/3, false@1/3}@3/16, {true@4/5,
- * false@1/5}@5/16}
+ * false@1/5}@5/16}<br>
+ * <br>
+ * 
+ * A KnowledgeDistribution calculates exactly, with BigFractions. Adding,
+ * subtracting and updating by single informants are implemented by
+ * {@link AbstractKnowledgeDistribution}, which it shares with the
+ * distributions that calculate with other arithmetic (see
+ * {@link #create(ProbabilityArithmetic)}); the rest of its operations rely
+ * on exact arithmetic.<br>
+ * <br>
+ * 
+ * The storage of a distribution (see {@link Storage}) does not change its
+ * behaviour, but does change the cost of its statistics. The Bayes
+ * vulnerability and entropies take constant time with any storage (once
+ * they have first been asked for), but
+ * {@link #weightInRange(BigFraction, BigFraction)},
+ * {@link #quantile(BigFraction)} and {@link #mean()} avoid scanning the
+ * support only with {@link Storage#PERSISTENT} storage, which keeps the
+ * probabilities of its subtrees. That is the storage of every distribution
+ * created without a Storage (and of their copies), so these statistics can
+ * be queried repeatedly while the distribution evolves (for example, to
+ * monitor a spy while a long informant pipeline is applied); with TREE and
+ * ARRAY storage, and in distributions restored from a checkpoint, they take
+ * linear time.
  * 
  */
 
-public class KnowledgeDistribution implements Iterable<BigFraction> {
+public class KnowledgeDistribution extends
+	AbstractKnowledgeDistribution<BigFraction> {
+
+    /**
+     * The ways in which a KnowledgeDistribution can store its support. They
+     * differ only in performance: the behaviour of a distribution is the same
+     * whichever storage it uses.
+     */
+    public enum Storage {
+	/**
+	 * A balanced binary search tree of knowledge-states (a TreeMap). Every
+	 * operation takes logarithmic time, except for weightInRange, quantile
+	 * and mean, which take linear time. Modifications allocate less than
+	 * with PERSISTENT storage, so this suits distributions that are updated
+	 * often but whose statistics are rarely asked for.
+	 */
+	TREE {
+	    @Override
+	    StateStore newStore() {
+		return new TreeStateStore();
+	    }
+	},
+	/**
+	 * Parallel arrays of knowledge-states and probabilities, sorted by
+	 * knowledge-state, with numerators and denominators held as primitive
+	 * longs whenever they fit. This uses much less memory per
+	 * knowledge-state than TREE, at the cost of occasionally merging
+	 * buffered insertions into the arrays. As with TREE, weightInRange,
+	 * quantile and mean take linear time.
+	 */
+	ARRAY {
+	    @Override
+	    StateStore newStore() {
+		return new ArrayStateStore();
+	    }
+	},
+	/**
+	 * A persistent balanced binary search tree of knowledge-states, whose
+	 * nodes are never modified: each modification copies the path to the
+	 * knowledge-state modified, and shares the rest of the tree. Every
+	 * operation takes logarithmic time, and copying a distribution takes
+	 * constant time, so this is the storage to use for distributions that
+	 * are copied often, such as those of a search over the orders in which
+	 * a spy could meet informants. It also keeps the probabilities of its
+	 * subtrees, so weightInRange and quantile take logarithmic time (as
+	 * does mean, for each modification since it was last called): this is
+	 * the storage to use for distributions whose statistics are monitored
+	 * as they are updated. It is the storage of distributions created
+	 * without a Storage.
+	 */
+	PERSISTENT {
+	    @Override
+	    StateStore newStore() {
+		return new PersistentStateStore();
+	    }
+	};
+
+	/**
+	 * Returns a new empty store of this kind.
+	 */
+	abstract StateStore newStore();
+    }
+
+    // the storage of distributions created without a Storage
+    private final static Storage DEFAULT_STORAGE = Storage.PERSISTENT;
+
+    // minus one, the coefficient of the subtracted distribution in minus
+    private final static BigFraction MINUS_ONE = new BigFraction(-1);
 
-    // An ordered map storing (knowledge-state, probability) pairs for
+    // An ordered store of (knowledge-state, probability) pairs for
     // knowledge-states in the support of the distribution.
-    private TreeMap<BigFraction, BigFraction> dist;
+    private StateStore dist;
+    // The largest denominator allowed in the knowledge-states produced by
+    // update, or null if knowledge-states are kept exact.
+    private BigInteger maxDenominator;
+    // The largest number of knowledge-states kept by updates, or zero if the
+    // support is not limited.
+    private int maxSupportSize;
+    // The sum of the costs of the merges made to keep the support within its
+    // limit.
+    private BigFraction supportError = BigFraction.ZERO;
 
     /*
      * invariant:
@@ -80,19 +184,46 @@ public class KnowledgeDistribution implements Iterable<BigFraction> {
      * the values in dist are non-zero probabilities (and so they cannot be
      * null) &&
      * 
-     * the sum of values in dist is a probability.
+     * the sum of values in dist is a probability &&
+     * 
+     * total equals the sum of values in dist &&
+     * 
+     * dist.summary() is the summary of the pairs in dist &&
+     * 
+     * (maxDenominator == null || maxDenominator >= 1) &&
+     * 
+     * maxSupportSize >= 0 &&
+     * 
+     * supportError is a non-negative fraction.
      */
 
     /**
-     * Creates a new empty KnowledgeDistribution with zero weight.
+     * Creates a new empty KnowledgeDistribution with zero weight, with
+     * {@link Storage#PERSISTENT} storage.
      */
     public KnowledgeDistribution() {
-	dist = new TreeMap<BigFraction, BigFraction>();
+	this(DEFAULT_STORAGE);
+    }
+
+    /**
+     * Creates a new empty KnowledgeDistribution with zero weight, that stores
+     * its support using the given kind of storage.
+     * 
+     * @param storage
+     *            The kind of storage used by the new distribution.
+     * 
+     * @throws NullPointerException
+     *             If parameter storage is null.
+     */
+    public KnowledgeDistribution(Storage storage) {
+	super(ExactArithmetic.INSTANCE);
+	dist = storage.newStore();
     }
 
     /**
      * Creates a new point distribution on s, i.e. a new KnowledgeDistribution
-     * in which s has probability one.
+     * in which s has probability one, with {@link Storage#PERSISTENT}
+     * storage.
      * 
      * @param s
      *            The knowledge-state from which the point distribution will be
@@ -105,6 +236,7 @@ public class KnowledgeDistribution implements Iterable<BigFraction> {
      *             If s is not a probability.
      */
     public KnowledgeDistribution(BigFraction s) {
+	super(ExactArithmetic.INSTANCE);
 	if (s == null) {
 	    throw new NullPointerException(
 		    "Cannot create point distribution of a null knowledge-state.");
@@ -113,8 +245,9 @@ public class KnowledgeDistribution implements Iterable<BigFraction> {
 	    throw new InvalidProbabilityException(
 		    "Parameter s must be a probability.");
 	}
-	dist = new TreeMap<BigFraction, BigFraction>();
+	dist = DEFAULT_STORAGE.newStore();
 	dist.put(s, BigFraction.ONE);
+	total = BigFraction.ONE;
     }
 
     /**
@@ -122,7 +255,7 @@ public class KnowledgeDistribution implements Iterable<BigFraction> {
      * secret is true with probability aPriori (and false with probability
      * aPriori.complement()), and subsequently encounters the informants
      * specified by parameter informants, in the order in which they appear in
-     * that list.
+     * that list. The distribution has {@link Storage#PERSISTENT} storage.
      * 
      * @param aPriori
      *            The probability that the secret is true before the spy
@@ -141,6 +274,7 @@ public class KnowledgeDistribution implements Iterable<BigFraction> {
      */
     public KnowledgeDistribution(BigFraction aPriori,
 	    List<ConditionalTwoCoinChannel> informants) {
+	super(ExactArithmetic.INSTANCE);
 	if (aPriori == null || informants == null || informants.contains(null)) {
 	    throw new NullPointerException(
 		    "Parameters cannnot be null or contain null values.");
@@ -149,16 +283,62 @@ public class KnowledgeDistribution implements Iterable<BigFraction> {
 	    throw new InvalidProbabilityException(
 		    "Parameter aPriori must be a probability.");
 	}
-	dist = new TreeMap<BigFraction, BigFraction>();
+	dist = DEFAULT_STORAGE.newStore();
+	dist.put(aPriori, BigFraction.ONE);
+	total = BigFraction.ONE;
+	this.update(informants);
+    }
+
+    /**
+     * Creates the KnowledgeDistribution of a spy that initially knows that the
+     * secret is true with probability aPriori (and false with probability
+     * aPriori.complement()), and subsequently encounters the informants
+     * returned by iterator informants, in the order in which they are
+     * returned (see {@link #update(Iterator)}). The distribution has
+     * {@link Storage#PERSISTENT} storage.
+     * 
+     * @param aPriori
+     *            The probability that the secret is true before the spy
+     *            encounters any informants.
+     * 
+     * @param informants
+     *            An iterator over the informants that the spy meets, one at a
+     *            time, in the order in which they are returned.
+     * 
+     * @throws NullPointerException
+     *             If either parameter is null or informants returns a null
+     *             value.
+     * 
+     * @throws InvalidProbabilityException
+     *             If aPriori is not a probability.
+     */
+    public KnowledgeDistribution(BigFraction aPriori,
+	    Iterator<ConditionalTwoCoinChannel> informants) {
+	super(ExactArithmetic.INSTANCE);
+	if (aPriori == null || informants == null) {
+	    throw new NullPointerException("Parameters cannnot be null.");
+	}
+	if (!aPriori.isAProbability()) {
+	    throw new InvalidProbabilityException(
+		    "Parameter aPriori must be a probability.");
+	}
+	dist = DEFAULT_STORAGE.newStore();
 	dist.put(aPriori, BigFraction.ONE);
+	total = BigFraction.ONE;
 	this.update(informants);
     }
 
     /**
      * Creates a new KnowledgeDistribution with the same knowledge-states and
-     * corresponding weights as KnowledgeDistribution k. Parameter k is
+     * corresponding weights (and the same kind of storage) as
+     * KnowledgeDistribution k. Parameter k is
      * unmodified by the operation, and future operations on this. Similarly,
-     * this is unmodified by future modifications to k.
+     * this is unmodified by future modifications to k.<br>
+     * <br>
+     * 
+     * The copy takes time linear in the size of the support of k, except
+     * when k has {@link Storage#PERSISTENT} storage, when it takes constant
+     * time.
      * 
      * @param k
      *            The KnowledgeDistribution from which our new
@@ -168,318 +348,956 @@ public class KnowledgeDistribution implements Iterable<BigFraction> {
      *             If parameter k is null;
      */
     public KnowledgeDistribution(KnowledgeDistribution k) {
+	super(ExactArithmetic.INSTANCE);
 	if (k == null) {
 	    throw new NullPointerException("Paramter k cannot be null.");
 	}
-	dist = new TreeMap<BigFraction, BigFraction>(k.dist);
+	dist = k.dist.copy();
+	total = k.total;
+	maxDenominator = k.maxDenominator;
+	maxSupportSize = k.maxSupportSize;
+	supportError = k.supportError;
     }
 
     /**
-     * Returns the probability of knowledge-state s in this.
+     * Creates a new empty distribution with zero weight, that calculates using
+     * the given arithmetic, and stores its support in a balanced binary search
+     * tree ordered by that arithmetic (see
+     * {@link AbstractKnowledgeDistribution}). With {@link ExactArithmetic} it
+     * behaves as a KnowledgeDistribution with TREE storage, but it only has
+     * the operations of AbstractKnowledgeDistribution: create a
+     * KnowledgeDistribution directly for the rest.
+     * 
+     * @param arithmetic
+     *            The arithmetic used by the distribution.
+     * @return A new empty distribution that uses arithmetic.
      * 
-     * @param s
-     *            The knowledge-state for which the probability is retrieved.
      * @throws NullPointerException
-     *             If parameter s is null.
-     * @return The probability of knowledge-state s.
+     *             If arithmetic is null.
      */
-    public BigFraction weight(BigFraction s) {
-	return (dist.containsKey(s) ? dist.get(s) : BigFraction.ZERO);
+    public static <P> AbstractKnowledgeDistribution<P> create(
+	    ProbabilityArithmetic<P> arithmetic) {
+	return new TreeKnowledgeDistribution<P>(arithmetic);
     }
 
     /**
-     * Returns the combined probability of all the knowledge-states in the
-     * support of the KnowledgeDistribution.
+     * Creates the distribution of a spy that initially knows that the secret
+     * is true with probability aPriori, and subsequently encounters the
+     * informants specified by parameter informants, in the order in which they
+     * appear in that list, calculated using the given arithmetic (see
+     * {@link #create(ProbabilityArithmetic)}).
      * 
-     * @return The probability of all the knowledge-states in the support of
-     *         this added together.
+     * @param arithmetic
+     *            The arithmetic used by the distribution.
+     * @param aPriori
+     *            The probability that the secret is true before the spy
+     *            encounters any informants.
+     * @param informants
+     *            A list of informants that the spy meets, one at a time, in the
+     *            order in which they are given in this list.
+     * @return The distribution of the spy.
+     * 
+     * @throws NullPointerException
+     *             If any parameter is null or informants contains null values.
+     * 
+     * @throws InvalidProbabilityException
+     *             If aPriori is not a probability.
      */
-    public BigFraction weight() {
-	BigFraction weight = BigFraction.ZERO; // weight of the distribution
-	for (BigFraction w : dist.values()) {
-	    weight = weight.add(w);
+    public static <P> AbstractKnowledgeDistribution<P> create(
+	    ProbabilityArithmetic<P> arithmetic, BigFraction aPriori,
+	    List<ConditionalTwoCoinChannel> informants) {
+	if (aPriori == null || informants == null || informants.contains(null)) {
+	    throw new NullPointerException(
+		    "Parameters cannnot be null or contain null values.");
+	}
+	if (!aPriori.isAProbability()) {
+	    throw new InvalidProbabilityException(
+		    "Parameter aPriori must be a probability.");
 	}
-	return weight;
+	AbstractKnowledgeDistribution<P> k = create(arithmetic);
+	k.add(arithmetic.valueOf(aPriori), arithmetic.one());
+	k.update(informants);
+	return k;
     }
 
     /**
-     * Returns an iterator over the knowledge-states in the <i>support</i> of
-     * this distribution. The support of this distribution is defined as the
-     * knowledge-states with non-zero probability in this. <br>
+     * Returns a new KnowledgeDistribution with the same knowledge-states,
+     * weights, storage and limits as this one (see
+     * {@link #KnowledgeDistribution(KnowledgeDistribution)}).
+     */
+    @Override
+    public KnowledgeDistribution copy() {
+	return new KnowledgeDistribution(this);
+    }
+
+    /**
+     * Returns the kind of storage used by this distribution.
+     * 
+     * @return The storage of this distribution.
+     */
+    public Storage getStorage() {
+	return dist.storage();
+    }
+
+    /**
+     * Sets the largest denominator allowed in the knowledge-states produced by
+     * future updates of this distribution, or removes the limit if
+     * maxDenominator is null. <br>
      * <br>
      * 
-     * The knowledge-states returned are represented by BigFractions, describing
-     * the probability that the secret is true in that knowledge-state.<br>
+     * Exact updates can produce knowledge-states with ever-growing
+     * denominators. When a limit is set, each knowledge-state produced by an
+     * update is replaced by its best rational approximation with a
+     * denominator of at most maxDenominator (see
+     * {@link BigFraction#limitDenominator(BigInteger)}), which bounds the cost
+     * of later updates at the expense of exactness. The probabilities of the
+     * knowledge-states are not rounded, so updates still preserve the weight
+     * of this distribution. Knowledge-states already in this distribution are
+     * not affected.
+     * 
+     * @param maxDenominator
+     *	    The largest denominator allowed in updated knowledge-states,
+     *	    or null for exact updates.
+     * 
+     * @throws IllegalArgumentException
+     *	     If maxDenominator is less than one.
+     */
+    public void setDenominatorLimit(BigInteger maxDenominator) {
+	if (maxDenominator != null && maxDenominator.signum() <= 0) {
+	    throw new IllegalArgumentException(
+		    "Maximum denominator must be at least one.");
+	}
+	this.maxDenominator = maxDenominator;
+    }
+
+    /**
+     * Returns the largest denominator allowed in the knowledge-states produced
+     * by updates of this distribution, or null if updates are exact.
+     * 
+     * @return The denominator limit of this distribution, or null if there is
+     *	 none.
+     */
+    public BigInteger getDenominatorLimit() {
+	return maxDenominator;
+    }
+
+    /**
+     * Sets the largest number of knowledge-states that updates of this
+     * distribution may leave in its support, or removes the limit if maxSize
+     * is zero.<br>
      * <br>
      * 
-     * The knowledge-states, represented by BigFractions, are returned in
-     * (ascending) sorted order according to the natural ordering of
-     * BigFraction: that is, knowledge-states are returned ordered by their
-     * likelihood that the secret is true, with the knowledge-state with the
-     * smallest probability that the secret is true being returned first.<br>
+     * Each update can split a knowledge-state in two, so a long sequence of
+     * updates can produce a support of unbounded size. When a limit is set,
+     * and an update (or setting the limit) leaves more than maxSize
+     * knowledge-states in the support, adjacent knowledge-states are merged
+     * until only three quarters of maxSize (rounded up) remain. Each merge
+     * replaces two adjacent knowledge-states by their weighted mean, with the
+     * sum of their probabilities, so it preserves the weight of this
+     * distribution and (unless the mean has to be rounded to a denominator
+     * limit) its mean knowledge-state. The pairs merged are those that are
+     * cheapest to merge, where the cost of a merge is the probability-weighted
+     * distance that it moves knowledge-states; the sum of the costs of all of
+     * the merges is reported by {@link #getSupportError()}. Merging down to
+     * three quarters of the limit, rather than to the limit, means that the
+     * cost of merging is spread over many updates, so each update takes
+     * O(log maxSize) time on average.<br>
      * <br>
      * 
-     * The iterator's behaviour is not defined if the KnowledgeDistribution is
-     * modified after it has been created. (That is, don't use this method to
-     * get an iterator, modify the KnowledgeDistribution, and then try to use
-     * the iterator.)
+     * While a limit is set, lists of informants are applied one at a time, as
+     * the support is limited after each of them, rather than as a batch (see
+     * {@link #update(List)}). The limit is not applied by add.
+     * 
+     * @param maxSize
+     *	    The largest number of knowledge-states allowed in the support
+     *	    after an update, or zero for no limit.
      * 
+     * @throws IllegalArgumentException
+     *	     If maxSize is negative.
      */
-    @Override
-    public Iterator<BigFraction> iterator() {
-	return new KnowledgeDistributionIterator();
+    public void setSupportLimit(int maxSize) {
+	if (maxSize < 0) {
+	    throw new IllegalArgumentException(
+		    "Maximum support size cannot be negative.");
+	}
+	maxSupportSize = maxSize;
+	limitSupport();
     }
 
     /**
-     * Iterator over support of this distribution. Essentially a wrapper around
-     * another iterator that disallows removal of elements. (Since we haven't
-     * explicitly said in the specification of iterator() that removal is
-     * allowed.)
+     * Returns the largest number of knowledge-states that updates of this
+     * distribution may leave in its support, or zero if there is no limit.
+     * 
+     * @return The support limit of this distribution, or zero if there is
+     *	 none.
      */
-    private class KnowledgeDistributionIterator implements
-	    Iterator<BigFraction> {
+    public int getSupportLimit() {
+	return maxSupportSize;
+    }
 
-	// iterator from keySet of the TreeMap that does allow removal of
-	// elements
-	Iterator<BigFraction> it;
+    /**
+     * Returns the sum of the costs of the merges made to keep the support of
+     * this distribution within its limit (see {@link #setSupportLimit(int)}):
+     * the sum, over all merges, of the probability-weighted distance by which
+     * each merge moved knowledge-states. Each cost is the Wasserstein (earth
+     * mover's) distance between the distributions before and after that
+     * merge. The result is zero if no knowledge-states have been merged.
+     * 
+     * @return The accumulated approximation error of the support limit.
+     */
+    public BigFraction getSupportError() {
+	return supportError;
+    }
 
-	public KnowledgeDistributionIterator() {
-	    it = dist.keySet().iterator();
+    /**
+     * Merges knowledge-states of this distribution if its support exceeds the
+     * support limit.
+     */
+    private void limitSupport() {
+	if (maxSupportSize > 0 && dist.size() > maxSupportSize) {
+	    StateMerger merger = new StateMerger(dist, maxDenominator);
+	    merger.mergeTo(maxSupportSize - maxSupportSize / 4);
+	    dist = merger.toStore(dist.storage());
+	    supportError = supportError.add(merger.error());
 	}
+    }
 
-	@Override
-	public boolean hasNext() {
-	    return it.hasNext();
-	}
+    /**
+     * Returns knowledge-state s rounded according to the denominator limit of
+     * this distribution.
+     */
+    @Override
+    BigFraction round(BigFraction s) {
+	return (maxDenominator == null ? s : s
+		.limitDenominator(maxDenominator));
+    }
 
-	@Override
-	public BigFraction next() {
-	    return it.next();
+    @Override
+    BigFraction get(BigFraction s) {
+	return dist.get(s);
+    }
+
+    @Override
+    void put(BigFraction s, BigFraction w) {
+	dist.put(s, w);
+    }
+
+    @Override
+    void remove(BigFraction s) {
+	dist.remove(s);
+    }
+
+    @Override
+    BigFraction match(BigFraction s) {
+	// exact knowledge-states are only equal to themselves
+	return s;
+    }
+
+    @Override
+    void updated() {
+	limitSupport();
+    }
+
+    /**
+     * Returns the Bayes vulnerability of the secret to a spy with this
+     * KnowledgeDistribution: the probability that the spy guesses the secret
+     * correctly in one try, by guessing its more likely value in whichever
+     * knowledge-state the spy is in. That is, the sum of max(s, 1 - s) times
+     * the probability of s, over the knowledge-states s in the support of
+     * this, divided by the weight of this. The more the spy has learnt, the
+     * closer this is to one.<br>
+     * <br>
+     * 
+     * The first call sums the terms over the support, in linear time. From
+     * then on, the sum is kept up to date, in double precision with
+     * compensated summation, as knowledge-states are added, removed, split and
+     * merged, at a constant cost for each, so later calls take constant time
+     * (and distributions whose metrics are never asked for do not pay for
+     * them). Its error is close to the rounding error of the terms added and
+     * removed.
+     * 
+     * @return The Bayes vulnerability of the secret.
+     * 
+     * @throws InvalidKnowledgeDistributionException
+     *             If this KnowledgeDistribution has zero weight.
+     */
+    public double bayesVulnerability() {
+	if (total.equals(BigFraction.ZERO)) {
+	    throw new InvalidKnowledgeDistributionException(
+		    "Distribution has no knowledge-states.");
 	}
+	return trackedSummary().vulnerability() / total.getDoubleValue();
+    }
 
-	@Override
-	public void remove() {
-	    throw new UnsupportedOperationException();
+    /**
+     * Returns the conditional min-entropy, in bits, of the secret given the
+     * knowledge-state of a spy with this KnowledgeDistribution: minus the
+     * base two logarithm of its Bayes vulnerability (see
+     * {@link #bayesVulnerability()}). This is between zero (the spy always
+     * knows the secret) and one (the spy has learnt nothing), and takes the
+     * same time as the Bayes vulnerability.
+     * 
+     * @return The conditional min-entropy of the secret.
+     * 
+     * @throws InvalidKnowledgeDistributionException
+     *             If this KnowledgeDistribution has zero weight.
+     */
+    public double minEntropy() {
+	return -Math.log(bayesVulnerability()) / Math.log(2);
+    }
+
+    /**
+     * Returns the conditional Shannon entropy, in bits, of the secret given
+     * the knowledge-state of a spy with this KnowledgeDistribution: the sum
+     * of -s log2(s) - (1 - s) log2(1 - s) times the probability of s, over
+     * the knowledge-states s in the support of this, divided by the weight of
+     * this. This is between zero and one, and is kept up to date in the same
+     * way as the Bayes vulnerability (from the first call of either), so it
+     * takes constant time after that call.
+     * 
+     * @return The conditional Shannon entropy of the secret.
+     * 
+     * @throws InvalidKnowledgeDistributionException
+     *             If this KnowledgeDistribution has zero weight.
+     */
+    public double shannonEntropy() {
+	if (total.equals(BigFraction.ZERO)) {
+	    throw new InvalidKnowledgeDistributionException(
+		    "Distribution has no knowledge-states.");
 	}
+	return trackedSummary().entropy() / total.getDoubleValue();
     }
 
     /**
-     * Returns the string <br>
+     * Returns the summary of dist, which keeps the vulnerability and entropy
+     * of dist from the first call of this method on.
+     */
+    private StoreSummary trackedSummary() {
+	StoreSummary summary = dist.summary();
+	summary.track(dist);
+	return summary;
+    }
+
+    /**
+     * Returns the combined probability of the knowledge-states s in the
+     * support of the KnowledgeDistribution with lo <= s <= hi (for example,
+     * the probability that the spy believes the secret to be true with
+     * probability at least 9/10 is weightInRange(9/10, 1)).<br>
      * <br>
      * 
-     * "{KS1@W1, ... , KSN@WN}",<br>
-     * <br>
+     * With {@link Storage#PERSISTENT} storage, which keeps the probabilities
+     * of its subtrees, this takes logarithmic time; with other storage it
+     * takes time linear in the number of knowledge-states up to hi.
      * 
-     * where N is the number of knowledge-states in the support of this (i.e.
-     * those states with a non-zero probability of occurrence), and for i in
-     * 1..N, KSi is a string representation -- described below -- of the
-     * knowledge-state in the support of this with the ith-smallest probability
-     * that the secret is true, and Wi is its corresponding probability of
-     * occurrence.<br>
-     * <br>
+     * @param lo
+     *            The smallest knowledge-state included.
+     * @param hi
+     *            The largest knowledge-state included.
+     * @return The probability of all the knowledge-states in the support of
+     *         this between lo and hi (inclusive) added together, which is zero
+     *         if lo is greater than hi.
      * 
-     * The string representation of a knowledge-state in which the secret is
-     * true with probability P and false with the complementary probability P'
-     * is given by:<br>
+     * @throws NullPointerException
+     *             If lo or hi is null.
+     */
+    public BigFraction weightInRange(BigFraction lo, BigFraction hi) {
+	if (lo == null || hi == null) {
+	    throw new NullPointerException("Parameters cannot be null.");
+	}
+	if (lo.compareTo(hi) > 0) {
+	    return BigFraction.ZERO;
+	}
+	return dist.weightBelow(hi, true).subtract(dist.weightBelow(lo, false));
+    }
+
+    /**
+     * Returns the q-quantile of the knowledge-states of this
+     * KnowledgeDistribution: the smallest knowledge-state s in its support
+     * such that the combined probability of the knowledge-states less than or
+     * equal to s is at least q times the weight of this (so that quantile(1/2)
+     * is the median knowledge-state).<br>
      * <br>
      * 
-     * "{true@P, false@P'}"<br>
-     * <br>
+     * With {@link Storage#PERSISTENT} storage this takes logarithmic time;
+     * with other storage it takes time linear in the number of
+     * knowledge-states up to the result.
+     * 
+     * @param q
+     *            The fraction of the weight of this at or below the result.
+     * @return The q-quantile of the knowledge-states of this.
      * 
-     * where P and P' are given by the toString representation of BigFraction.<br>
+     * @throws NullPointerException
+     *             If q is null.
+     * @throws InvalidProbabilityException
+     *             If q is not a probability.
+     * @throws InvalidKnowledgeDistributionException
+     *             If this KnowledgeDistribution has zero weight.
+     */
+    public BigFraction quantile(BigFraction q) {
+	if (q == null) {
+	    throw new NullPointerException("Parameter cannot be null.");
+	}
+	if (!q.isAProbability()) {
+	    throw new InvalidProbabilityException(
+		    "Parameter q must be a probability.");
+	}
+	if (total.equals(BigFraction.ZERO)) {
+	    throw new InvalidKnowledgeDistributionException(
+		    "Distribution has no knowledge-states.");
+	}
+	return dist.quantile(q.multiply(total));
+    }
+
+    /**
+     * Returns the mean knowledge-state of this KnowledgeDistribution: the sum
+     * of s times the probability of s, over the knowledge-states s in its
+     * support, divided by the weight of this. (Exact updates do not change
+     * the mean, so for the distribution of a spy it remains the probability
+     * of the secret being true before the spy met any informants.)<br>
      * <br>
      * 
-     * For example, the string:<br>
+     * With {@link Storage#PERSISTENT} storage this takes logarithmic time for
+     * each modification of this since it was last called; with other storage
+     * it takes linear time.
+     * 
+     * @return The mean knowledge-state of this.
+     * 
+     * @throws InvalidKnowledgeDistributionException
+     *             If this KnowledgeDistribution has zero weight.
+     */
+    public BigFraction mean() {
+	if (total.equals(BigFraction.ZERO)) {
+	    throw new InvalidKnowledgeDistributionException(
+		    "Distribution has no knowledge-states.");
+	}
+	return dist.moment().divide(total);
+    }
+
+    /**
+     * Returns an iterator over the (knowledge-state, probability) pairs of the
+     * support of this distribution, in the same order as {@link #iterator()}.
+     * Unlike iterating over the knowledge-states and calling
+     * {@link #weight(Object)} for each of them, this does not look up
+     * each knowledge-state. <br>
      * <br>
      * 
-     * "{{true@1/4, false@3/4}@1/2, {true@2/3, false@1/3}@3/16, {true@4/5,
-     * false@1/5}@5/16}"<br>
+     * The iterator does not support removal, and the entries it returns do
+     * not support setValue. Its behaviour is not defined if the
+     * KnowledgeDistribution is modified after it has been created.
+     * 
+     * @return An iterator over the knowledge-states of this, and their
+     *         probabilities.
+     */
+    @Override
+    public Iterator<Map.Entry<BigFraction, BigFraction>> entryIterator() {
+	return dist.iterator();
+    }
+
+    /**
+     * Returns an iterator like {@link #entryIterator()}, over the
+     * (knowledge-state, probability) pairs of the support of this
+     * distribution whose knowledge-states are greater than or equal to from.
+     * The first pair is found without iterating over the knowledge-states
+     * before from.
+     * 
+     * @param from
+     *            The smallest knowledge-state to be returned by the iterator.
+     * @return An iterator over the knowledge-states of this that are at least
+     *         from, and their probabilities.
+     * 
+     * @throws NullPointerException
+     *             If parameter from is null.
+     */
+    public Iterator<Map.Entry<BigFraction, BigFraction>> entryIterator(
+	    BigFraction from) {
+	if (from == null) {
+	    throw new NullPointerException("Parameter from cannot be null.");
+	}
+	return dist.iterator(from);
+    }
+
+    /**
+     * Performs action on each knowledge-state in the support of this
+     * distribution and its probability, in the same order as
+     * {@link #iterator()}. This is the cheapest way to visit the whole
+     * distribution. The behaviour is not defined if action modifies this
+     * distribution.
+     * 
+     * @param action
+     *            The action to be performed on each (knowledge-state,
+     *            probability) pair.
+     * 
+     * @throws NullPointerException
+     *             If parameter action is null.
+     */
+    public void forEach(BiConsumer<BigFraction, BigFraction> action) {
+	if (action == null) {
+	    throw new NullPointerException("Parameter action cannot be null.");
+	}
+	dist.forEach(action);
+    }
+
+    /**
+     * Returns true iff o is a KnowledgeDistribution with the same support as
+     * this one, in which each knowledge-state has the same probability as it
+     * does in this one. (The storage and denominator limits of the
+     * distributions are not compared.)<br>
      * <br>
      * 
-     * is used to represent a KnowledgeDistribution with a three-element support
-     * in which knowledge-state 1/4 occurs with probability 1/2, 2/3 occurs with
-     * probability 3/16, and 4/5 occurs with probability 5/16.
+     * Each distribution keeps a fingerprint of its (knowledge-state,
+     * probability) pairs up to date as it is modified, so unequal
+     * distributions can almost always be told apart by their weights, sizes
+     * and fingerprints, in constant time. The pairs themselves are only
+     * compared, in a single pass over both distributions, when these all
+     * match.
      */
     @Override
-    public String toString() {
-	// the string representation being constructed
-	StringBuilder sb = new StringBuilder("{");
-	// an iterator over the elements in the support of this
-	Iterator<BigFraction> it = dist.keySet().iterator();
-	while (it.hasNext()) {
-	    BigFraction s = it.next(); // knowledge-state
-	    BigFraction p = dist.get(s); // probability of state
-	    sb.append(knowledgeStateToString(s) + "@" + p);
-	    if (it.hasNext()) {
-		sb.append(", ");
+    public boolean equals(Object o) {
+	if (o == this) {
+	    return true;
+	}
+	if (!(o instanceof KnowledgeDistribution)) {
+	    return false;
+	}
+	KnowledgeDistribution k = (KnowledgeDistribution) o;
+	if (dist.summary().fingerprint() != k.dist.summary().fingerprint()
+		|| dist.size() != k.dist.size() || !total.equals(k.total)) {
+	    return false;
+	}
+	Iterator<Map.Entry<BigFraction, BigFraction>> i = dist.iterator();
+	Iterator<Map.Entry<BigFraction, BigFraction>> j = k.dist.iterator();
+	while (i.hasNext()) {
+	    Map.Entry<BigFraction, BigFraction> a = i.next(), b = j.next();
+	    if (!a.getKey().equals(b.getKey())
+		    || !a.getValue().equals(b.getValue())) {
+		return false;
 	    }
 	}
-	sb.append("}");
-	return sb.toString();
+	return true;
     }
 
     /**
-     * Returns the string representation of a knowledge-state s.
+     * Returns a hash code for this distribution, which is consistent with
+     * equals, in constant time.
      */
-    private String knowledgeStateToString(BigFraction s) {
-	return "{true@" + s + ", false@" + s.complement() + "}";
+    @Override
+    public int hashCode() {
+	long h = dist.summary().fingerprint();
+	return (int) (h ^ (h >>> 32));
     }
 
     /**
-     * Increase the likelihood of knowledge-state s in this by probability p.
+     * Returns the number of bytes written by {@link #writeTo(DataOutput)}
+     * (or {@link #writeTo(ByteBuffer)}) for this distribution.
      * 
-     * @param s
-     *            The knowledge-state that will have its likelihood increased.
-     * @param p
-     *            The probability by which the likelihood of s will be
-     *            increased.
+     * @return The size of the binary representation of this.
+     */
+    public int encodedSize() {
+	int size = 4 + 1; // the number of states, and the limit flag
+	for (Map.Entry<BigFraction, BigFraction> e : dist) {
+	    size += FractionCodec.encodedSize(e.getKey())
+		    + FractionCodec.encodedSize(e.getValue());
+	}
+	if (maxDenominator != null) {
+	    size += FractionCodec.encodedSize(maxDenominator);
+	}
+	return size;
+    }
+
+    /**
+     * Writes a compact binary representation of this distribution to out,
+     * which can be read back by {@link #readFrom(DataInput)}. <br>
+     * <br>
      * 
-     * @throws NullPointerException
-     *             If either s or p are null.
-     * @throws InvalidProbabilityException
-     *             If either p or s is not a probability.
-     * @throws InvalidKnowledgeDistributionException
-     *             If, as a result of this operation, the weight of the
-     *             KnowledgeDistribution would exceed the value one.
+     * The representation is the number of knowledge-states in the support of
+     * this (as an int), followed by each knowledge-state and its probability
+     * in ascending order of knowledge-state (encoded by
+     * {@link FractionCodec}), followed by a boolean that is true iff this has
+     * a denominator limit, and that limit if it has.
      * 
+     * @param out
+     *            The output to which this distribution is written.
+     * 
+     * @throws IOException
+     *             If out throws an IOException.
+     * @throws NullPointerException
+     *             If out is null.
      */
-    public void add(BigFraction s, BigFraction p) {
-	// check validity of parameters
-	if (s == null || p == null) {
-	    throw new NullPointerException("Parameters cannot be null.");
+    public void writeTo(DataOutput out) throws IOException {
+	out.writeInt(dist.size());
+	for (Map.Entry<BigFraction, BigFraction> e : dist) {
+	    FractionCodec.write(out, e.getKey());
+	    FractionCodec.write(out, e.getValue());
 	}
-	if (!p.isAProbability() || !s.isAProbability()) {
-	    throw new InvalidProbabilityException(
-		    "Parameters must be probabilities.");
+	out.writeBoolean(maxDenominator != null);
+	if (maxDenominator != null) {
+	    FractionCodec.writeInteger(out, maxDenominator);
 	}
-	// check that overall weight would not exceed one if this operation were
-	// to be carried out
-	if (!(weight().add(p)).isAProbability()) {
-	    throw new InvalidKnowledgeDistributionException(
-		    "Distribution weight cannot exceed one.");
+    }
+
+    /**
+     * Writes the binary representation of this distribution described in
+     * {@link #writeTo(DataOutput)} to buffer, starting at its current
+     * position.
+     * 
+     * @param buffer
+     *            The buffer to which this distribution is written.
+     * 
+     * @throws java.nio.BufferOverflowException
+     *             If the representation of this does not fit in the remaining
+     *             space of buffer (see {@link #encodedSize()}).
+     * @throws NullPointerException
+     *             If buffer is null.
+     */
+    public void writeTo(ByteBuffer buffer) {
+	buffer.putInt(dist.size());
+	for (Map.Entry<BigFraction, BigFraction> e : dist) {
+	    FractionCodec.write(buffer, e.getKey());
+	    FractionCodec.write(buffer, e.getValue());
 	}
-	// perform addition
-	BigFraction w = weight(s).add(p); // the new likelihood of s
-	if (!w.equals(BigFraction.ZERO)) {
-	    dist.put(s, w);
+	buffer.put((byte) (maxDenominator != null ? 1 : 0));
+	if (maxDenominator != null) {
+	    FractionCodec.writeInteger(buffer, maxDenominator);
 	}
     }
 
     /**
-     * Decreases the likelihood of knowledge-state s in this by probability p.
+     * Reads a distribution written by {@link #writeTo(DataOutput)} from in.
      * 
-     * @param s
-     *            The knowledge-state that will have its likelihood decreased.
-     * @param p
-     *            The probability by which the likelihood of s will be
-     *            decreased.
+     * @param in
+     *            The input from which the distribution is read.
+     * @return The distribution read.
      * 
+     * @throws IOException
+     *             If in throws an IOException, or if the input is not the
+     *             representation of a valid KnowledgeDistribution.
      * @throws NullPointerException
-     *             If either s or p are null.
-     * @throws InvalidProbabilityException
-     *             If either s or p is not a probability.
-     * @throws InvalidKnowledgeDistributionException
-     *             If, as a result of this operation, the likelihood of s would
-     *             fall below zero.
+     *             If in is null.
+     */
+    public static KnowledgeDistribution readFrom(DataInput in)
+	    throws IOException {
+	KnowledgeDistribution k = new KnowledgeDistribution();
+	int size = in.readInt();
+	if (size < 0) {
+	    throw new IOException("Invalid number of knowledge-states: "
+		    + size);
+	}
+	FractionAccumulator weight = new FractionAccumulator();
+	for (int i = 0; i < size; i++) {
+	    k.readEntry(FractionCodec.read(in), FractionCodec.read(in),
+		    weight);
+	}
+	k.readWeight(weight);
+	if (in.readBoolean()) {
+	    k.readLimit(FractionCodec.readInteger(in));
+	}
+	return k;
+    }
+
+    /**
+     * Reads a distribution written by {@link #writeTo(ByteBuffer)} from
+     * buffer, starting at its current position.
+     * 
+     * @param buffer
+     *            The buffer from which the distribution is read.
+     * @return The distribution read.
      * 
+     * @throws IOException
+     *             If the buffer ends too early, or its contents are not the
+     *             representation of a valid KnowledgeDistribution.
+     * @throws NullPointerException
+     *             If buffer is null.
      */
-    public void subtract(BigFraction s, BigFraction p) {
-	// check validity of parameters
-	if (s == null || p == null) {
-	    throw new NullPointerException("Parameters cannot be null.");
+    public static KnowledgeDistribution readFrom(ByteBuffer buffer)
+	    throws IOException {
+	KnowledgeDistribution k = new KnowledgeDistribution();
+	if (buffer.remaining() < 4) {
+	    throw new EOFException("Truncated distribution.");
 	}
-	if (!p.isAProbability() || !s.isAProbability()) {
-	    throw new InvalidProbabilityException(
-		    "Parameters must be probabilities.");
+	int size = buffer.getInt();
+	if (size < 0) {
+	    throw new IOException("Invalid number of knowledge-states: "
+		    + size);
 	}
-	// check that resulting distribution would be valid
-	BigFraction w = weight(s).subtract(p); // the new likelihood of s
-	if (w.compareTo(BigFraction.ZERO) < 0) {
-	    throw new InvalidKnowledgeDistributionException(
-		    "Distribution weight cannot be negative.");
+	FractionAccumulator weight = new FractionAccumulator();
+	for (int i = 0; i < size; i++) {
+	    k.readEntry(FractionCodec.read(buffer), FractionCodec
+		    .read(buffer), weight);
+	}
+	k.readWeight(weight);
+	if (!buffer.hasRemaining()) {
+	    throw new EOFException("Truncated distribution.");
 	}
-	// perform subtraction
-	if (w.equals(BigFraction.ZERO)) {
-	    // remove s from dist if its new weight is zero
-	    dist.remove(s);
-	} else {
-	    // update likelihood of s in dist if new weight is non-zero
-	    dist.put(s, w);
+	if (buffer.get() != 0) {
+	    k.readLimit(FractionCodec.readInteger(buffer));
 	}
+	return k;
     }
 
     /**
+     * Adds knowledge-state s with probability p, read from a binary
+     * representation, to this distribution, where weight is the total
+     * probability of the states read so far (and is updated). The weight is
+     * only checked once all of the states have been read (see readWeight),
+     * so that reading takes linear time.
      * 
-     * Recall that this KnowledgeDistributin may be used to describe the
-     * likelihood of the spy being in each possible knowledge-state, following a
-     * sequence of of interactions with informants using conditional two-coin
-     * channels. <br>
-     * <br>
+     * @throws IOException
+     *             If s is not a valid knowledge-state, or does not follow the
+     *             states already in this.
+     */
+    private void readEntry(BigFraction s, BigFraction p,
+	    FractionAccumulator weight) throws IOException {
+	if (!s.isAProbability() || !p.isAProbability()
+		|| p.equals(BigFraction.ZERO)) {
+	    throw new IOException("Invalid knowledge-state " + s + "@" + p);
+	}
+	if (dist.size() > 0 && dist.lastKey().compareTo(s) >= 0) {
+	    throw new IOException("Knowledge-states out of order at " + s);
+	}
+	weight.add(p);
+	dist.put(s, p);
+    }
+
+    /**
+     * Sets the weight of this to the total probability of the states read
+     * from a binary representation.
      * 
-     * This operation updates this KnowledgeDistribution to reflect the change
-     * of knowledge that would result from an interaction with an informant
-     * using conditional two-coin channel c.<br>
-     * <br>
+     * @throws IOException
+     *             If the weight exceeds one.
+     */
+    private void readWeight(FractionAccumulator weight) throws IOException {
+	if (weight.compareTo(BigFraction.ONE) > 0) {
+	    throw new IOException("Distribution weight exceeds one.");
+	}
+	total = weight.toBigFraction();
+    }
+
+    /**
+     * Sets the denominator limit of this to a value read from a binary
+     * representation.
      * 
-     * Recall that such an informant first checks to see if the knowledge-state
-     * of the spy is c.getCondition(). If it is, then the informant reveals the
-     * bias of both coins in c.getTwoCoinChannel() to the spy. Then, in private,
-     * the informant flips coin1 if the secret is true, and coin2 if the secret
-     * is false, and reveals the outcome of the coin flip to the spy (but not
-     * which coin has been flipped).<br>
+     * @throws IOException
+     *             If maxDenominator is not positive.
+     */
+    private void readLimit(BigInteger maxDenominator) throws IOException {
+	if (maxDenominator.signum() <= 0) {
+	    throw new IOException("Invalid denominator limit: "
+		    + maxDenominator);
+	}
+	this.maxDenominator = maxDenominator;
+    }
+
+    /**
+     * Writes a checkpoint of this distribution to file, from which it can be
+     * restored by {@link #restore(File)}, replacing any previous contents of
+     * file. <br>
      * <br>
      * 
-     * If the knowledge-state of the spy is not c.getCondition(), then the
-     * informant reveals nothing and vanishes.<br>
-     * <br>
+     * The checkpoint holds the knowledge-states of this distribution and
+     * their probabilities, in ascending order of knowledge-state, with an
+     * index of their positions in the file, as well as the weight, the
+     * denominator limit and the leakage metrics of this distribution. (The
+     * support limit, if any, is not saved.) It is first written to a
+     * temporary file, with the name of file followed by ".tmp", which then
+     * replaces file: so if writing fails (or the process dies) part way
+     * through, file still holds the previous checkpoint.
      * 
-     * Assume, for example that this knowledge distribution is currently:<br>
-     * <br>
+     * @param file
+     *            The file to which the checkpoint is written.
      * 
-     * {{true@1/2, false@1/2}@1/4, {true@4/5, false@1/5}@3/4}<br>
+     * @throws IOException
+     *             If the checkpoint cannot be written.
+     * @throws NullPointerException
+     *             If file is null.
+     */
+    public void checkpoint(File file) throws IOException {
+	Checkpoint.write(file, dist, total, maxDenominator);
+    }
+
+    /**
+     * Restores a distribution from a checkpoint written to file by
+     * {@link #checkpoint(File)}. <br>
      * <br>
      * 
-     * Following an interaction with an informant using the conditional two-coin
-     * channel <i>if true@1/2 then (3/4, 1/4)</i>, then the updated
-     * KnowledgeDistribution will be:<br>
+     * The file is memory-mapped rather than read: restoring only reads the
+     * beginning and end of the file, and knowledge-states are decoded (and
+     * the pages of the file holding them read) only when they are looked up
+     * or iterated over, so restoring a checkpoint takes time that barely
+     * depends on its size. The restored distribution never modifies the file:
+     * its modifications are held in memory, alongside the checkpoint, and so
+     * its memory use grows with the number of knowledge-states modified since
+     * the checkpoint. It uses {@link Storage#TREE} storage for these
+     * modifications, and distributions copied from it share the mapped
+     * checkpoint. <br>
      * <br>
      * 
-     * {{true@1/4, false@3/4}@1/8, {true@3/4, false@1/4}@1/8, {true@4/5,
-     * false@1/5}@3/4}
+     * Since the knowledge-states are not read, they are not checked either.
+     * If the file has been corrupted, operations that decode the corrupted
+     * knowledge-states throw an UncheckedIOException. Call
+     * {@link #checkInv()} to check the whole distribution, at the cost of
+     * reading the whole file.
      * 
-     * @param c
-     *            The conditional two-coin channel that will be used to update
-     *            this KnowledgeDistribution
+     * @param file
+     *            The file from which the distribution is restored.
+     * @return The restored distribution.
      * 
+     * @throws IOException
+     *             If the file cannot be mapped, or does not begin and end like
+     *             a checkpoint.
      * @throws NullPointerException
-     *             If c is null.
-     */
-    public void update(ConditionalTwoCoinChannel c) {
-	// the knowledge-state that this update is conditional on
-	BigFraction aPriori = c.getCondition();
-	// the probability that the spy is in knowledge-state aPriori
-	BigFraction p = weight(aPriori);
-	if (p.equals(BigFraction.ZERO)) {
-	    // this revelation won't affect the knowledge distribution
-	    return;
-	} else {
-	    // split knowledge-state using revelation
-	    this.subtract(aPriori, p);
-	    BigFraction heads = c.outcomeProbability(true); // prob. heads
-	    BigFraction tails = c.outcomeProbability(false); // prob. tails
-	    if (!heads.equals(BigFraction.ZERO)) {
-		this.add(c.aPosteriori(true), p.multiply(heads));
+     *             If file is null.
+     */
+    public static KnowledgeDistribution restore(File file) throws IOException {
+	Checkpoint checkpoint = Checkpoint.read(file);
+	KnowledgeDistribution k = new KnowledgeDistribution();
+	k.dist = checkpoint.store();
+	k.total = checkpoint.weight();
+	k.maxDenominator = checkpoint.denominatorLimit();
+	return k;
+    }
+
+    /**
+     * Adds the likelihood of each knowledge-state in KnowledgeDistribution k
+     * to its likelihood in this, as if by calling add(s, k.weight(s)) for
+     * every knowledge-state s in the support of k, but in a single pass over
+     * the (sorted) supports of this and k. Parameter k is unmodified by the
+     * operation (unless it is this).
+     * 
+     * @param k
+     *            The KnowledgeDistribution to be added to this one.
+     * 
+     * @throws NullPointerException
+     *             If k is null.
+     * @throws InvalidKnowledgeDistributionException
+     *             If, as a result of this operation, the weight of the
+     *             KnowledgeDistribution would exceed the value one.
+     */
+    public void plus(KnowledgeDistribution k) {
+	if (k == null) {
+	    throw new NullPointerException("Parameter cannot be null.");
+	}
+	BigFraction t = total.add(k.total); // the new weight of this
+	if (!t.isAProbability()) {
+	    throw new InvalidKnowledgeDistributionException(
+		    "Distribution weight cannot exceed one.");
+	}
+	dist = combine(k, BigFraction.ONE, BigFraction.ONE);
+	total = t;
+    }
+
+    /**
+     * Subtracts the likelihood of each knowledge-state in
+     * KnowledgeDistribution k from its likelihood in this, as if by calling
+     * subtract(s, k.weight(s)) for every knowledge-state s in the support of
+     * k, but in a single pass over the (sorted) supports of this and k.
+     * Parameter k is unmodified by the operation (unless it is this). If an
+     * exception is thrown, this is unmodified too.
+     * 
+     * @param k
+     *            The KnowledgeDistribution to be subtracted from this one.
+     * 
+     * @throws NullPointerException
+     *             If k is null.
+     * @throws InvalidKnowledgeDistributionException
+     *             If, as a result of this operation, the likelihood of some
+     *             knowledge-state would fall below zero.
+     */
+    public void minus(KnowledgeDistribution k) {
+	if (k == null) {
+	    throw new NullPointerException("Parameter cannot be null.");
+	}
+	dist = combine(k, BigFraction.ONE, MINUS_ONE);
+	total = total.subtract(k.total);
+    }
+
+    /**
+     * Replaces this by the mixture of this and KnowledgeDistribution k in
+     * which k has probability lambda: the likelihood of each
+     * knowledge-state s becomes (1 - lambda) * this.weight(s) + lambda *
+     * k.weight(s). This is computed in a single pass over the (sorted)
+     * supports of this and k, and its weight cannot exceed one. Parameter k
+     * is unmodified by the operation (unless it is this).
+     * 
+     * @param k
+     *            The KnowledgeDistribution to be mixed into this one.
+     * @param lambda
+     *            The probability of k in the mixture.
+     * 
+     * @throws NullPointerException
+     *             If k or lambda is null.
+     * @throws InvalidProbabilityException
+     *             If lambda is not a probability.
+     */
+    public void mix(KnowledgeDistribution k, BigFraction lambda) {
+	if (k == null || lambda == null) {
+	    throw new NullPointerException("Parameters cannot be null.");
+	}
+	if (!lambda.isAProbability()) {
+	    throw new InvalidProbabilityException(
+		    "Parameter lambda must be a probability.");
+	}
+	BigFraction mu = lambda.complement(); // the probability of this
+	dist = combine(k, mu, lambda);
+	total = mu.multiply(total).add(lambda.multiply(k.total));
+    }
+
+    /**
+     * Returns a new store, of the same kind as dist, in which the likelihood
+     * of each knowledge-state s is a * this.weight(s) + b * k.weight(s),
+     * walking the supports of this and k together in ascending order of
+     * knowledge-state.
+     * 
+     * @throws InvalidKnowledgeDistributionException
+     *             If the likelihood of some knowledge-state would be
+     *             negative.
+     */
+    private StateStore combine(KnowledgeDistribution k, BigFraction a,
+	    BigFraction b) {
+	StateStore result = dist.storage().newStore();
+	Iterator<Map.Entry<BigFraction, BigFraction>> i = dist.iterator();
+	Iterator<Map.Entry<BigFraction, BigFraction>> j = k.dist.iterator();
+	// the next pairs of this and k, or null once they are exhausted
+	Map.Entry<BigFraction, BigFraction> x = (i.hasNext() ? i.next()
+		: null);
+	Map.Entry<BigFraction, BigFraction> y = (j.hasNext() ? j.next()
+		: null);
+	while (x != null || y != null) {
+	    // compare the next knowledge-states of this and k
+	    int c = (x == null ? 1 : y == null ? -1 : x.getKey().compareTo(
+		    y.getKey()));
+	    BigFraction s = (c <= 0 ? x.getKey() : y.getKey());
+	    BigFraction w = BigFraction.ZERO; // the new likelihood of s
+	    if (c <= 0) {
+		w = w.add(a.multiply(x.getValue()));
+		x = (i.hasNext() ? i.next() : null);
 	    }
-	    if (!tails.equals(BigFraction.ZERO)) {
-		this.add(c.aPosteriori(false), p.multiply(tails));
+	    if (c >= 0) {
+		w = w.add(b.multiply(y.getValue()));
+		y = (j.hasNext() ? j.next() : null);
+	    }
+	    int sign = w.compareTo(BigFraction.ZERO);
+	    if (sign < 0) {
+		throw new InvalidKnowledgeDistributionException(
+			"Distribution weight cannot be negative.");
+	    } else if (sign > 0) {
+		result.put(s, w);
 	    }
 	}
+	return result;
     }
 
     /**
      * This operation updates this KnowledgeDistribution to reflect the change
      * of knowledge that would result from interactions with each informant in
-     * the list informants, in the order in which they appear in that list.
+     * the list informants, in the order in which they appear in that list.<br>
+     * <br>
+     * 
+     * The result is exactly the same as calling
+     * {@link #update(ConditionalTwoCoinChannel)} for each informant in turn,
+     * but (unless there is a support limit) the informants are applied as a
+     * batch: only the informants whose conditions hold some probability when
+     * they are met are visited, and this distribution is only modified once,
+     * at the end.
      * 
      * @param informants
      *            The list of conditional two-coin channels that will be used to
@@ -488,13 +1306,84 @@ public class KnowledgeDistribution implements Iterable<BigFraction> {
      * @throws NullPointerException
      *             If informants is null or contains null TwoCoinChannels.
      */
+    @Override
     public void update(List<ConditionalTwoCoinChannel> informants) {
+	if (maxSupportSize > 0) {
+	    // the support must be limited after each informant
+	    super.update(informants);
+	    return;
+	}
 	if (informants == null || informants.contains(null)) {
 	    throw new NullPointerException(
 		    "Parameter cannot be null or contain null elements");
 	}
-	for (ConditionalTwoCoinChannel ch : informants) {
-	    update(ch);
+	new BatchUpdate(dist, maxDenominator, informants).apply();
+    }
+
+    /**
+     * This operation updates this KnowledgeDistribution to reflect the change
+     * of knowledge that would result from interactions with each informant in
+     * the list informants, in the order in which they appear in that list,
+     * using the threads of pool.<br>
+     * <br>
+     * 
+     * The result is exactly the same as that of
+     * {@link #update(List)}. The probability in each knowledge-state of this
+     * distribution is split by the informants independently of the
+     * probability in the other knowledge-states, so the knowledge-states
+     * whose probability will be split are partitioned between fork-join tasks
+     * that each apply the informants to their own part, and the results of
+     * the tasks are then added together. (Only the number of
+     * knowledge-states that this distribution has when the update starts
+     * limits the number of tasks, so a distribution with a very small support
+     * gains nothing from being updated in parallel.)
+     * 
+     * @param informants
+     *            The list of conditional two-coin channels that will be used to
+     *            update this KnowledgeDistribution
+     * @param pool
+     *            The pool in which the update will be carried out
+     * 
+     * @throws NullPointerException
+     *             If informants is null or contains null TwoCoinChannels, or
+     *             if pool is null.
+     */
+    public void update(List<ConditionalTwoCoinChannel> informants,
+	    ForkJoinPool pool) {
+	if (informants == null || informants.contains(null) || pool == null) {
+	    throw new NullPointerException(
+		    "Parameters cannot be null or contain null elements");
+	}
+	if (maxSupportSize > 0) {
+	    // the support must be limited after each informant
+	    update(informants);
+	    return;
+	}
+	Map<BigFraction, int[]> byCondition = BatchUpdate.index(informants);
+	// the knowledge-states whose probability may be split
+	List<Map.Entry<BigFraction, BigFraction>> entries =
+		new ArrayList<Map.Entry<BigFraction, BigFraction>>();
+	for (Map.Entry<BigFraction, BigFraction> e : dist) {
+	    if (byCondition.containsKey(e.getKey())) {
+		// (a copy, since the store may reuse its entries)
+		entries.add(new AbstractMap.SimpleImmutableEntry<BigFraction,
+			BigFraction>(e));
+	    }
+	}
+	if (entries.isEmpty()) {
+	    return;
+	}
+	int grain = Math.max(1, entries.size() / (4 * pool.getParallelism()));
+	StateStore updated = pool.invoke(new ParallelUpdate(maxDenominator,
+		informants, byCondition, entries, grain));
+	// all of the probability of entries is now in updated
+	for (Map.Entry<BigFraction, BigFraction> e : entries) {
+	    dist.remove(e.getKey());
+	}
+	for (Map.Entry<BigFraction, BigFraction> e : updated) {
+	    BigFraction w = dist.get(e.getKey()); // probability, if not moved
+	    dist.put(e.getKey(), (w == null ? e.getValue() : w.add(e
+		    .getValue())));
 	}
     }
 
@@ -506,29 +1395,50 @@ public class KnowledgeDistribution implements Iterable<BigFraction> {
      *         false otherwise
      */
     public boolean checkInv() {
-	// check for null values
-	if (dist == null || dist.values().contains(null)) {
+	if (dist == null) {
 	    return false;
 	}
-	// check that each of the knowledge-states are probabilities
-	for (BigFraction w : dist.keySet()) {
-	    if (!w.isAProbability()) {
+	// calculated weight
+	FractionAccumulator weight = new FractionAccumulator();
+	BigFraction previous = null; // the previous knowledge-state
+	int size = 0; // the number of knowledge-states
+	long fingerprint = 0; // calculated fingerprint of dist
+	for (Map.Entry<BigFraction, BigFraction> e : dist) {
+	    BigFraction s = e.getKey(), w = e.getValue();
+	    // check for null values
+	    if (s == null || w == null) {
 		return false;
 	    }
-	}
-	// check that weights for each knowledge-state are non-zero
-	// probabilities
-	for (BigFraction w : dist.values()) {
+	    // check that each of the knowledge-states are probabilities, in
+	    // ascending order
+	    if (!s.isAProbability()
+		    || (previous != null && previous.compareTo(s) >= 0)) {
+		return false;
+	    }
+	    // check that weights for each knowledge-state are non-zero
+	    // probabilities
 	    if (!w.isAProbability() || w.equals(BigFraction.ZERO)) {
 		return false;
 	    }
+	    weight.add(w);
+	    fingerprint += StoreSummary.fingerprint(s, w);
+	    previous = s;
+	    size++;
+	}
+	if (size != dist.size()
+		|| fingerprint != dist.summary().fingerprint()) {
+	    return false;
 	}
 	// check that the sum of the values in dist is a probability
-	BigFraction weight = BigFraction.ZERO; // calculated weight
-	for (BigFraction w : dist.values()) {
-	    weight = weight.add(w);
+	if (!weight.toBigFraction().isAProbability()) {
+	    return false;
+	}
+	// check that the cached weight is the sum of the values in dist
+	if (total == null || !total.equals(weight.toBigFraction())) {
+	    return false;
 	}
-	if (!weight.isAProbability()) {
+	// check that the denominator limit, if any, is positive
+	if (maxDenominator != null && maxDenominator.signum() <= 0) {
 	    return false;
 	}
 	// everything is OK
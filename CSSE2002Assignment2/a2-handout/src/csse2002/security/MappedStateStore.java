@@ -0,0 +1,351 @@
+package csse2002.security;
+
+import java.io.*;
+import java.nio.*;
+import java.util.*;
+import java.util.function.BiConsumer;
+
+import csse2002.math.*;
+
+/**
+ * <p>
+ * A StateStore restored from a checkpoint (see {@link Checkpoint}), whose
+ * knowledge-states are read, as they are needed, from a memory-mapped file.
+ * </p>
+ *
+ * <p>
+ * The knowledge-states of the checkpoint are never modified. Instead, the
+ * modifications of this store are kept in an overlay: a TreeMap of the
+ * knowledge-states that have been put since the checkpoint, in which the
+ * checkpointed knowledge-states that have been removed have probability
+ * zero. Lookups check the overlay, and then binary search the index of the
+ * checkpoint, decoding O(log n) knowledge-states; iteration merges the
+ * overlay with the checkpoint. Only the pages of the file that hold the
+ * knowledge-states looked up are ever read, and the memory used grows with
+ * the number of knowledge-states modified rather than with the size of the
+ * checkpoint. A copy shares the mapped checkpoint, and copies the overlay.
+ * </p>
+ *
+ * <p>
+ * The modifications are kept in a tree, so this store reports
+ * {@link KnowledgeDistribution.Storage#TREE} storage, and stores built from
+ * it (such as those of merged or combined distributions) are TreeStateStores.
+ * The checkpointed knowledge-states are only checked as they are decoded: if
+ * the file turns out to be corrupt, the methods of this store throw an
+ * UncheckedIOException.
+ * </p>
+ */
+class MappedStateStore implements StateStore {
+
+    // the data offset of each checkpointed knowledge-state
+    private final LongBuffer index;
+    // the data of the checkpoint, in chunks of Checkpoint.CHUNK_STATES
+    // knowledge-states
+    private final ByteBuffer[] data;
+    // the data offset of the start of each chunk
+    private final long[] offsets;
+    // the number of checkpointed knowledge-states
+    private final int count;
+    // the knowledge-states put since the checkpoint, and the checkpointed
+    // knowledge-states removed since then (with probability zero)
+    private final TreeMap<BigFraction, BigFraction> overlay;
+    // the number of knowledge-states in this store
+    private int size;
+    // the summary of the (knowledge-state, probability) pairs of this store
+    private final StoreSummary summary;
+
+    /*
+     * invariant: the checkpointed knowledge-states are in ascending order &&
+     *
+     * every knowledge-state in overlay with probability zero is checkpointed
+     * &&
+     *
+     * size is the number of checkpointed knowledge-states not in overlay,
+     * plus the number of knowledge-states in overlay with non-zero
+     * probability
+     */
+
+    /**
+     * Creates a new store of the count checkpointed knowledge-states with the
+     * given index and data, whose pairs have the given summary.
+     */
+    MappedStateStore(LongBuffer index, ByteBuffer[] data, long[] offsets,
+	    int count, StoreSummary summary) {
+	this.index = index;
+	this.data = data;
+	this.offsets = offsets;
+	this.count = count;
+	this.summary = summary;
+	overlay = new TreeMap<BigFraction, BigFraction>();
+	size = count;
+    }
+
+    /**
+     * Creates a new store with the same contents as store.
+     */
+    private MappedStateStore(MappedStateStore store) {
+	index = store.index;
+	data = store.data;
+	offsets = store.offsets;
+	count = store.count;
+	overlay = new TreeMap<BigFraction, BigFraction>(store.overlay);
+	size = store.size;
+	summary = new StoreSummary(store.summary);
+    }
+
+    @Override
+    public BigFraction get(BigFraction s) {
+	BigFraction w = overlay.get(s); // probability, if modified
+	if (w != null) {
+	    return (w.equals(BigFraction.ZERO) ? null : w);
+	}
+	int i = lowerBound(s); // index of s, if checkpointed
+	if (i < count) {
+	    Map.Entry<BigFraction, BigFraction> e = entry(i);
+	    if (e.getKey().equals(s)) {
+		return e.getValue();
+	    }
+	}
+	return null;
+    }
+
+    @Override
+    public void put(BigFraction s, BigFraction w) {
+	BigFraction old = get(s); // previous probability, if any
+	if (old != null) {
+	    summary.remove(s, old);
+	} else {
+	    size++;
+	}
+	summary.add(s, w);
+	overlay.put(s, w);
+    }
+
+    @Override
+    public void remove(BigFraction s) {
+	BigFraction old = get(s); // previous probability, if any
+	if (old == null) {
+	    return;
+	}
+	summary.remove(s, old);
+	size--;
+	int i = lowerBound(s); // index of s, if checkpointed
+	if (i < count && key(i).equals(s)) {
+	    overlay.put(s, BigFraction.ZERO);
+	} else {
+	    overlay.remove(s);
+	}
+    }
+
+    @Override
+    public int size() {
+	return size;
+    }
+
+    @Override
+    public BigFraction lastKey() {
+	// the largest knowledge-state put since the checkpoint
+	Map.Entry<BigFraction, BigFraction> e = overlay.lastEntry();
+	while (e != null && e.getValue().equals(BigFraction.ZERO)) {
+	    e = overlay.lowerEntry(e.getKey());
+	}
+	// the largest checkpointed knowledge-state not modified since
+	int i = count - 1;
+	while (i >= 0 && overlay.containsKey(key(i))) {
+	    i--;
+	}
+	if (i < 0) {
+	    return (e == null ? null : e.getKey());
+	}
+	BigFraction s = key(i);
+	return (e == null || s.compareTo(e.getKey()) > 0 ? s : e.getKey());
+    }
+
+    @Override
+    public StoreSummary summary() {
+	return summary;
+    }
+
+    @Override
+    public Iterator<Map.Entry<BigFraction, BigFraction>> iterator() {
+	return new MergeIterator(0, overlay.entrySet().iterator());
+    }
+
+    @Override
+    public Iterator<Map.Entry<BigFraction, BigFraction>> iterator(
+	    BigFraction from) {
+	return new MergeIterator(lowerBound(from), overlay.tailMap(from, true)
+		.entrySet().iterator());
+    }
+
+    @Override
+    public void forEach(BiConsumer<BigFraction, BigFraction> action) {
+	for (Map.Entry<BigFraction, BigFraction> e : this) {
+	    action.accept(e.getKey(), e.getValue());
+	}
+    }
+
+    @Override
+    public StateStore copy() {
+	return new MappedStateStore(this);
+    }
+
+    @Override
+    public KnowledgeDistribution.Storage storage() {
+	return KnowledgeDistribution.Storage.TREE;
+    }
+
+    /**
+     * Returns the index of the smallest checkpointed knowledge-state that is
+     * greater than or equal to s, or count if there is none.
+     */
+    private int lowerBound(BigFraction s) {
+	int lo = 0, hi = count; // the index is in [lo, hi]
+	while (lo < hi) {
+	    int mid = (lo + hi) >>> 1;
+	    if (key(mid).compareTo(s) < 0) {
+		lo = mid + 1;
+	    } else {
+		hi = mid;
+	    }
+	}
+	return lo;
+    }
+
+    /**
+     * Returns the i'th checkpointed knowledge-state.
+     */
+    private BigFraction key(int i) {
+	try {
+	    return FractionCodec.read(buffer(i));
+	} catch (IOException e) {
+	    throw new UncheckedIOException("Corrupt checkpoint.", e);
+	}
+    }
+
+    /**
+     * Returns the i'th checkpointed (knowledge-state, probability) pair.
+     */
+    private Map.Entry<BigFraction, BigFraction> entry(int i) {
+	try {
+	    ByteBuffer buffer = buffer(i);
+	    BigFraction s = FractionCodec.read(buffer);
+	    return new AbstractMap.SimpleImmutableEntry<BigFraction, BigFraction>(
+		    s, FractionCodec.read(buffer));
+	} catch (IOException e) {
+	    throw new UncheckedIOException("Corrupt checkpoint.", e);
+	}
+    }
+
+    /**
+     * Returns a buffer positioned at the i'th checkpointed pair. (Each call
+     * returns a new view of the mapped data, so that the store can be read by
+     * several threads at once.)
+     */
+    private ByteBuffer buffer(int i) throws IOException {
+	int k = i / Checkpoint.CHUNK_STATES; // the chunk of the pair
+	ByteBuffer buffer = data[k].duplicate();
+	long position = index.get(i) - offsets[k];
+	if (position < 0 || position >= buffer.limit()) {
+	    throw new IOException("Invalid offset of knowledge-state " + i);
+	}
+	buffer.position((int) position);
+	return buffer;
+    }
+
+    /**
+     * An iterator over the pairs of this store, from the checkpointed pair
+     * with a given index, that merges the checkpointed pairs with the pairs
+     * of (part of) the overlay.
+     */
+    private class MergeIterator implements
+	    Iterator<Map.Entry<BigFraction, BigFraction>> {
+
+	// the index of the checkpointed pair after base
+	private int i;
+	// the next checkpointed pair, or null if there are no more
+	private Map.Entry<BigFraction, BigFraction> base;
+	// the remaining pairs of the overlay
+	private final Iterator<Map.Entry<BigFraction, BigFraction>> modified;
+	// the next pair of the overlay, or null if there are no more
+	private Map.Entry<BigFraction, BigFraction> change;
+	// the next pair returned, or null if there are no more
+	private Map.Entry<BigFraction, BigFraction> next;
+
+	MergeIterator(int i,
+		Iterator<Map.Entry<BigFraction, BigFraction>> modified) {
+	    this.i = i;
+	    this.modified = modified;
+	    nextBase();
+	    nextChange();
+	    advance();
+	}
+
+	@Override
+	public boolean hasNext() {
+	    return next != null;
+	}
+
+	@Override
+	public Map.Entry<BigFraction, BigFraction> next() {
+	    if (next == null) {
+		throw new NoSuchElementException();
+	    }
+	    Map.Entry<BigFraction, BigFraction> e = next;
+	    advance();
+	    return e;
+	}
+
+	@Override
+	public void remove() {
+	    throw new UnsupportedOperationException();
+	}
+
+	/**
+	 * Sets next to the next pair of the store, skipping the checkpointed
+	 * pairs that have been modified.
+	 */
+	private void advance() {
+	    while (base != null || change != null) {
+		int c = (base == null ? 1 : change == null ? -1 : base.getKey()
+			.compareTo(change.getKey()));
+		if (c < 0) {
+		    next = base;
+		    nextBase();
+		    return;
+		}
+		Map.Entry<BigFraction, BigFraction> e = change;
+		if (c == 0) {
+		    nextBase();
+		}
+		nextChange();
+		if (!e.getValue().equals(BigFraction.ZERO)) {
+		    next = e;
+		    return;
+		}
+	    }
+	    next = null;
+	}
+
+	/**
+	 * Moves base to the next checkpointed pair.
+	 */
+	private void nextBase() {
+	    base = (i < count ? entry(i++) : null);
+	}
+
+	/**
+	 * Moves change to the next pair of the overlay.
+	 */
+	private void nextChange() {
+	    if (modified.hasNext()) {
+		// (a copy, since the overlay's entries support setValue)
+		change = new AbstractMap.SimpleImmutableEntry<BigFraction,
+			BigFraction>(modified.next());
+	    } else {
+		change = null;
+	    }
+	}
+    }
+
+}
@@ -0,0 +1,118 @@
+package csse2002.security;
+
+import java.math.BigInteger;
+import java.util.*;
+import java.util.concurrent.*;
+
+import csse2002.math.*;
+
+/**
+ * <p>
+ * Applies a list of informants to some of the (knowledge-state, probability)
+ * pairs of a KnowledgeDistribution, as a fork-join task (see
+ * {@link KnowledgeDistribution#update(List, ForkJoinPool)}).
+ * </p>
+ * 
+ * <p>
+ * An update is linear in the probabilities of the distribution: the
+ * probability that ends up in each knowledge-state is the sum, over the
+ * knowledge-states that the distribution started with, of the probability
+ * that flows there from each of them. So the pairs are split into ranges,
+ * each range is updated separately by a {@link BatchUpdate} of its own store,
+ * and the resulting stores are merged by adding the probabilities of equal
+ * knowledge-states. (Rounding to a denominator limit is applied to
+ * knowledge-states, never to probabilities, so it does not affect this.) The
+ * result is exactly the same as a sequential update.
+ * </p>
+ */
+class ParallelUpdate extends RecursiveTask<StateStore> {
+
+    private static final long serialVersionUID = 1L;
+
+    // the largest denominator allowed in updated knowledge-states, or null
+    private final BigInteger maxDenominator;
+    // the informants being applied
+    private final List<ConditionalTwoCoinChannel> informants;
+    // the (ascending) indices of the informants with each condition
+    private final Map<BigFraction, int[]> byCondition;
+    // the (knowledge-state, probability) pairs being updated
+    private final List<Map.Entry<BigFraction, BigFraction>> entries;
+    // the range [from, to) of entries updated by this task
+    private final int from, to;
+    // the largest number of entries updated by a task without splitting it
+    private final int grain;
+
+    /**
+     * Creates a new task that updates entries by informants, where
+     * maxDenominator is the denominator limit of the distribution (or null if
+     * it has none), and byCondition is BatchUpdate.index(informants). Ranges
+     * of at most grain entries are updated without being split further.
+     */
+    ParallelUpdate(BigInteger maxDenominator,
+	    List<ConditionalTwoCoinChannel> informants,
+	    Map<BigFraction, int[]> byCondition,
+	    List<Map.Entry<BigFraction, BigFraction>> entries, int grain) {
+	this(maxDenominator, informants, byCondition, entries, 0, entries
+		.size(), grain);
+    }
+
+    /**
+     * Creates a new task that updates the range [from, to) of entries.
+     */
+    private ParallelUpdate(BigInteger maxDenominator,
+	    List<ConditionalTwoCoinChannel> informants,
+	    Map<BigFraction, int[]> byCondition,
+	    List<Map.Entry<BigFraction, BigFraction>> entries, int from,
+	    int to, int grain) {
+	this.maxDenominator = maxDenominator;
+	this.informants = informants;
+	this.byCondition = byCondition;
+	this.entries = entries;
+	this.from = from;
+	this.to = to;
+	this.grain = grain;
+    }
+
+    /**
+     * Returns a new store holding the updated probabilities of the range of
+     * entries of this task.
+     */
+    @Override
+    protected StateStore compute() {
+	if (to - from <= grain) {
+	    StateStore store = new TreeStateStore();
+	    for (int i = from; i < to; i++) {
+		store.put(entries.get(i).getKey(), entries.get(i).getValue());
+	    }
+	    new BatchUpdate(store, maxDenominator, informants, byCondition)
+		    .apply();
+	    return store;
+	}
+	int mid = (from + to) >>> 1;
+	ParallelUpdate left = new ParallelUpdate(maxDenominator, informants,
+		byCondition, entries, from, mid, grain);
+	ParallelUpdate right = new ParallelUpdate(maxDenominator, informants,
+		byCondition, entries, mid, to, grain);
+	left.fork();
+	return merge(right.compute(), left.join());
+    }
+
+    /**
+     * Adds the probabilities in the smaller of a and b to those of the
+     * larger, and returns the larger.
+     */
+    private static StateStore merge(StateStore a, StateStore b) {
+	if (a.size() < b.size()) {
+	    StateStore t = a;
+	    a = b;
+	    b = t;
+	}
+	for (Map.Entry<BigFraction, BigFraction> e : b) {
+	    BigFraction w = a.get(e.getKey()); // probability in a, if any
+	    a.put(e.getKey(), (w == null ? e.getValue() : w.add(e
+		    .getValue())));
+	}
+	return a;
+    }
+
+}
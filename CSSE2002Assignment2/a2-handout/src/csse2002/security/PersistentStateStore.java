@@ -0,0 +1,478 @@
+package csse2002.security;
+
+import java.util.*;
+import java.util.function.BiConsumer;
+
+import csse2002.math.*;
+
+/**
+ * <p>
+ * A StateStore that keeps its knowledge-states in a persistent AVL tree (see
+ * {@link KnowledgeDistribution.Storage#PERSISTENT}): the nodes of the tree
+ * are immutable, and each insertion or removal creates new copies of the
+ * O(log n) nodes on the path from the root to the knowledge-state modified,
+ * sharing all of the other nodes with the tree before the modification.
+ * </p>
+ * 
+ * <p>
+ * A copy of a store therefore only copies a reference to its root, and takes
+ * constant time and memory; the store and its copy go on to share every node
+ * that neither of them modifies. (Since nodes are never modified, a copy can
+ * also be read by one thread while the original is modified by another.)
+ * </p>
+ * 
+ * <p>
+ * Each node also caches the sum of the probabilities, and the sum of the
+ * products of knowledge-states and probabilities, in its subtree. They are
+ * calculated when they are first needed and never change, and a modification
+ * only creates O(log n) new nodes, so after a modification only the sums of
+ * the new nodes need to be calculated. Cumulative probabilities (and so
+ * quantiles) and the mean knowledge-state can therefore be found in
+ * logarithmic time.
+ * </p>
+ */
+class PersistentStateStore implements StateStore {
+
+    /**
+     * An immutable node of a tree, which is also the (knowledge-state,
+     * probability) pair that it holds.
+     */
+    private static final class Node implements
+	    Map.Entry<BigFraction, BigFraction> {
+
+	// the knowledge-state of this node, and its probability
+	private final BigFraction key, value;
+	// the subtrees of knowledge-states less than, and greater than, key
+	private final Node left, right;
+	// the number of nodes on the longest path from this node to a leaf
+	private final int height;
+	// the sums of value and of key * value over the subtree of this node,
+	// or null until they are first needed (since the subtree never
+	// changes, they never need to be recalculated; they are volatile so
+	// that nodes shared between threads publish them safely)
+	private volatile BigFraction sum, moment;
+
+	/**
+	 * Creates a new node with the given pair and subtrees, whose heights
+	 * differ by at most one.
+	 */
+	Node(BigFraction key, BigFraction value, Node left, Node right) {
+	    this.key = key;
+	    this.value = value;
+	    this.left = left;
+	    this.right = right;
+	    height = 1 + Math.max(height(left), height(right));
+	}
+
+	/**
+	 * Returns the sum of the probabilities in the subtree of this node.
+	 */
+	BigFraction sum() {
+	    if (sum == null) {
+		sum = PersistentStateStore.sum(left).add(value).add(
+			PersistentStateStore.sum(right));
+	    }
+	    return sum;
+	}
+
+	/**
+	 * Returns the sum of key * value over the subtree of this node.
+	 */
+	BigFraction moment() {
+	    if (moment == null) {
+		moment = PersistentStateStore.moment(left).add(
+			key.multiply(value)).add(
+			PersistentStateStore.moment(right));
+	    }
+	    return moment;
+	}
+
+	@Override
+	public BigFraction getKey() {
+	    return key;
+	}
+
+	@Override
+	public BigFraction getValue() {
+	    return value;
+	}
+
+	@Override
+	public BigFraction setValue(BigFraction value) {
+	    throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public boolean equals(Object o) {
+	    if (!(o instanceof Map.Entry)) {
+		return false;
+	    }
+	    Map.Entry<?, ?> e = (Map.Entry<?, ?>) o;
+	    return key.equals(e.getKey()) && value.equals(e.getValue());
+	}
+
+	@Override
+	public int hashCode() {
+	    return key.hashCode() ^ value.hashCode();
+	}
+
+	@Override
+	public String toString() {
+	    return key + "=" + value;
+	}
+    }
+
+    // the root of the tree, or null if this store is empty
+    private Node root;
+    // the number of nodes in the tree
+    private int size;
+    // the summary of the pairs in the tree
+    private final StoreSummary summary;
+    // the probability replaced or removed by the last call of insert or
+    // delete, or null if there was none
+    private BigFraction old;
+
+    /*
+     * invariant: the keys of the tree are in ascending (in-order) order &&
+     * 
+     * the heights of the subtrees of each node differ by at most one &&
+     * 
+     * size is the number of nodes in the tree
+     */
+
+    /**
+     * Creates a new empty store.
+     */
+    PersistentStateStore() {
+	summary = new StoreSummary();
+    }
+
+    /**
+     * Creates a new store with the same contents as store, sharing its tree.
+     */
+    private PersistentStateStore(PersistentStateStore store) {
+	root = store.root;
+	size = store.size;
+	summary = new StoreSummary(store.summary);
+    }
+
+    @Override
+    public BigFraction get(BigFraction s) {
+	Node n = root;
+	while (n != null) {
+	    int c = s.compareTo(n.key);
+	    if (c == 0) {
+		return n.value;
+	    }
+	    n = (c < 0 ? n.left : n.right);
+	}
+	return null;
+    }
+
+    @Override
+    public void put(BigFraction s, BigFraction w) {
+	old = null;
+	root = insert(root, s, w);
+	if (old == null) {
+	    size++;
+	} else {
+	    summary.remove(s, old);
+	}
+	summary.add(s, w);
+    }
+
+    @Override
+    public void remove(BigFraction s) {
+	old = null;
+	root = delete(root, s);
+	if (old != null) {
+	    size--;
+	    summary.remove(s, old);
+	}
+    }
+
+    @Override
+    public int size() {
+	return size;
+    }
+
+    @Override
+    public BigFraction lastKey() {
+	if (root == null) {
+	    return null;
+	}
+	Node n = root;
+	while (n.right != null) {
+	    n = n.right;
+	}
+	return n.key;
+    }
+
+    @Override
+    public StoreSummary summary() {
+	return summary;
+    }
+
+    /**
+     * Returns the sum of the probabilities of the knowledge-states less than
+     * s (or less than or equal to s, if inclusive), in logarithmic time once
+     * the sums of the subtrees on the path to s are known.
+     */
+    @Override
+    public BigFraction weightBelow(BigFraction s, boolean inclusive) {
+	BigFraction weight = BigFraction.ZERO;
+	Node n = root;
+	while (n != null) {
+	    int c = n.key.compareTo(s);
+	    if (c < 0 || (c == 0 && inclusive)) {
+		// n and its left subtree are all below s
+		weight = weight.add(sum(n.left)).add(n.value);
+		n = n.right;
+	    } else {
+		n = n.left;
+	    }
+	}
+	return weight;
+    }
+
+    /**
+     * Returns the smallest knowledge-state whose cumulative probability is at
+     * least w, in logarithmic time once the sums of the subtrees on the path
+     * to it are known.
+     */
+    @Override
+    public BigFraction quantile(BigFraction w) {
+	Node n = root;
+	while (n != null) {
+	    BigFraction left = sum(n.left); // probability before n.key
+	    if (n.left != null && w.compareTo(left) <= 0) {
+		n = n.left;
+	    } else {
+		BigFraction upTo = left.add(n.value); // probability up to n.key
+		if (w.compareTo(upTo) <= 0) {
+		    return n.key;
+		}
+		w = w.subtract(upTo);
+		n = n.right;
+	    }
+	}
+	return null;
+    }
+
+    /**
+     * Returns the sum of s * w over the pairs (s, w) in this store, in
+     * constant time once the moments of the subtrees modified since the last
+     * call are known.
+     */
+    @Override
+    public BigFraction moment() {
+	return moment(root);
+    }
+
+    @Override
+    public Iterator<Map.Entry<BigFraction, BigFraction>> iterator() {
+	return new TreeIterator(null);
+    }
+
+    @Override
+    public Iterator<Map.Entry<BigFraction, BigFraction>> iterator(
+	    BigFraction from) {
+	return new TreeIterator(from);
+    }
+
+    @Override
+    public void forEach(BiConsumer<BigFraction, BigFraction> action) {
+	forEach(root, action);
+    }
+
+    /**
+     * Performs action on each pair in the subtree n, in ascending order.
+     */
+    private static void forEach(Node n,
+	    BiConsumer<BigFraction, BigFraction> action) {
+	while (n != null) {
+	    forEach(n.left, action);
+	    action.accept(n.key, n.value);
+	    n = n.right;
+	}
+    }
+
+    /**
+     * Returns a copy of this store, in constant time.
+     */
+    @Override
+    public StateStore copy() {
+	return new PersistentStateStore(this);
+    }
+
+    @Override
+    public KnowledgeDistribution.Storage storage() {
+	return KnowledgeDistribution.Storage.PERSISTENT;
+    }
+
+    /**
+     * Returns the sum of the probabilities in the subtree n.
+     */
+    private static BigFraction sum(Node n) {
+	return (n == null ? BigFraction.ZERO : n.sum());
+    }
+
+    /**
+     * Returns the sum of key * value over the subtree n.
+     */
+    private static BigFraction moment(Node n) {
+	return (n == null ? BigFraction.ZERO : n.moment());
+    }
+
+    /**
+     * Returns the height of the subtree n.
+     */
+    private static int height(Node n) {
+	return (n == null ? 0 : n.height);
+    }
+
+    /**
+     * Returns a balanced tree holding the pair (key, value) and the pairs of
+     * subtrees left and right, whose heights differ by at most two.
+     */
+    private static Node balance(BigFraction key, BigFraction value,
+	    Node left, Node right) {
+	if (height(left) > height(right) + 1) {
+	    if (height(left.left) >= height(left.right)) {
+		// single rotation to the right
+		return new Node(left.key, left.value, left.left, new Node(key,
+			value, left.right, right));
+	    }
+	    // double rotation: left.right becomes the root
+	    Node lr = left.right;
+	    return new Node(lr.key, lr.value, new Node(left.key, left.value,
+		    left.left, lr.left), new Node(key, value, lr.right, right));
+	}
+	if (height(right) > height(left) + 1) {
+	    if (height(right.right) >= height(right.left)) {
+		// single rotation to the left
+		return new Node(right.key, right.value, new Node(key, value,
+			left, right.left), right.right);
+	    }
+	    // double rotation: right.left becomes the root
+	    Node rl = right.left;
+	    return new Node(rl.key, rl.value, new Node(key, value, left,
+		    rl.left), new Node(right.key, right.value, rl.right,
+		    right.right));
+	}
+	return new Node(key, value, left, right);
+    }
+
+    /**
+     * Returns a copy of the subtree n in which s has probability w, setting
+     * old to the previous probability of s, if any.
+     */
+    private Node insert(Node n, BigFraction s, BigFraction w) {
+	if (n == null) {
+	    return new Node(s, w, null, null);
+	}
+	int c = s.compareTo(n.key);
+	if (c < 0) {
+	    return balance(n.key, n.value, insert(n.left, s, w), n.right);
+	} else if (c > 0) {
+	    return balance(n.key, n.value, n.left, insert(n.right, s, w));
+	}
+	old = n.value;
+	return new Node(s, w, n.left, n.right);
+    }
+
+    /**
+     * Returns a copy of the subtree n without s (or n itself, if s is not in
+     * it), setting old to the probability of s, if any.
+     */
+    private Node delete(Node n, BigFraction s) {
+	if (n == null) {
+	    return null;
+	}
+	int c = s.compareTo(n.key);
+	if (c < 0) {
+	    Node left = delete(n.left, s);
+	    return (left == n.left ? n : balance(n.key, n.value, left,
+		    n.right));
+	} else if (c > 0) {
+	    Node right = delete(n.right, s);
+	    return (right == n.right ? n : balance(n.key, n.value, n.left,
+		    right));
+	}
+	old = n.value;
+	if (n.left == null) {
+	    return n.right;
+	} else if (n.right == null) {
+	    return n.left;
+	}
+	// replace n by the smallest node of its right subtree
+	Node min = n.right;
+	while (min.left != null) {
+	    min = min.left;
+	}
+	return balance(min.key, min.value, n.left, deleteMin(n.right));
+    }
+
+    /**
+     * Returns a copy of the (non-empty) subtree n without its smallest node.
+     */
+    private static Node deleteMin(Node n) {
+	if (n.left == null) {
+	    return n.right;
+	}
+	return balance(n.key, n.value, deleteMin(n.left), n.right);
+    }
+
+    /**
+     * An in-order iterator over the nodes of the tree, which keeps the nodes
+     * whose left subtrees are being visited on a stack. (Since the nodes are
+     * immutable, it continues to iterate over the tree as it was when the
+     * iterator was created, even if this store is modified.)
+     */
+    private class TreeIterator implements
+	    Iterator<Map.Entry<BigFraction, BigFraction>> {
+
+	// the ancestors of the next node that are still to be visited,
+	// innermost first
+	private final Deque<Node> stack = new ArrayDeque<Node>();
+
+	/**
+	 * Creates an iterator over the nodes with knowledge-states greater than
+	 * or equal to from, or over all nodes if from is null.
+	 */
+	TreeIterator(BigFraction from) {
+	    Node n = root;
+	    while (n != null) {
+		if (from == null || from.compareTo(n.key) <= 0) {
+		    stack.push(n);
+		    n = n.left;
+		} else {
+		    n = n.right;
+		}
+	    }
+	}
+
+	@Override
+	public boolean hasNext() {
+	    return !stack.isEmpty();
+	}
+
+	@Override
+	public Map.Entry<BigFraction, BigFraction> next() {
+	    if (stack.isEmpty()) {
+		throw new NoSuchElementException();
+	    }
+	    Node next = stack.pop();
+	    for (Node n = next.right; n != null; n = n.left) {
+		stack.push(n);
+	    }
+	    return next;
+	}
+
+	@Override
+	public void remove() {
+	    throw new UnsupportedOperationException();
+	}
+    }
+
+}
@@ -34,25 +34,132 @@ public class SpyMaster {
 		// Initialize the scanner for reading the file
 		Scanner scanner = new Scanner(new BufferedReader(new FileReader(
 				fileName)));
-		// Initialize variables for the while loop
-		String line;
-		String[] channelStrings;
 		// Iterate over each line of the file
 		while (scanner.hasNextLine()) {
-			line = scanner.nextLine();
-			// Split the line by whitespace characters
-			channelStrings = line.split("\\s+");
-			// Check the line is made up of 3 parts
-			if (channelStrings.length != 3) {
-				throw new FileFormatException("Incorrect file formatting");
-			}
-			// Use the stringsToChannels method to get the
+			// Use the lineToChannel method to get the
 			// ConditionalTwoCoinChannel and add it to the informants
-			informants.add(stringsToChannels(channelStrings));
+			informants.add(lineToChannel(scanner.nextLine()));
 		}
 		return informants;
 	}
 
+	/**
+	 * @require fileName != null && k != null
+	 * 
+	 * @ensure This method reads a text file from fileName, in the format read
+	 *         by readInformants, and updates k with each
+	 *         ConditionalTwoCoinChannel from the file, in the order in which
+	 *         they appear in the input file. The channels are applied to k as
+	 *         they are read (see KnowledgeDistribution.update(Iterator)), so
+	 *         that only a bounded number of them are held in memory at once,
+	 *         however long the file is.
+	 * 
+	 * The method throws IOException if there is an input error with the input
+	 * file; otherwise it throws FileFormatException if there is an error with
+	 * the input format (after updating k with each of the channels before the
+	 * error).
+	 */
+	public static void updateFromFile(String fileName, KnowledgeDistribution k)
+			throws FileFormatException, IOException {
+		BufferedReader reader = new BufferedReader(new FileReader(fileName));
+		// The channels of the file, read as k is updated with them
+		ChannelIterator informants = new ChannelIterator(reader);
+		try {
+			k.update(informants);
+		} finally {
+			reader.close();
+		}
+		informants.checkError();
+	}
+
+	/**
+	 * An iterator over the ConditionalTwoCoinChannels on the lines read by a
+	 * reader (see lineToChannel), which reads each line as it is needed. An
+	 * iterator cannot throw the exceptions of reading or converting a line, so
+	 * the first of them ends the iteration instead, and is thrown by
+	 * checkError.
+	 */
+	private static class ChannelIterator implements
+			Iterator<ConditionalTwoCoinChannel> {
+
+		// The reader of the lines of the file
+		private final BufferedReader reader;
+		// The channel on the next line, or null if it has not been read
+		private ConditionalTwoCoinChannel next;
+		// The exception that ended the iteration, if any
+		private IOException inputError;
+		private FileFormatException formatError;
+
+		ChannelIterator(BufferedReader reader) {
+			this.reader = reader;
+		}
+
+		@Override
+		public boolean hasNext() {
+			if (next == null && inputError == null && formatError == null) {
+				try {
+					String line = reader.readLine();
+					if (line != null) {
+						next = lineToChannel(line);
+					}
+				} catch (IOException e) {
+					inputError = e;
+				} catch (FileFormatException e) {
+					formatError = e;
+				}
+			}
+			return next != null;
+		}
+
+		@Override
+		public ConditionalTwoCoinChannel next() {
+			if (!hasNext()) {
+				throw new NoSuchElementException();
+			}
+			ConditionalTwoCoinChannel c = next;
+			next = null;
+			return c;
+		}
+
+		@Override
+		public void remove() {
+			throw new UnsupportedOperationException();
+		}
+
+		/**
+		 * Throws the exception that ended the iteration, if any.
+		 */
+		void checkError() throws FileFormatException, IOException {
+			if (inputError != null) {
+				throw inputError;
+			}
+			if (formatError != null) {
+				throw formatError;
+			}
+		}
+	}
+
+	/**
+	 * @require line != null
+	 * 
+	 * @ensure This method converts a line of an informants file (see
+	 *         readInformants) to the ConditionalTwoCoinChannel that it
+	 *         represents, and throws FileFormatException if the line is not
+	 *         correctly formatted.
+	 */
+	private static ConditionalTwoCoinChannel lineToChannel(String line)
+			throws FileFormatException {
+		// Split the line by whitespace characters
+		String[] channelStrings = line.split("\\s+");
+		// Check the line is made up of 3 parts
+		if (channelStrings.length != 3) {
+			throw new FileFormatException("Incorrect file formatting");
+		}
+		// Use the stringsToChannels method to get the
+		// ConditionalTwoCoinChannel
+		return stringsToChannels(channelStrings);
+	}
+
 	/**
 	 * @require stringsArray.length == 3
 	 * 
@@ -84,17 +191,18 @@ public class SpyMaster {
 				}
 				try {
 					// Try parsing the numerator and denominator as integers and
-					// making a new BigFraction
-					channelFractions[i] = new BigFraction(Integer
+					// getting the (possibly shared) BigFraction
+					channelFractions[i] = BigFraction.valueOf(Integer
 							.parseInt(f[0]), Integer.parseInt(f[1]));
 				} catch (NumberFormatException e) {
 					throw new FileFormatException(
 							"Numerator or denominator is not a number");
 				}
 			} else {
-				// Try making a new BigFraction with s as the numerator
+				// Try getting the BigFraction with s as the numerator
 				try {
-					channelFractions[i] = new BigFraction(Integer.parseInt(s));
+					channelFractions[i] = BigFraction.valueOf(Integer
+							.parseInt(s));
 				} catch (NumberFormatException e) {
 					throw new FileFormatException("Numerator must be a number");
 				}
@@ -245,9 +353,9 @@ public class SpyMaster {
 
 	private static boolean checkEqualDistributions(KnowledgeDistribution kdA,
 			KnowledgeDistribution kdB) {
-		// Call the toString methods of both distributions, and check if they
-		// are equal
-		return kdA.toString().equals(kdB.toString());
+		// Compare the fingerprints of both distributions first, and their
+		// knowledge-states only if the fingerprints are equal
+		return kdA.equals(kdB);
 	}
 
 	/**
@@ -259,37 +367,41 @@ public class SpyMaster {
 
 	private static BigFraction getKS(KnowledgeDistribution kdA,
 			KnowledgeDistribution kdB) {
-		// Set up iterators for both distributions
-		Iterator<BigFraction> iterator1 = kdA.iterator();
-		Iterator<BigFraction> iterator2 = kdB.iterator();
-		// Step through each iterator and find the lowest value for which the
-		// knowledge distributions are not equal
-		BigFraction ksA = BigFraction.ONE, ksB = BigFraction.ONE;
-		// Iterate over kdA, checking the smallest case where kdA(ks) != kdB(ks)
-		// in kdA
-		while (iterator1.hasNext()) {
-			ksA = iterator1.next();
-			// Check the weights
-			if (!kdA.weight(ksA).equals(kdB.weight(ksA))) {
-				break;
+		// Set up entry iterators for both distributions
+		Iterator<Map.Entry<BigFraction, BigFraction>> iterator1 = kdA
+				.entryIterator();
+		Iterator<Map.Entry<BigFraction, BigFraction>> iterator2 = kdB
+				.entryIterator();
+		// Step through both iterators together, in ascending order of
+		// knowledge-state, and find the lowest state for which the knowledge
+		// distributions are not equal
+		Map.Entry<BigFraction, BigFraction> a = next(iterator1);
+		Map.Entry<BigFraction, BigFraction> b = next(iterator2);
+		while (a != null || b != null) {
+			// Compare the current states (a missing state is the largest)
+			int c = (a == null ? 1 : (b == null ? -1 : a.getKey().compareTo(
+					b.getKey())));
+			if (c < 0) {
+				// The state of a has zero weight in kdB
+				return a.getKey();
+			} else if (c > 0) {
+				// The state of b has zero weight in kdA
+				return b.getKey();
+			} else if (!a.getValue().equals(b.getValue())) {
+				// The same state, with different weights
+				return a.getKey();
 			}
+			a = next(iterator1);
+			b = next(iterator2);
 		}
-		// Iterate over kdB, checking the smallest case where kdA(ks) != kdB(ks)
-		// in kdB
-		while (iterator2.hasNext()) {
-			ksB = iterator2.next();
-			// Check the weights
-			if (!kdA.weight(ksB).equals(kdB.weight(ksB))) {
-				break;
-			}
-		}
-		// Check which is the smallest and return it
-		// If they are both the same state (but different weights) return A
-		if (ksA.compareTo(ksB) <= 0) {
-			return ksA;
-		} else {
-			return ksB;
-		}
+		return BigFraction.ONE;
+	}
+
+	/**
+	 * Returns the next element of iterator, or null if there is none.
+	 */
+	private static <T> T next(Iterator<T> iterator) {
+		return (iterator.hasNext() ? iterator.next() : null);
 	}
 
 	/**
@@ -302,21 +414,18 @@ public class SpyMaster {
 
 	private static BigFraction getKSX(BigFraction ks, KnowledgeDistribution kdY) {
 		// Get the least element in the support of kdY greater than the given
-		// knowledge state (ks)
-		Iterator<BigFraction> iterator = kdY.iterator();
-		BigFraction current;
-		BigFraction ksx = new BigFraction(1);
-		// Iterate over kdY, and compare the current value to ks
+		// knowledge state (ks), starting from ks rather than from the least
+		// element of kdY
+		Iterator<Map.Entry<BigFraction, BigFraction>> iterator = kdY
+				.entryIterator(ks);
 		while (iterator.hasNext()) {
-			current = iterator.next();
-			// if current > ks, compareTo will return 1, ending the loop and
-			// returning ksX
-			if (current.compareTo(ks) == 1) {
-				ksx = current;
-				break;
+			BigFraction current = iterator.next().getKey();
+			// Skip ks itself, if it is in the support of kdY
+			if (current.compareTo(ks) > 0) {
+				return current;
 			}
 		}
-		return ksx;
+		return BigFraction.ONE;
 	}
 
 	/**
@@ -329,8 +438,8 @@ public class SpyMaster {
 	private static BigFraction getR(BigFraction ks, BigFraction w,
 			BigFraction ks0, BigFraction ks1, KnowledgeDistribution kdY) {
 		// get kdY(ks0)*(ks1-ks0)/(ks1-ks)
-		BigFraction r = ((kdY.weight(ks0)).multiply(ks1.subtract(ks0)))
-				.divide(ks1.subtract(ks));
+		BigFraction r = BigFraction.mulDiv(kdY.weight(ks0), ks1
+				.subtract(ks0), ks1.subtract(ks));
 		// Return the smaller value of kdY(ks0)*(ks1-ks0)/(ks1-ks) and w, or w
 		// if they are equal
 		if (r.compareTo(w) == -1) {
@@ -351,7 +460,7 @@ public class SpyMaster {
 		// From ks0 = ch.getCondition() and ks = ch.aPosteriori(true) we can
 		// determine that coin1 = ks*(r/kdY(ks0))/ks0
 		BigFraction opt = r.divide(kdY.weight(ks0));
-		BigFraction coin1 = ks.multiply(opt).divide(ks0);
+		BigFraction coin1 = BigFraction.mulDiv(ks, opt, ks0);
 		// From r = kdY(ks0)*ch.outcomeProbability(true)
 		BigFraction coin2top = opt.subtract(coin1.multiply(ks0));
 		BigFraction coin2 = coin2top.divide(ks0.complement());
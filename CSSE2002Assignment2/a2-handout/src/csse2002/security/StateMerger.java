@@ -0,0 +1,184 @@
+package csse2002.security;
+
+import java.math.BigInteger;
+import java.util.*;
+
+import csse2002.math.*;
+
+/**
+ * <p>
+ * Reduces the support of a KnowledgeDistribution by repeatedly merging the
+ * pair of adjacent knowledge-states that is cheapest to merge (see
+ * {@link KnowledgeDistribution#setSupportLimit(int)}).
+ * </p>
+ * 
+ * <p>
+ * Adjacent knowledge-states s and t, with probabilities p and q, are merged
+ * into the single knowledge-state (p * s + q * t) / (p + q) with probability
+ * p + q, which preserves both the weight and the mean knowledge-state of the
+ * distribution. (If there is a denominator limit, the merged knowledge-state
+ * is rounded to it, as long as it still lies between s and t, and the mean
+ * is then only preserved approximately.) The cost of a merge is the
+ * probability-weighted distance that it moves knowledge-states, which is the
+ * Wasserstein (earth mover's) distance between the distributions before and
+ * after the merge. The candidate merges are kept in a priority queue, ordered
+ * by cost, so that merging m pairs of n knowledge-states takes O((n + m) log
+ * n) time.
+ * </p>
+ */
+class StateMerger {
+
+    /**
+     * A possible merge of the knowledge-states at two adjacent indices.
+     */
+    private static final class Candidate implements Comparable<Candidate> {
+	// the indices of the knowledge-states merged
+	final int left, right;
+	// the versions of the knowledge-states at left and right when this
+	// candidate was created
+	final int leftVersion, rightVersion;
+	// the merged knowledge-state, and the cost of the merge
+	final BigFraction merged, cost;
+
+	Candidate(int left, int right, int leftVersion, int rightVersion,
+		BigFraction merged, BigFraction cost) {
+	    this.left = left;
+	    this.right = right;
+	    this.leftVersion = leftVersion;
+	    this.rightVersion = rightVersion;
+	    this.merged = merged;
+	    this.cost = cost;
+	}
+
+	@Override
+	public int compareTo(Candidate c) {
+	    int result = cost.compareTo(c.cost);
+	    return (result != 0 ? result : Integer.compare(left, c.left));
+	}
+    }
+
+    // the largest denominator allowed in merged knowledge-states, or null
+    private final BigInteger maxDenominator;
+    // the knowledge-states, and their probabilities, in ascending order of
+    // knowledge-state (merged knowledge-states are kept at the lower index)
+    private final BigFraction[] states, weights;
+    // the indices of the previous and next knowledge-states that have not
+    // been merged away, or -1 if there are none
+    private final int[] previous, next;
+    // the number of times the knowledge-state at each index has changed
+    private final int[] version;
+    // whether the knowledge-state at each index has been merged away
+    private final boolean[] removed;
+    // the number of knowledge-states that have not been merged away
+    private int size;
+    // the sum of the costs of the merges so far
+    private BigFraction error;
+    // the candidate merges, some of which may be out of date
+    private final PriorityQueue<Candidate> queue;
+
+    /**
+     * Creates a new merger of the (knowledge-state, probability) pairs of
+     * store, where maxDenominator is the denominator limit of the distribution
+     * (or null if it has none).
+     */
+    StateMerger(StateStore store, BigInteger maxDenominator) {
+	this.maxDenominator = maxDenominator;
+	int n = store.size();
+	states = new BigFraction[n];
+	weights = new BigFraction[n];
+	previous = new int[n];
+	next = new int[n];
+	version = new int[n];
+	removed = new boolean[n];
+	int i = 0; // index of the next pair
+	for (Map.Entry<BigFraction, BigFraction> e : store) {
+	    states[i] = e.getKey();
+	    weights[i] = e.getValue();
+	    previous[i] = i - 1;
+	    next[i] = (i + 1 < n ? i + 1 : -1);
+	    i++;
+	}
+	size = n;
+	error = BigFraction.ZERO;
+	queue = new PriorityQueue<Candidate>(Math.max(1, n));
+	for (i = 0; i + 1 < n; i++) {
+	    queue.add(candidate(i, i + 1));
+	}
+    }
+
+    /**
+     * Merges the cheapest pairs of adjacent knowledge-states until at most
+     * maxSize (which is at least one) remain.
+     */
+    void mergeTo(int maxSize) {
+	while (size > maxSize) {
+	    Candidate c = queue.poll();
+	    if (removed[c.left] || removed[c.right]
+		    || version[c.left] != c.leftVersion
+		    || version[c.right] != c.rightVersion) {
+		// one of the knowledge-states has since been merged
+		continue;
+	    }
+	    states[c.left] = c.merged;
+	    weights[c.left] = weights[c.left].add(weights[c.right]);
+	    version[c.left]++;
+	    removed[c.right] = true;
+	    next[c.left] = next[c.right];
+	    if (next[c.left] >= 0) {
+		previous[next[c.left]] = c.left;
+		queue.add(candidate(c.left, next[c.left]));
+	    }
+	    if (previous[c.left] >= 0) {
+		queue.add(candidate(previous[c.left], c.left));
+	    }
+	    error = error.add(c.cost);
+	    size--;
+	}
+    }
+
+    /**
+     * Returns the sum of the costs of the merges so far.
+     */
+    BigFraction error() {
+	return error;
+    }
+
+    /**
+     * Returns a new store of the given kind holding the knowledge-states
+     * that remain, and their probabilities.
+     */
+    StateStore toStore(KnowledgeDistribution.Storage storage) {
+	StateStore store = storage.newStore();
+	for (int i = 0; i < states.length; i++) {
+	    if (!removed[i]) {
+		store.put(states[i], weights[i]);
+	    }
+	}
+	return store;
+    }
+
+    /**
+     * Returns the candidate merge of the knowledge-states at adjacent indices
+     * i and j.
+     */
+    private Candidate candidate(int i, int j) {
+	BigFraction p = weights[i], q = weights[j];
+	BigFraction merged = p.multiply(states[i]).add(q.multiply(states[j]))
+		.divide(p.add(q));
+	if (maxDenominator != null) {
+	    BigFraction rounded = merged.limitDenominator(maxDenominator);
+	    // (unless the denominators of states[i] and states[j] exceed the
+	    // limit, rounded lies between them, since it is at least as close
+	    // to merged as they are)
+	    if (rounded.compareTo(states[i]) >= 0
+		    && rounded.compareTo(states[j]) <= 0) {
+		merged = rounded;
+	    }
+	}
+	// merged lies between states[i] and states[j]
+	BigFraction cost = p.multiply(merged.subtract(states[i])).add(
+		q.multiply(states[j].subtract(merged)));
+	return new Candidate(i, j, version[i], version[j], merged, cost);
+    }
+
+}
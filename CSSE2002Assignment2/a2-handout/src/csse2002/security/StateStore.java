@@ -0,0 +1,133 @@
+package csse2002.security;
+
+import java.util.*;
+import java.util.function.BiConsumer;
+
+import csse2002.math.*;
+
+/**
+ * The storage used by a KnowledgeDistribution for its support: an ordered
+ * mapping from knowledge-states to their (non-zero) probabilities. Each
+ * {@link KnowledgeDistribution.Storage} has its own implementation.
+ */
+interface StateStore extends
+	Iterable<Map.Entry<BigFraction, BigFraction>> {
+
+    /**
+     * Returns the probability of knowledge-state s, or null if s is not in
+     * this store.
+     */
+    BigFraction get(BigFraction s);
+
+    /**
+     * Sets the probability of knowledge-state s to w, which is not zero.
+     */
+    void put(BigFraction s, BigFraction w);
+
+    /**
+     * Removes knowledge-state s from this store, if it is in it.
+     */
+    void remove(BigFraction s);
+
+    /**
+     * Returns the number of knowledge-states in this store.
+     */
+    int size();
+
+    /**
+     * Returns the largest knowledge-state in this store, or null if it is
+     * empty.
+     */
+    BigFraction lastKey();
+
+    /**
+     * Returns the summary of the (knowledge-state, probability) pairs of this
+     * store, which is kept up to date by put and remove. The summary belongs
+     * to this store, and must not be modified by its callers, except to
+     * start tracking its metrics (see StoreSummary.track).
+     */
+    StoreSummary summary();
+
+    /**
+     * Returns an iterator over the (knowledge-state, probability) pairs in
+     * this store, in ascending order of knowledge-state. The iterator does not
+     * support removal, and its behaviour is not defined if this store is
+     * modified while it is in use.
+     */
+    @Override
+    Iterator<Map.Entry<BigFraction, BigFraction>> iterator();
+
+    /**
+     * Returns an iterator like iterator(), over the pairs whose
+     * knowledge-states are greater than or equal to from.
+     */
+    Iterator<Map.Entry<BigFraction, BigFraction>> iterator(BigFraction from);
+
+    /**
+     * Performs action on each (knowledge-state, probability) pair in this
+     * store, in ascending order of knowledge-state, without creating an entry
+     * for each pair.
+     */
+    void forEach(BiConsumer<BigFraction, BigFraction> action);
+
+    /**
+     * Returns the sum of the probabilities of the knowledge-states in this
+     * store that are less than s (or less than or equal to s, if inclusive).
+     * By default this takes linear time; stores that keep subtree sums do
+     * better.
+     */
+    default BigFraction weightBelow(BigFraction s, boolean inclusive) {
+	FractionAccumulator weight = new FractionAccumulator();
+	for (Map.Entry<BigFraction, BigFraction> e : this) {
+	    int c = e.getKey().compareTo(s);
+	    if (c > 0 || (c == 0 && !inclusive)) {
+		break;
+	    }
+	    weight.add(e.getValue());
+	}
+	return weight.toBigFraction();
+    }
+
+    /**
+     * Returns the smallest knowledge-state s in this store such that the sum
+     * of the probabilities of the knowledge-states less than or equal to s is
+     * at least w, or null if there is no such knowledge-state. By default this
+     * takes linear time (the running sum is compared with w without being
+     * reduced); stores that keep subtree sums do better.
+     */
+    default BigFraction quantile(BigFraction w) {
+	FractionAccumulator weight = new FractionAccumulator();
+	for (Map.Entry<BigFraction, BigFraction> e : this) {
+	    weight.add(e.getValue());
+	    if (weight.compareTo(w) >= 0) {
+		return e.getKey();
+	    }
+	}
+	return null;
+    }
+
+    /**
+     * Returns the sum of s * w over the (knowledge-state, probability) pairs
+     * (s, w) in this store. By default this takes linear time; stores that
+     * keep subtree sums do better.
+     */
+    default BigFraction moment() {
+	FractionAccumulator moment = new FractionAccumulator();
+	for (Map.Entry<BigFraction, BigFraction> e : this) {
+	    moment.addProduct(e.getKey(), e.getValue());
+	}
+	return moment.toBigFraction();
+    }
+
+    /**
+     * Returns a new store with the same contents as this one, that is
+     * unaffected by later modifications of this store (and vice versa).
+     */
+    StateStore copy();
+
+    /**
+     * Returns the kind of storage that this store implements.
+     */
+    KnowledgeDistribution.Storage storage();
+
+}
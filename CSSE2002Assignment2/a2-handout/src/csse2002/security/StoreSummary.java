@@ -0,0 +1,209 @@
+package csse2002.security;
+
+import java.nio.ByteBuffer;
+import java.util.Map;
+
+import csse2002.math.*;
+
+/**
+ * <p>
+ * Quantities summed over the (knowledge-state, probability) pairs of a
+ * StateStore, which the store keeps up to date by calling add and remove
+ * whenever it gains or loses a pair. Each of them is a sum of a term for each
+ * pair, so replacing a pair costs a constant number of operations, whatever
+ * the size of the store:
+ * </p>
+ * 
+ * <ul>
+ * <li>the fingerprint of the store: the sum (modulo 2^64) of a well mixed
+ * hash of each pair (s, w), so that stores with different contents almost
+ * always have different fingerprints;</li>
+ * <li>the (unnormalised) Bayes vulnerability of the secret: the sum of w *
+ * max(s, 1 - s), the probability that a spy who guesses the more likely value
+ * of the secret in each knowledge-state guesses correctly;</li>
+ * <li>the (unnormalised) conditional Shannon entropy of the secret: the sum
+ * of w * h(s), where h(s) = -s log2(s) - (1 - s) log2(1 - s) is the entropy, in
+ * bits, of knowledge-state s.</li>
+ * </ul>
+ * 
+ * <p>
+ * The vulnerability and entropy are kept as doubles, using compensated
+ * summation, so that their errors stay close to the rounding errors of the
+ * terms added and removed. (An exact sum of the terms of the vulnerability
+ * would need a common denominator of all of the knowledge-states, which soon
+ * grows far larger than the fractions themselves.)
+ * </p>
+ * 
+ * <p>
+ * The fingerprint is always kept, but the vulnerability and entropy are only
+ * kept once they have been asked for (see {@link #track(Iterable)}), so that
+ * stores whose metrics are never read do not pay for the floating-point
+ * logarithms of their terms on every modification.
+ * </p>
+ */
+final class StoreSummary {
+
+    /** The number of bytes written by writeTo. */
+    final static int ENCODED_SIZE = 8 + 4 * 8;
+
+    // the fingerprint of the pairs
+    private long fingerprint;
+    // the sums of w * max(s, 1 - s), and of w * h(s), over the pairs (s, w),
+    // less the rounding errors of the additions to them
+    private double vulnerability, entropy;
+    // the rounding errors of the additions to vulnerability and entropy
+    private double vulnerabilityError, entropyError;
+    // whether the vulnerability and entropy are kept
+    private boolean tracking;
+
+    /**
+     * Creates a new summary of an empty store.
+     */
+    StoreSummary() {
+    }
+
+    /**
+     * Creates a new summary equal to summary.
+     */
+    StoreSummary(StoreSummary summary) {
+	fingerprint = summary.fingerprint;
+	vulnerability = summary.vulnerability;
+	entropy = summary.entropy;
+	vulnerabilityError = summary.vulnerabilityError;
+	entropyError = summary.entropyError;
+	tracking = summary.tracking;
+    }
+
+    /**
+     * Creates a new summary equal to the one written to buffer by writeTo,
+     * starting at its current position.
+     */
+    static StoreSummary readFrom(ByteBuffer buffer) {
+	StoreSummary summary = new StoreSummary();
+	summary.fingerprint = buffer.getLong();
+	summary.vulnerability = buffer.getDouble();
+	summary.vulnerabilityError = buffer.getDouble();
+	summary.entropy = buffer.getDouble();
+	summary.entropyError = buffer.getDouble();
+	// (the sums of a summary that is not tracking them are written as NaN)
+	summary.tracking = !Double.isNaN(summary.vulnerability);
+	return summary;
+    }
+
+    /**
+     * Writes this summary (ENCODED_SIZE bytes) to buffer, starting at its
+     * current position.
+     */
+    void writeTo(ByteBuffer buffer) {
+	buffer.putLong(fingerprint);
+	buffer.putDouble(tracking ? vulnerability : Double.NaN);
+	buffer.putDouble(vulnerabilityError);
+	buffer.putDouble(entropy);
+	buffer.putDouble(entropyError);
+    }
+
+    /**
+     * Adds the terms of the pair (s, w) to this summary.
+     */
+    void add(BigFraction s, BigFraction w) {
+	fingerprint += fingerprint(s, w);
+	if (tracking) {
+	    addTerms(w.getDoubleValue(), s);
+	}
+    }
+
+    /**
+     * Removes the terms of the pair (s, w), which were added earlier, from
+     * this summary.
+     */
+    void remove(BigFraction s, BigFraction w) {
+	fingerprint -= fingerprint(s, w);
+	if (tracking) {
+	    addTerms(-w.getDoubleValue(), s);
+	}
+    }
+
+    /**
+     * Starts keeping the vulnerability and entropy of this summary, if it is
+     * not already keeping them, by summing their terms over pairs, which must
+     * be the pairs this is the summary of. This takes time linear in the
+     * number of pairs the first time it is called, and constant time after.
+     */
+    void track(Iterable<Map.Entry<BigFraction, BigFraction>> pairs) {
+	if (tracking) {
+	    return;
+	}
+	vulnerability = entropy = vulnerabilityError = entropyError = 0;
+	for (Map.Entry<BigFraction, BigFraction> e : pairs) {
+	    addTerms(e.getValue().getDoubleValue(), e.getKey());
+	}
+	tracking = true;
+    }
+
+    /**
+     * Returns the fingerprint of the pairs.
+     */
+    long fingerprint() {
+	return fingerprint;
+    }
+
+    /**
+     * Returns the sum of w * max(s, 1 - s) over the pairs (s, w). (The
+     * vulnerability must be tracked.)
+     */
+    double vulnerability() {
+	return vulnerability + vulnerabilityError;
+    }
+
+    /**
+     * Returns the sum of w * h(s) over the pairs (s, w). (The entropy must be
+     * tracked.)
+     */
+    double entropy() {
+	return entropy + entropyError;
+    }
+
+    /**
+     * Returns the fingerprint of a single (knowledge-state, probability) pair
+     * (s, w).
+     */
+    static long fingerprint(BigFraction s, BigFraction w) {
+	long h = s.longHashCode() * 0x9e3779b97f4a7c15L + w.longHashCode();
+	h = (h ^ (h >>> 29)) * 0xbf58476d1ce4e5b9L;
+	return h ^ (h >>> 32);
+    }
+
+    /**
+     * Adds w times the vulnerability and entropy terms of knowledge-state s
+     * to the sums, accumulating their rounding errors (using Neumaier's
+     * variant of Kahan summation).
+     */
+    private void addTerms(double w, BigFraction s) {
+	double p = s.getDoubleValue(); // probability of true
+	// probability of false (only ever used as a double, so calculated as
+	// one; it may be zero for s within an ulp of one, whose entropy is
+	// negligible)
+	double q = 1 - p;
+	double x = w * Math.max(p, q); // vulnerability term
+	double t = vulnerability + x;
+	if (Math.abs(vulnerability) >= Math.abs(x)) {
+	    vulnerabilityError += (vulnerability - t) + x;
+	} else {
+	    vulnerabilityError += (x - t) + vulnerability;
+	}
+	vulnerability = t;
+	if (p <= 0 || q <= 0) {
+	    // no entropy
+	    return;
+	}
+	x = -w * (p * Math.log(p) + q * Math.log(q)) / Math.log(2);
+	t = entropy + x;
+	if (Math.abs(entropy) >= Math.abs(x)) {
+	    entropyError += (entropy - t) + x;
+	} else {
+	    entropyError += (x - t) + entropy;
+	}
+	entropy = t;
+    }
+
+}
@@ -0,0 +1,87 @@
+package csse2002.security;
+
+import java.util.*;
+
+import csse2002.math.*;
+
+/**
+ * A knowledge distribution that calculates using any arithmetic (see
+ * {@link KnowledgeDistribution#create(ProbabilityArithmetic)}), and stores its
+ * support in a TreeMap ordered by that arithmetic.
+ *
+ * @param <P>
+ *            The type used to represent probabilities.
+ */
+final class TreeKnowledgeDistribution<P> extends
+	AbstractKnowledgeDistribution<P> {
+
+    // An ordered map storing (knowledge-state, probability) pairs for
+    // knowledge-states in the support of the distribution, ordered by the
+    // arithmetic.
+    private final TreeMap<P, P> dist;
+
+    /**
+     * Creates a new empty distribution with zero weight, that calculates using
+     * the given arithmetic.
+     *
+     * @throws NullPointerException
+     *             If arithmetic is null.
+     */
+    TreeKnowledgeDistribution(ProbabilityArithmetic<P> arithmetic) {
+	super(arithmetic);
+	dist = new TreeMap<P, P>(arithmetic);
+    }
+
+    /**
+     * Creates a new distribution with the same arithmetic, knowledge-states
+     * and corresponding weights as distribution k.
+     */
+    private TreeKnowledgeDistribution(TreeKnowledgeDistribution<P> k) {
+	super(k.getArithmetic());
+	dist = new TreeMap<P, P>(k.dist);
+	total = k.total;
+    }
+
+    @Override
+    P get(P s) {
+	return dist.get(s);
+    }
+
+    @Override
+    void put(P s, P w) {
+	dist.put(s, w);
+    }
+
+    @Override
+    void remove(P s) {
+	dist.remove(s);
+    }
+
+    @Override
+    P match(P s) {
+	if (dist.containsKey(s)) {
+	    return s;
+	}
+	ProbabilityArithmetic<P> arithmetic = getArithmetic();
+	// the nearest knowledge-states on either side of s
+	P lower = dist.lowerKey(s), higher = dist.higherKey(s);
+	if (lower != null && arithmetic.approximatelyEqual(lower, s)) {
+	    return lower;
+	}
+	if (higher != null && arithmetic.approximatelyEqual(higher, s)) {
+	    return higher;
+	}
+	return s;
+    }
+
+    @Override
+    public TreeKnowledgeDistribution<P> copy() {
+	return new TreeKnowledgeDistribution<P>(this);
+    }
+
+    @Override
+    public Iterator<Map.Entry<P, P>> entryIterator() {
+	return Collections.unmodifiableMap(dist).entrySet().iterator();
+    }
+
+}
@@ -0,0 +1,99 @@
+package csse2002.security;
+
+import java.util.*;
+import java.util.function.BiConsumer;
+
+import csse2002.math.*;
+
+/**
+ * A StateStore that keeps its knowledge-states in a TreeMap (see
+ * {@link KnowledgeDistribution.Storage#TREE}).
+ */
+class TreeStateStore implements StateStore {
+
+    // the (knowledge-state, probability) pairs of this store
+    private final TreeMap<BigFraction, BigFraction> map;
+    // the summary of the pairs of map
+    private final StoreSummary summary;
+
+    /**
+     * Creates a new empty store.
+     */
+    TreeStateStore() {
+	map = new TreeMap<BigFraction, BigFraction>();
+	summary = new StoreSummary();
+    }
+
+    /**
+     * Creates a new store with the same contents as store.
+     */
+    private TreeStateStore(TreeStateStore store) {
+	map = new TreeMap<BigFraction, BigFraction>(store.map);
+	summary = new StoreSummary(store.summary);
+    }
+
+    @Override
+    public BigFraction get(BigFraction s) {
+	return map.get(s);
+    }
+
+    @Override
+    public void put(BigFraction s, BigFraction w) {
+	BigFraction old = map.put(s, w); // previous probability, if any
+	if (old != null) {
+	    summary.remove(s, old);
+	}
+	summary.add(s, w);
+    }
+
+    @Override
+    public void remove(BigFraction s) {
+	BigFraction old = map.remove(s); // previous probability, if any
+	if (old != null) {
+	    summary.remove(s, old);
+	}
+    }
+
+    @Override
+    public int size() {
+	return map.size();
+    }
+
+    @Override
+    public BigFraction lastKey() {
+	return (map.isEmpty() ? null : map.lastKey());
+    }
+
+    @Override
+    public StoreSummary summary() {
+	return summary;
+    }
+
+    @Override
+    public Iterator<Map.Entry<BigFraction, BigFraction>> iterator() {
+	return Collections.unmodifiableMap(map).entrySet().iterator();
+    }
+
+    @Override
+    public Iterator<Map.Entry<BigFraction, BigFraction>> iterator(
+	    BigFraction from) {
+	return Collections.unmodifiableMap(map.tailMap(from, true)).entrySet()
+		.iterator();
+    }
+
+    @Override
+    public void forEach(BiConsumer<BigFraction, BigFraction> action) {
+	map.forEach(action);
+    }
+
+    @Override
+    public StateStore copy() {
+	return new TreeStateStore(this);
+    }
+
+    @Override
+    public KnowledgeDistribution.Storage storage() {
+	return KnowledgeDistribution.Storage.TREE;
+    }
+
+}
@@ -115,12 +115,10 @@ public class TwoCoinChannel {
 	    throw new InvalidProbabilityException(
 		    "aPriori must be a probability.");
 	}
-	// likelihood that secret is true and outcome is heads (true)
-	BigFraction p1 = aPriori.multiply(coin1);
-	// likelihood that secret is false and outcome is heads (true)
-	BigFraction p2 = (aPriori.complement()).multiply(coin2);
-	// total likelihood that outcome is heads
-	BigFraction probHeads = p1.add(p2);
+	// total likelihood that outcome is heads: the likelihood that the secret
+	// is true and the outcome is heads, plus the likelihood that the secret
+	// is false and the outcome is heads
+	BigFraction probHeads = BigFraction.lerp(aPriori, coin1, coin2);
 	// return likelihood of heads or tails depending upon request
 	return (outcome ? probHeads : probHeads.complement());
     }
@@ -150,13 +148,149 @@ public class TwoCoinChannel {
 	    throw new InvalidProbabilityException(
 		    "aPriori must be a probability.");
 	}
-	// likelihood that secret is true and outcome is (outcome? heads: tails)
-	BigFraction p = aPriori.multiply(outcome ? coin1 : coin1.complement());
 	// probability that the outcome is (outcome? heads: tails)
 	BigFraction q = outcomeProbability(aPriori, outcome);
 	// likelihood that secret is true given that outcome is (outcome? heads:
-	// tails), if well defined, or zero otherwise.
-	return (q.equals(BigFraction.ZERO) ? BigFraction.ZERO : p.divide(q));
+	// tails), if well defined, or zero otherwise. (That is, the likelihood
+	// that the secret is true and the outcome is (outcome? heads: tails),
+	// divided by q.)
+	return (q.equals(BigFraction.ZERO) ? BigFraction.ZERO : BigFraction
+		.mulDiv(aPriori, (outcome ? coin1 : coin1.complement()), q));
+    }
+
+    /**
+     * Returns the probabilities that the outcome of the private coin flip will
+     * be (outcome? heads: tails), for each of the a priori probabilities in
+     * aPriori (see {@link #outcomeProbability(BigFraction, boolean)}).
+     * Parameter aPriori is unmodified.
+     * 
+     * @throws NullPointerException
+     *             If aPriori is null.
+     * 
+     * @throws InvalidProbabilityException
+     *             If an element of aPriori is not a probability.
+     */
+    public FractionVector outcomeProbability(FractionVector aPriori,
+	    boolean outcome) {
+	if (aPriori == null) {
+	    throw new NullPointerException("aPriori cannot be null.");
+	}
+	if (!aPriori.areProbabilities()) {
+	    throw new InvalidProbabilityException(
+		    "aPriori must contain only probabilities.");
+	}
+	// likelihoods that the outcome is heads
+	FractionVector probHeads = new FractionVector(aPriori).lerp(coin1,
+		coin2);
+	return (outcome ? probHeads : probHeads.complement());
+    }
+
+    /**
+     * Returns the probabilities that the secret is true given that the outcome
+     * of the private coin flip is (outcome? heads: tails), for each of the a
+     * priori probabilities in aPriori (see
+     * {@link #aPosteriori(BigFraction, boolean)}). Parameter aPriori is
+     * unmodified.
+     * 
+     * @throws NullPointerException
+     *             If aPriori is null.
+     * 
+     * @throws InvalidProbabilityException
+     *             If an element of aPriori is not a probability.
+     */
+    public FractionVector aPosteriori(FractionVector aPriori, boolean outcome) {
+	// probabilities that the outcome is (outcome? heads: tails)
+	FractionVector q = outcomeProbability(aPriori, outcome);
+	for (int i = 0; i < q.size(); i++) {
+	    if (q.signum(i) == 0) {
+		// the likelihood that the secret is true and the outcome is
+		// (outcome? heads: tails) is also zero, so the result is zero
+		q.set(i, BigFraction.ONE);
+	    }
+	}
+	return new FractionVector(aPriori).multiply(
+		outcome ? coin1 : coin1.complement()).divide(q);
+    }
+
+    /**
+     * Returns the probability that the outcome of the private coin flip will be
+     * (outcome? heads: tails) given that the secret is initially known to be
+     * true with probability aPriori (and false with the complement of aPriori),
+     * calculated using the given arithmetic (see
+     * {@link ProbabilityArithmetic#lerp(Object, Object, Object)}). With
+     * {@link ExactArithmetic}, this is
+     * {@link #outcomeProbability(BigFraction, boolean)}.
+     * 
+     * @throws NullPointerException
+     *             If arithmetic or aPriori is null.
+     * 
+     * @throws InvalidProbabilityException
+     *             If aPriori is not a probability.
+     */
+    public <P> P outcomeProbability(ProbabilityArithmetic<P> arithmetic,
+	    P aPriori, boolean outcome) {
+	checkProbability(arithmetic, aPriori);
+	// the likelihood that the secret is true and the outcome is (outcome?
+	// heads: tails), plus the likelihood that the secret is false and the
+	// outcome is (outcome? heads: tails)
+	return arithmetic.lerp(aPriori, coinProbability(arithmetic, true,
+		outcome), coinProbability(arithmetic, false, outcome));
+    }
+
+    /**
+     * Returns the <i>a posteriori</i> probability that the secret is true, as
+     * described by {@link #aPosteriori(BigFraction, boolean)}, calculated
+     * using the given arithmetic (see
+     * {@link ProbabilityArithmetic#mulDiv(Object, Object, Object)}).
+     * 
+     * @throws NullPointerException
+     *             If arithmetic or aPriori is null.
+     * 
+     * @throws InvalidProbabilityException
+     *             If aPriori is not a probability.
+     */
+    public <P> P aPosteriori(ProbabilityArithmetic<P> arithmetic, P aPriori,
+	    boolean outcome) {
+	// probability that the outcome is (outcome? heads: tails)
+	P q = outcomeProbability(arithmetic, aPriori, outcome);
+	// the likelihood that the secret is true and the outcome is (outcome?
+	// heads: tails), divided by q (its product is calculated as in q, so
+	// that the result is at most one even with approximate arithmetic)
+	return (arithmetic.compare(q, arithmetic.zero()) == 0 ? arithmetic
+		.zero() : arithmetic.mulDiv(aPriori, coinProbability(arithmetic,
+		true, outcome), q));
+    }
+
+    /**
+     * Returns the probability that the coin flipped if the secret has value s
+     * lands on (outcome? heads: tails), in the given arithmetic.
+     */
+    private <P> P coinProbability(ProbabilityArithmetic<P> arithmetic,
+	    boolean s, boolean outcome) {
+	BigFraction coin = getCoinBias(s);
+	return arithmetic.valueOf(outcome ? coin : coin.complement());
+    }
+
+    /**
+     * Checks that p is a probability in the given arithmetic.
+     * 
+     * @throws NullPointerException
+     *             If arithmetic or p is null.
+     * 
+     * @throws InvalidProbabilityException
+     *             If p is not a probability.
+     */
+    private static <P> void checkProbability(
+	    ProbabilityArithmetic<P> arithmetic, P p) {
+	if (arithmetic == null || p == null) {
+	    throw new NullPointerException(
+		    "Arithmetic and aPriori cannot be null.");
+	}
+	if (arithmetic.compare(p, arithmetic.zero()) < 0
+		|| arithmetic.compare(p, arithmetic.one()) > 0) {
+	    throw new InvalidProbabilityException(
+		    "aPriori must be a probability.");
+	}
     }
 
     /**
@@ -0,0 +1,363 @@
+package csse2002.security.test;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import csse2002.math.*;
+import csse2002.security.*;
+import java.util.*;
+
+/**
+ * Basic tests for {@link AbstractKnowledgeDistribution}, checking each
+ * arithmetic against the exact results of {@link KnowledgeDistribution}.
+ */
+public class AbstractKnowledgeDistributionTest {
+
+	/**
+	 * Returns the informants of the example in the KnowledgeDistribution
+	 * documentation, followed by an informant that splits the state 1/4.
+	 */
+	private List<ConditionalTwoCoinChannel> getInformants() {
+		List<ConditionalTwoCoinChannel> informants =
+				new ArrayList<ConditionalTwoCoinChannel>();
+		informants.add(new ConditionalTwoCoinChannel(new BigFraction(1, 2),
+				new TwoCoinChannel(new BigFraction(3, 4), new BigFraction(1,
+						4))));
+		informants.add(new ConditionalTwoCoinChannel(new BigFraction(3, 4),
+				new TwoCoinChannel(new BigFraction(1, 3), new BigFraction(1,
+						2))));
+		informants.add(new ConditionalTwoCoinChannel(new BigFraction(1, 4),
+				new TwoCoinChannel(new BigFraction(1, 5), new BigFraction(2,
+						3))));
+		return informants;
+	}
+
+	/**
+	 * Test that exact arithmetic gives the same distribution as
+	 * KnowledgeDistribution.
+	 */
+	@Test
+	public void testExactArithmetic() {
+		BigFraction aPriori = new BigFraction(1, 2);
+		KnowledgeDistribution expected =
+				new KnowledgeDistribution(aPriori, getInformants());
+		AbstractKnowledgeDistribution<BigFraction> actual =
+				KnowledgeDistribution.create(ExactArithmetic.INSTANCE,
+						aPriori, getInformants());
+		Assert.assertEquals(expected.toString(), actual.toString());
+		Assert.assertEquals(BigFraction.ONE, actual.weight());
+		Assert.assertTrue(actual.checkInv());
+		Iterator<Map.Entry<BigFraction, BigFraction>> it = expected
+				.entryIterator();
+		Iterator<Map.Entry<BigFraction, BigFraction>> jt = actual
+				.entryIterator();
+		while (it.hasNext()) {
+			Assert.assertEquals(it.next(), jt.next());
+		}
+		Assert.assertFalse(jt.hasNext());
+	}
+
+	/**
+	 * Test that approximate arithmetic merges a posteriori knowledge-states
+	 * into the approximately equal knowledge-states already in the support,
+	 * and keeps the weight of the distribution as it is modified.
+	 */
+	@Test
+	public void testApproximatePosteriorsMerge() {
+		// the second informant splits 1/4 into 1/28 and (exactly) 3/4, which
+		// is already in the support
+		List<ConditionalTwoCoinChannel> informants =
+				new ArrayList<ConditionalTwoCoinChannel>();
+		informants.add(new ConditionalTwoCoinChannel(new BigFraction(1, 2),
+				new TwoCoinChannel(new BigFraction(3, 4), new BigFraction(1,
+						4))));
+		informants.add(new ConditionalTwoCoinChannel(new BigFraction(1, 4),
+				new TwoCoinChannel(new BigFraction(9, 10), new BigFraction(1,
+						10))));
+		BigFraction aPriori = new BigFraction(1, 2);
+		KnowledgeDistribution expected =
+				new KnowledgeDistribution(aPriori, informants);
+		Assert.assertEquals("{{true@1/28, false@27/28}@7/20, "
+				+ "{true@3/4, false@1/4}@13/20}", expected.toString());
+		List<ProbabilityArithmetic<Double>> arithmetics =
+				new ArrayList<ProbabilityArithmetic<Double>>();
+		arithmetics.add(DoubleArithmetic.INSTANCE);
+		arithmetics.add(LogArithmetic.INSTANCE);
+		for (ProbabilityArithmetic<Double> a : arithmetics) {
+			AbstractKnowledgeDistribution<Double> actual =
+					KnowledgeDistribution.create(a, aPriori, informants);
+			int size = 0;
+			for (Double s : actual) {
+				size++;
+			}
+			Assert.assertEquals(2, size);
+			Double s = a.valueOf(new BigFraction(3, 4));
+			Assert.assertEquals(0.65, a.getDoubleValue(actual.weight(s)),
+					1e-12);
+			Assert.assertEquals(1.0, a.getDoubleValue(actual.weight()), 1e-12);
+			Assert.assertTrue(actual.checkInv());
+
+			// the copy is independent of the original
+			AbstractKnowledgeDistribution<Double> copy = actual.copy();
+			copy.subtract(s, actual.weight(s));
+			Assert.assertEquals(0.35, a.getDoubleValue(copy.weight()), 1e-12);
+			Assert.assertEquals(1.0, a.getDoubleValue(actual.weight()), 1e-12);
+			Assert.assertTrue(copy.checkInv());
+		}
+	}
+
+	/**
+	 * Test that double and log-space arithmetic approximate the exact
+	 * distribution.
+	 */
+	@Test
+	public void testApproximateArithmetic() {
+		BigFraction aPriori = new BigFraction(1, 2);
+		KnowledgeDistribution expected =
+				new KnowledgeDistribution(aPriori, getInformants());
+		List<ProbabilityArithmetic<Double>> arithmetics =
+				new ArrayList<ProbabilityArithmetic<Double>>();
+		arithmetics.add(DoubleArithmetic.INSTANCE);
+		arithmetics.add(LogArithmetic.INSTANCE);
+		for (ProbabilityArithmetic<Double> a : arithmetics) {
+			AbstractKnowledgeDistribution<Double> actual =
+					KnowledgeDistribution.create(a, aPriori,
+							getInformants());
+			Iterator<BigFraction> it = expected.iterator();
+			for (Double s : actual) {
+				BigFraction ks = it.next();
+				Assert.assertEquals(ks.getDoubleValue(), a.getDoubleValue(s),
+						1e-12);
+				Assert.assertEquals(expected.weight(ks).getDoubleValue(), a
+						.getDoubleValue(actual.weight(s)), 1e-12);
+			}
+			Assert.assertFalse(it.hasNext());
+			Assert.assertEquals(1.0, a.getDoubleValue(actual.weight()), 1e-12);
+			Assert.assertTrue(actual.checkInv());
+		}
+	}
+
+	/**
+	 * Test that interval arithmetic gives exactly the same distribution as
+	 * KnowledgeDistribution, and that decisions against a threshold are
+	 * exact, but only calculate exact values when they have to.
+	 */
+	@Test
+	public void testIntervalArithmetic() {
+		BigFraction aPriori = new BigFraction(1, 2);
+		KnowledgeDistribution expected =
+				new KnowledgeDistribution(aPriori, getInformants());
+		AbstractKnowledgeDistribution<IntervalFraction> actual =
+				KnowledgeDistribution.create(IntervalArithmetic.INSTANCE,
+						aPriori, getInformants());
+		Assert.assertEquals(expected.toString(), actual.toString());
+		Assert.assertTrue(actual.checkInv());
+
+		BigFraction half = new BigFraction(1, 2);
+		IntervalFraction third = IntervalFraction.valueOf(new BigFraction(1,
+				3));
+		IntervalFraction low = third.multiply(third);
+		Assert.assertTrue(low.compareTo(half) < 0);
+		Assert.assertFalse(low.isExactKnown());
+		Assert.assertTrue(low.lower() <= low.upper());
+
+		// 3 * (1/3) is exactly one, but its interval straddles one
+		IntervalFraction one = third.add(third).add(third);
+		Assert.assertTrue(one.lower() < 1.0 || one.upper() > 1.0);
+		Assert.assertEquals(0, one.compareTo(BigFraction.ONE));
+		Assert.assertTrue(one.isExactKnown());
+		Assert.assertEquals(BigFraction.ONE, one.exact());
+
+		// just above one half, by much less than a double can resolve
+		BigFraction tiny = new BigFraction(1, Integer.MAX_VALUE);
+		tiny = tiny.multiply(tiny).multiply(tiny);
+		IntervalFraction above = IntervalFraction.valueOf(half).add(
+				IntervalFraction.valueOf(tiny));
+		Assert.assertTrue(above.compareTo(half) > 0);
+		Assert.assertTrue(above.complement().compareTo(half) < 0);
+		Assert.assertTrue(above.checkInv());
+	}
+
+	/**
+	 * Test that updating a distribution with interval arithmetic, including
+	 * checking that its weight does not exceed one, does not calculate the
+	 * exact values of its probabilities.
+	 */
+	@Test
+	public void testIntervalUpdateUncertified() {
+		AbstractKnowledgeDistribution<IntervalFraction> actual =
+				KnowledgeDistribution.create(IntervalArithmetic.INSTANCE,
+						new BigFraction(1, 2), getInformants());
+		Assert.assertFalse(actual.weight().isExactKnown());
+		Iterator<Map.Entry<IntervalFraction, IntervalFraction>> it = actual
+				.entryIterator();
+		while (it.hasNext()) {
+			Assert.assertFalse(it.next().getValue().isExactKnown());
+		}
+		Assert.assertEquals(BigFraction.ONE, actual.weight().exact());
+		Assert.assertTrue(actual.checkInv());
+	}
+
+	/**
+	 * Test that a weight that certainly exceeds one is still rejected by
+	 * interval arithmetic.
+	 */
+	@Test(expected = InvalidKnowledgeDistributionException.class)
+	public void testIntervalWeightExceedsOne() {
+		AbstractKnowledgeDistribution<IntervalFraction> actual =
+				KnowledgeDistribution.create(IntervalArithmetic.INSTANCE,
+						new BigFraction(1, 2), getInformants());
+		actual.add(IntervalFraction.ZERO, IntervalFraction.valueOf(
+				new BigFraction(1, 1000)));
+	}
+
+	/**
+	 * Returns 2 to the power e (which may be negative), exactly.
+	 */
+	private BigFraction powerOfTwo(int e) {
+		BigFraction p = BigFraction.ONE;
+		BigFraction two = new BigFraction(e < 0 ? 1 : 2, e < 0 ? 2 : 1);
+		for (int i = 0; i < Math.abs(e); i++) {
+			p = p.multiply(two);
+		}
+		return p;
+	}
+
+	/**
+	 * Test that the intervals of products and quotients that underflow the
+	 * smallest doubles still contain their values, so that they are not
+	 * mistaken for zero.
+	 */
+	@Test
+	public void testIntervalUnderflow() {
+		IntervalFraction small = IntervalFraction.valueOf(powerOfTwo(-540));
+		IntervalFraction large = IntervalFraction.valueOf(powerOfTwo(540));
+		IntervalFraction third = IntervalFraction.valueOf(new BigFraction(1,
+				3));
+		List<IntervalFraction> results = new ArrayList<IntervalFraction>();
+		results.add(small.multiply(small)); // 2^-1080
+		results.add(small.divide(large)); // 2^-1080
+		results.add(small.multiply(small).multiply(large)); // 2^-540
+		results.add(small.multiply(third).multiply(small)); // 2^-1080 / 3
+		results.add(small.divide(large.divide(third))); // 2^-1080 / 3
+		for (IntervalFraction f : results) {
+			Assert.assertTrue(f.lower() <= f.upper());
+			Assert.assertTrue(f.checkInv());
+			Assert.assertTrue(f.compareTo(BigFraction.ZERO) > 0);
+			Assert.assertTrue(f.compareTo(IntervalFraction.ZERO) > 0);
+			Assert.assertTrue(f.upper() > 0);
+		}
+		Assert.assertEquals(powerOfTwo(-1080), results.get(0).exact());
+		Assert.assertEquals(powerOfTwo(-540), results.get(2).exact());
+	}
+
+	/**
+	 * Test that fractions beyond the largest double have intervals that
+	 * contain them, and are compared correctly.
+	 */
+	@Test
+	public void testIntervalOverflow() {
+		BigFraction three = new BigFraction(3);
+		BigFraction huge = powerOfTwo(1140).divide(three);
+		IntervalFraction f = IntervalFraction.valueOf(huge);
+		Assert.assertEquals(Double.MAX_VALUE, f.lower(), 0.0);
+		Assert.assertEquals(Double.POSITIVE_INFINITY, f.upper(), 0.0);
+		Assert.assertTrue(f.checkInv());
+		IntervalFraction g = IntervalFraction.valueOf(BigFraction.ZERO
+				.subtract(huge));
+		Assert.assertEquals(Double.NEGATIVE_INFINITY, g.lower(), 0.0);
+		Assert.assertEquals(-Double.MAX_VALUE, g.upper(), 0.0);
+		Assert.assertTrue(g.checkInv());
+
+		Assert.assertTrue(f.compareTo(BigFraction.ONE) > 0);
+		Assert.assertTrue(g.compareTo(BigFraction.ZERO) < 0);
+		Assert.assertTrue(f.compareTo(g) > 0);
+		Assert.assertTrue(f.compareTo(powerOfTwo(1100)) > 0);
+		Assert.assertTrue(f.compareTo(powerOfTwo(1140)) < 0);
+		Assert.assertEquals(0, f.add(f).add(f).compareTo(powerOfTwo(1140)));
+		Assert.assertTrue(f.multiply(IntervalFraction.valueOf(powerOfTwo(
+				-200))).compareTo(BigFraction.ONE) > 0);
+	}
+
+	/**
+	 * Test that a long chain of interval operations is evaluated whenever it
+	 * becomes more than 64 operations deep, so that it does not keep its whole
+	 * history, without changing its value.
+	 */
+	@Test
+	public void testIntervalBoundedHistory() {
+		BigFraction third = new BigFraction(1, 3);
+		IntervalFraction f = IntervalFraction.valueOf(third);
+		BigFraction expected = third;
+		for (int i = 1; i <= 200; i++) {
+			f = f.multiply(IntervalFraction.valueOf(third));
+			expected = expected.multiply(third);
+			// evaluating a fraction starts a new chain
+			Assert.assertEquals(i % 65 == 0, f.isExactKnown());
+			Assert.assertTrue(f.checkInv());
+		}
+		Assert.assertEquals(expected, f.exact());
+	}
+
+	/**
+	 * Test that threads calculating the exact values of shared interval
+	 * fractions at the same time all get the right values.
+	 */
+	@Test
+	public void testIntervalConcurrentExact() throws InterruptedException {
+		final BigFraction third = new BigFraction(1, 3);
+		for (int round = 0; round < 20; round++) {
+			// a long chain of operations, whose exact value is unknown
+			IntervalFraction f = IntervalFraction.valueOf(third);
+			BigFraction expected = third;
+			for (int i = 0; i < 200; i++) {
+				f = f.multiply(IntervalFraction.valueOf(third)).add(
+						IntervalFraction.valueOf(third));
+				expected = expected.multiply(third).add(third);
+			}
+			final IntervalFraction shared = f;
+			final BigFraction[] results = new BigFraction[4];
+			List<Thread> threads = new ArrayList<Thread>();
+			for (int t = 0; t < results.length; t++) {
+				final int index = t;
+				threads.add(new Thread(new Runnable() {
+					@Override
+					public void run() {
+						results[index] = shared.exact();
+					}
+				}));
+			}
+			for (Thread t : threads) {
+				t.start();
+			}
+			for (Thread t : threads) {
+				t.join();
+			}
+			for (BigFraction result : results) {
+				Assert.assertEquals(expected, result);
+			}
+			Assert.assertTrue(shared.isExactKnown());
+			Assert.assertTrue(shared.checkInv());
+		}
+	}
+
+	/**
+	 * Test that log-space arithmetic keeps its precision on probabilities
+	 * too small to be represented as doubles.
+	 */
+	@Test
+	public void testLogArithmeticUnderflow() {
+		LogArithmetic a = LogArithmetic.INSTANCE;
+		Double tiny = a.valueOf(new BigFraction(1, 1000000));
+		Double p = a.one();
+		for (int i = 0; i < 100; i++) {
+			p = a.multiply(p, tiny);
+		}
+		Assert.assertEquals(0.0, a.getDoubleValue(p), 0.0);
+		Assert.assertEquals(-600 * Math.log(10), p, 1e-9);
+		Assert.assertTrue(a.compare(a.zero(), p) < 0);
+		Assert.assertEquals(a.add(p, p), a.multiply(p, a.valueOf(
+				new BigFraction(2))), 1e-9);
+	}
+
+}
@@ -0,0 +1,139 @@
+package csse2002.security.test;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import csse2002.math.*;
+import csse2002.security.*;
+import java.util.*;
+
+/**
+ * Basic tests for the {@link ConcurrentKnowledgeDistribution} class.
+ */
+public class ConcurrentKnowledgeDistributionTest {
+
+	// the number of producer threads used by each test
+	private final static int THREADS = 4;
+
+	/**
+	 * Runs each of the given tasks in its own thread, and waits for them all
+	 * to finish.
+	 */
+	private void runConcurrently(List<Runnable> tasks)
+			throws InterruptedException {
+		List<Thread> threads = new ArrayList<Thread>();
+		for (Runnable task : tasks) {
+			threads.add(new Thread(task));
+		}
+		for (Thread t : threads) {
+			t.start();
+		}
+		for (Thread t : threads) {
+			t.join();
+		}
+	}
+
+	/**
+	 * Test that concurrent adds to the same knowledge-state are all counted.
+	 */
+	@Test
+	public void testConcurrentAdd() throws InterruptedException {
+		final ConcurrentKnowledgeDistribution k =
+				new ConcurrentKnowledgeDistribution();
+		final BigFraction p = new BigFraction(1, 1024);
+		List<Runnable> tasks = new ArrayList<Runnable>();
+		for (int t = 0; t < THREADS; t++) {
+			final BigFraction other = new BigFraction(2 * t + 1, 2 * THREADS);
+			tasks.add(new Runnable() {
+				@Override
+				public void run() {
+					for (int i = 0; i < 128; i++) {
+						k.add(new BigFraction(1, 2), p);
+						k.add(other, p);
+					}
+				}
+			});
+		}
+		runConcurrently(tasks);
+		Assert.assertTrue(k.checkInv());
+		Assert.assertEquals(BigFraction.ONE, k.weight());
+		Assert.assertEquals(new BigFraction(1, 2), k.weight(new BigFraction(1,
+				2)));
+		Assert.assertEquals(new BigFraction(1, 8), k.weight(new BigFraction(1,
+				8)));
+		k.subtract(new BigFraction(1, 2), new BigFraction(1, 2));
+		Assert.assertTrue(k.checkInv());
+		Assert.assertEquals(new BigFraction(1, 2), k.weight());
+		Assert.assertEquals(BigFraction.ZERO, k.weight(new BigFraction(1, 2)));
+	}
+
+	/**
+	 * Test that concurrent producers, each with informants conditional on
+	 * their own knowledge-states, give the same distribution as applying all
+	 * of the informants to a KnowledgeDistribution.
+	 */
+	@Test
+	public void testConcurrentUpdate() throws InterruptedException {
+		KnowledgeDistribution expected = new KnowledgeDistribution();
+		final ConcurrentKnowledgeDistribution k =
+				new ConcurrentKnowledgeDistribution();
+		// the a-posteriori knowledge-states of this channel have odd
+		// denominators, so they are never the conditions below
+		TwoCoinChannel channel = new TwoCoinChannel(new BigFraction(1, 3),
+				new BigFraction(2, 3));
+		List<List<ConditionalTwoCoinChannel>> informants =
+				new ArrayList<List<ConditionalTwoCoinChannel>>();
+		for (int t = 0; t < THREADS; t++) {
+			informants.add(new ArrayList<ConditionalTwoCoinChannel>());
+		}
+		for (int n = 1; n < 64; n += 2) {
+			BigFraction s = new BigFraction(n, 64);
+			expected.add(s, new BigFraction(1, 32));
+			k.add(s, new BigFraction(1, 32));
+			ConditionalTwoCoinChannel c = new ConditionalTwoCoinChannel(s,
+					channel);
+			expected.update(c);
+			informants.get(n % THREADS).add(c);
+		}
+		List<Runnable> tasks = new ArrayList<Runnable>();
+		for (final List<ConditionalTwoCoinChannel> list : informants) {
+			tasks.add(new Runnable() {
+				@Override
+				public void run() {
+					k.update(list);
+				}
+			});
+		}
+		runConcurrently(tasks);
+		Assert.assertTrue(k.checkInv());
+		Assert.assertEquals(BigFraction.ONE, k.weight());
+		KnowledgeDistribution snapshot = k.snapshot();
+		Assert.assertTrue(snapshot.checkInv());
+		Assert.assertEquals(expected, snapshot);
+		Assert.assertEquals(expected.toString(), k.toString());
+		Assert.assertEquals(expected, new ConcurrentKnowledgeDistribution(
+				expected).snapshot());
+	}
+
+	/**
+	 * Test that the weight of a distribution cannot be pushed above one.
+	 */
+	@Test(expected = InvalidKnowledgeDistributionException.class)
+	public void testAddInvalid() {
+		ConcurrentKnowledgeDistribution k = new ConcurrentKnowledgeDistribution(
+				new BigFraction(1, 2));
+		k.add(new BigFraction(1, 3), new BigFraction(1, 1024));
+	}
+
+	/**
+	 * Test that the likelihood of a knowledge-state cannot be subtracted
+	 * below zero.
+	 */
+	@Test(expected = InvalidKnowledgeDistributionException.class)
+	public void testSubtractInvalid() {
+		ConcurrentKnowledgeDistribution k = new ConcurrentKnowledgeDistribution(
+				new BigFraction(1, 2));
+		k.subtract(new BigFraction(1, 3), new BigFraction(1, 4));
+	}
+
+}
@@ -0,0 +1,832 @@
+package csse2002.security.test;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import csse2002.math.*;
+import csse2002.security.*;
+import java.io.*;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.BiConsumer;
+
+/**
+ * Basic tests for the {@link KnowledgeDistribution} class.
+ */
+public class KnowledgeDistributionTest {
+
+	// the seed of the random number generators of the randomized tests (so
+	// that their failures can be reproduced)
+	private final static long SEED = 2002;
+
+	/**
+	 * Returns the distribution of the example in the KnowledgeDistribution
+	 * documentation.
+	 */
+	private KnowledgeDistribution getDistribution() {
+		List<ConditionalTwoCoinChannel> informants =
+				new ArrayList<ConditionalTwoCoinChannel>();
+		informants.add(new ConditionalTwoCoinChannel(new BigFraction(1, 2),
+				new TwoCoinChannel(new BigFraction(3, 4), new BigFraction(1,
+						4))));
+		informants.add(new ConditionalTwoCoinChannel(new BigFraction(3, 4),
+				new TwoCoinChannel(new BigFraction(1, 3), new BigFraction(1,
+						2))));
+		return new KnowledgeDistribution(new BigFraction(1, 2), informants);
+	}
+
+	/**
+	 * Makes the same random modification to each of the given distributions,
+	 * which must all be equal: either removes all of the weight of a random
+	 * knowledge-state, or adds 1/1000 to it if that keeps the weight a
+	 * probability. Returns the knowledge-state modified.
+	 */
+	private BigFraction modifyRandomly(Random random,
+			KnowledgeDistribution... ks) {
+		BigFraction s = new BigFraction(random.nextInt(300), 299);
+		BigFraction p = new BigFraction(1, 1000);
+		if (random.nextInt(3) == 0) {
+			BigFraction w = ks[0].weight(s); // remove all of s
+			if (!w.equals(BigFraction.ZERO)) {
+				for (KnowledgeDistribution k : ks) {
+					k.subtract(s, w);
+				}
+			}
+		} else if (ks[0].weight().add(p).isAProbability()) {
+			for (KnowledgeDistribution k : ks) {
+				k.add(s, p);
+			}
+		}
+		return s;
+	}
+
+	/**
+	 * Returns a random two-coin channel, whose coins are multiples of 1/4.
+	 */
+	private TwoCoinChannel randomChannel(Random random) {
+		return new TwoCoinChannel(new BigFraction(random.nextInt(5), 4),
+				new BigFraction(random.nextInt(5), 4));
+	}
+
+	/**
+	 * Returns an informant with a random channel, conditioned on a random
+	 * knowledge-state in the (non-empty) support of k.
+	 */
+	private ConditionalTwoCoinChannel supportInformant(Random random,
+			KnowledgeDistribution k) {
+		List<BigFraction> support = new ArrayList<BigFraction>();
+		for (BigFraction s : k) {
+			support.add(s);
+		}
+		return new ConditionalTwoCoinChannel(support.get(random
+				.nextInt(support.size())), randomChannel(random));
+	}
+
+	/**
+	 * Test that distributions are equal (with equal hash codes) iff they
+	 * have the same knowledge-states with the same probabilities, however
+	 * they were built and stored.
+	 */
+	@Test
+	public void testEquals() {
+		KnowledgeDistribution k = getDistribution();
+		KnowledgeDistribution array = new KnowledgeDistribution(
+				KnowledgeDistribution.Storage.ARRAY);
+		List<BigFraction> states = new ArrayList<BigFraction>();
+		for (BigFraction s : k) {
+			states.add(s);
+		}
+		Collections.reverse(states);
+		for (BigFraction s : states) {
+			// (in two parts, so that the intermediate weights differ)
+			array.add(s, k.weight(s).divide(new BigFraction(3)));
+			array.add(s, k.weight(s).multiply(new BigFraction(2, 3)));
+		}
+		Assert.assertTrue(k.equals(array));
+		Assert.assertTrue(array.equals(k));
+		Assert.assertEquals(k.hashCode(), array.hashCode());
+		Assert.assertFalse(k.equals(null));
+		Assert.assertFalse(k.equals(k.toString()));
+
+		// a different probability
+		array.subtract(states.get(0), new BigFraction(1, 16));
+		Assert.assertFalse(k.equals(array));
+		array.add(states.get(0), new BigFraction(1, 16));
+		Assert.assertTrue(k.equals(array));
+		Assert.assertEquals(k.hashCode(), array.hashCode());
+
+		// the same probabilities, for different knowledge-states
+		KnowledgeDistribution a = new KnowledgeDistribution();
+		a.add(new BigFraction(1, 4), new BigFraction(1, 3));
+		a.add(new BigFraction(3, 4), new BigFraction(2, 3));
+		KnowledgeDistribution b = new KnowledgeDistribution();
+		b.add(new BigFraction(1, 4), new BigFraction(2, 3));
+		b.add(new BigFraction(3, 4), new BigFraction(1, 3));
+		Assert.assertFalse(a.equals(b));
+		Assert.assertTrue(a.equals(new KnowledgeDistribution(a)));
+		Assert.assertTrue(new KnowledgeDistribution()
+				.equals(new KnowledgeDistribution(
+						KnowledgeDistribution.Storage.ARRAY)));
+	}
+
+	/**
+	 * Test that the weight of a distribution is kept up to date by add,
+	 * subtract and update.
+	 */
+	@Test
+	public void testWeight() {
+		KnowledgeDistribution k = new KnowledgeDistribution();
+		Assert.assertEquals(BigFraction.ZERO, k.weight());
+		BigFraction expected = BigFraction.ZERO;
+		for (int i = 2; i <= 40; i++) {
+			BigFraction p = new BigFraction(1, i * (i + 1));
+			k.add(new BigFraction(1, i), p);
+			k.add(new BigFraction(i - 1, i), p);
+			expected = expected.add(p).add(p);
+			Assert.assertEquals(expected, k.weight());
+		}
+		k.subtract(new BigFraction(1, 2), new BigFraction(1, 12));
+		expected = expected.subtract(new BigFraction(1, 12));
+		Assert.assertEquals(expected, k.weight());
+		Assert.assertTrue(k.checkInv());
+
+		k.update(new ConditionalTwoCoinChannel(new BigFraction(1, 3),
+				new TwoCoinChannel(new BigFraction(3, 4), new BigFraction(1,
+						4))));
+		Assert.assertEquals(expected, k.weight());
+		Assert.assertEquals(expected, new KnowledgeDistribution(k).weight());
+		Assert.assertTrue(k.checkInv());
+		Assert.assertEquals(BigFraction.ONE, getDistribution().weight());
+	}
+
+	/**
+	 * Test that distributions with each kind of storage behave exactly like
+	 * those stored in trees, over enough insertions and removals to cause
+	 * merges of arrays, and that their copies are unaffected by later
+	 * modifications of the distributions they were copied from (and vice
+	 * versa), even when they share storage.
+	 */
+	@Test
+	public void testStorage() {
+		// the storage of distributions created without one
+		Assert.assertEquals(KnowledgeDistribution.Storage.PERSISTENT,
+				new KnowledgeDistribution().getStorage());
+		Assert.assertEquals(KnowledgeDistribution.Storage.PERSISTENT,
+				getDistribution().getStorage());
+		Assert.assertEquals(KnowledgeDistribution.Storage.PERSISTENT,
+				new KnowledgeDistribution(BigFraction.ONE).getStorage());
+
+		Random random = new Random(SEED);
+		for (KnowledgeDistribution.Storage storage :
+				KnowledgeDistribution.Storage.values()) {
+			KnowledgeDistribution tree = new KnowledgeDistribution(
+					KnowledgeDistribution.Storage.TREE);
+			KnowledgeDistribution k = new KnowledgeDistribution(storage);
+			Assert.assertEquals(storage, k.getStorage());
+			List<KnowledgeDistribution> copies =
+					new ArrayList<KnowledgeDistribution>();
+			List<String> expected = new ArrayList<String>();
+			for (int i = 0; i < 2000; i++) {
+				BigFraction s = modifyRandomly(random, tree, k);
+				Assert.assertEquals(tree.weight(s), k.weight(s));
+				if (i % 100 == 0) {
+					KnowledgeDistribution copy = new KnowledgeDistribution(k);
+					Assert.assertEquals(storage, copy.getStorage());
+					copies.add(copy);
+					expected.add(tree.toString());
+					// modify the copy, and then undo the modification
+					copy.add(s, new BigFraction(1, 1000));
+					copy.subtract(s, new BigFraction(1, 1000));
+				}
+			}
+			Assert.assertEquals(tree.toString(), k.toString());
+			Assert.assertTrue(k.checkInv());
+			for (int i = 0; i < copies.size(); i++) {
+				Assert.assertEquals(expected.get(i), copies.get(i).toString());
+				Assert.assertTrue(copies.get(i).checkInv());
+			}
+
+			// the entries returned by the entry iterator can be kept
+			List<Map.Entry<BigFraction, BigFraction>> treeEntries =
+					new ArrayList<Map.Entry<BigFraction, BigFraction>>();
+			List<Map.Entry<BigFraction, BigFraction>> entries =
+					new ArrayList<Map.Entry<BigFraction, BigFraction>>();
+			for (Iterator<Map.Entry<BigFraction, BigFraction>> i = tree
+					.entryIterator(); i.hasNext();) {
+				treeEntries.add(i.next());
+			}
+			for (Iterator<Map.Entry<BigFraction, BigFraction>> i = k
+					.entryIterator(); i.hasNext();) {
+				entries.add(i.next());
+			}
+			Assert.assertEquals(treeEntries, entries);
+
+			// updating a copy leaves the original unchanged
+			String before = k.toString();
+			KnowledgeDistribution copy = new KnowledgeDistribution(k);
+			List<BigFraction> states = new ArrayList<BigFraction>();
+			for (BigFraction s : tree) {
+				states.add(s);
+			}
+			for (BigFraction s : states) {
+				ConditionalTwoCoinChannel c = new ConditionalTwoCoinChannel(s,
+						new TwoCoinChannel(new BigFraction(3, 4),
+								new BigFraction(1, 4)));
+				tree.update(c);
+				copy.update(c);
+			}
+			Assert.assertEquals(tree.toString(), copy.toString());
+			Assert.assertEquals(storage, copy.getStorage());
+			Assert.assertTrue(copy.checkInv());
+			for (BigFraction s : tree) {
+				copy.subtract(s, copy.weight(s));
+			}
+			Assert.assertEquals(new KnowledgeDistribution(), copy);
+			Assert.assertTrue(copy.checkInv());
+			Assert.assertEquals(before, k.toString());
+		}
+	}
+
+	/**
+	 * Test that entry iteration, range iteration and forEach visit the same
+	 * (knowledge-state, probability) pairs as iterating over the
+	 * knowledge-states and looking up their probabilities.
+	 */
+	@Test
+	public void testEntryIteration() {
+		for (KnowledgeDistribution.Storage storage :
+				KnowledgeDistribution.Storage.values()) {
+			KnowledgeDistribution k = new KnowledgeDistribution(storage);
+			for (int i = 1; i <= 300; i++) {
+				k.add(new BigFraction(i % 50, 50 + i % 3), new BigFraction(1,
+						400));
+			}
+			final List<BigFraction> expected = new ArrayList<BigFraction>();
+			for (BigFraction s : k) {
+				expected.add(s);
+				expected.add(k.weight(s));
+			}
+
+			List<BigFraction> actual = new ArrayList<BigFraction>();
+			Iterator<Map.Entry<BigFraction, BigFraction>> it = k
+					.entryIterator();
+			while (it.hasNext()) {
+				Map.Entry<BigFraction, BigFraction> e = it.next();
+				actual.add(e.getKey());
+				actual.add(e.getValue());
+			}
+			Assert.assertEquals(expected, actual);
+
+			final List<BigFraction> visited = new ArrayList<BigFraction>();
+			k.forEach(new BiConsumer<BigFraction, BigFraction>() {
+				@Override
+				public void accept(BigFraction s, BigFraction w) {
+					visited.add(s);
+					visited.add(w);
+				}
+			});
+			Assert.assertEquals(expected, visited);
+
+			// range iteration from a state in the support, and from one that
+			// is not
+			BigFraction[] froms = { new BigFraction(3, 8),
+					new BigFraction(1, 3), BigFraction.ZERO, BigFraction.ONE };
+			for (BigFraction from : froms) {
+				List<BigFraction> tail = new ArrayList<BigFraction>();
+				for (int i = 0; i < expected.size(); i += 2) {
+					if (expected.get(i).compareTo(from) >= 0) {
+						tail.add(expected.get(i));
+					}
+				}
+				List<BigFraction> range = new ArrayList<BigFraction>();
+				it = k.entryIterator(from);
+				while (it.hasNext()) {
+					range.add(it.next().getKey());
+				}
+				Assert.assertEquals(tail, range);
+			}
+		}
+	}
+
+	/**
+	 * Test that updating with a list of informants gives exactly the same
+	 * distribution as updating with each informant in turn, with and without
+	 * a denominator limit.
+	 */
+	@Test
+	public void testBatchUpdate() {
+		Random random = new Random(SEED);
+		for (int limit = 0; limit <= 50; limit += 50) {
+			KnowledgeDistribution sequential = new KnowledgeDistribution(
+					new BigFraction(1, 2));
+			if (limit > 0) {
+				sequential.setDenominatorLimit(BigInteger.valueOf(limit));
+			}
+			KnowledgeDistribution initial = new KnowledgeDistribution(
+					sequential);
+			List<ConditionalTwoCoinChannel> informants =
+					new ArrayList<ConditionalTwoCoinChannel>();
+			for (int i = 0; i < 400; i++) {
+				// mostly informants conditioned on a state in the support
+				ConditionalTwoCoinChannel c = (random.nextInt(4) == 0
+						? new ConditionalTwoCoinChannel(new BigFraction(random
+								.nextInt(5), 4), randomChannel(random))
+						: supportInformant(random, sequential));
+				informants.add(c);
+				sequential.update(c);
+			}
+			for (KnowledgeDistribution.Storage storage :
+					KnowledgeDistribution.Storage.values()) {
+				KnowledgeDistribution batch = new KnowledgeDistribution(
+						storage);
+				for (BigFraction s : initial) {
+					batch.add(s, initial.weight(s));
+				}
+				batch.setDenominatorLimit(initial.getDenominatorLimit());
+				batch.update(informants);
+				Assert.assertEquals(sequential.toString(), batch.toString());
+				Assert.assertEquals(sequential.weight(), batch.weight());
+				Assert.assertTrue(batch.checkInv());
+			}
+		}
+	}
+
+	/**
+	 * Test that updating a distribution from an iterator, over more
+	 * informants than are applied in one batch, gives the same distribution
+	 * as updating it from a list.
+	 */
+	@Test
+	public void testIteratorUpdate() {
+		Random random = new Random(SEED);
+		List<ConditionalTwoCoinChannel> informants =
+				new ArrayList<ConditionalTwoCoinChannel>();
+		for (int i = 0; i < 3000; i++) {
+			informants.add(new ConditionalTwoCoinChannel(new BigFraction(
+					random.nextInt(50), 49), randomChannel(random)));
+		}
+		BigFraction aPriori = new BigFraction(12, 49);
+		KnowledgeDistribution expected = new KnowledgeDistribution(aPriori,
+				informants);
+		KnowledgeDistribution actual = new KnowledgeDistribution(aPriori,
+				informants.iterator());
+		Assert.assertEquals(expected.toString(), actual.toString());
+		Assert.assertTrue(actual.checkInv());
+
+		actual = new KnowledgeDistribution(aPriori);
+		actual.update(informants.subList(0, 1500));
+		actual.update(informants.subList(1500, 3000).iterator());
+		Assert.assertEquals(expected.toString(), actual.toString());
+	}
+
+	/**
+	 * Test that a parallel update gives exactly the same distribution as a
+	 * sequential one, for a distribution with a large support, some of which
+	 * is not affected by the informants.
+	 */
+	@Test
+	public void testParallelUpdate() {
+		Random random = new Random(SEED);
+		ForkJoinPool pool = new ForkJoinPool(4);
+		for (KnowledgeDistribution.Storage storage :
+				KnowledgeDistribution.Storage.values()) {
+			KnowledgeDistribution sequential = new KnowledgeDistribution(
+					storage);
+			for (int i = 0; i < 200; i++) {
+				sequential.add(new BigFraction(random.nextInt(100), 99),
+						new BigFraction(1, 400));
+			}
+			sequential.setDenominatorLimit(BigInteger.valueOf(200));
+			List<ConditionalTwoCoinChannel> informants =
+					new ArrayList<ConditionalTwoCoinChannel>();
+			for (int i = 0; i < 300; i++) {
+				informants.add(new ConditionalTwoCoinChannel(
+						new BigFraction(random.nextInt(80), 99),
+						randomChannel(random)));
+			}
+			KnowledgeDistribution parallel = new KnowledgeDistribution(
+					sequential);
+			sequential.update(informants);
+			parallel.update(informants, pool);
+			Assert.assertEquals(sequential.toString(), parallel.toString());
+			Assert.assertEquals(sequential.weight(), parallel.weight());
+			Assert.assertTrue(parallel.checkInv());
+		}
+		pool.shutdown();
+	}
+
+	/**
+	 * Test that plus, minus and mix give the same distributions as adding
+	 * and subtracting the weights of each knowledge-state in turn.
+	 */
+	@Test
+	public void testCombine() {
+		Random random = new Random(SEED);
+		for (KnowledgeDistribution.Storage storage :
+				KnowledgeDistribution.Storage.values()) {
+			KnowledgeDistribution a = new KnowledgeDistribution(storage);
+			KnowledgeDistribution b = new KnowledgeDistribution();
+			for (int i = 0; i < 200; i++) {
+				a.add(new BigFraction(random.nextInt(100), 99),
+						new BigFraction(1, 500));
+				b.add(new BigFraction(random.nextInt(100), 99),
+						new BigFraction(1, 400));
+			}
+			KnowledgeDistribution expected = new KnowledgeDistribution(a);
+			for (BigFraction s : b) {
+				expected.add(s, b.weight(s));
+			}
+			KnowledgeDistribution sum = new KnowledgeDistribution(a);
+			sum.plus(b);
+			Assert.assertEquals(expected.toString(), sum.toString());
+			Assert.assertEquals(storage, sum.getStorage());
+			Assert.assertTrue(sum.checkInv());
+
+			sum.minus(b);
+			Assert.assertEquals(a.toString(), sum.toString());
+			Assert.assertTrue(sum.checkInv());
+
+			BigFraction lambda = new BigFraction(2, 7);
+			expected = new KnowledgeDistribution(storage);
+			for (BigFraction s : a) {
+				expected.add(s, a.weight(s).multiply(lambda.complement()));
+			}
+			for (BigFraction s : b) {
+				expected.add(s, b.weight(s).multiply(lambda));
+			}
+			KnowledgeDistribution mixture = new KnowledgeDistribution(a);
+			mixture.mix(b, lambda);
+			Assert.assertEquals(expected.toString(), mixture.toString());
+			Assert.assertTrue(mixture.checkInv());
+			mixture.mix(b, BigFraction.ONE);
+			Assert.assertEquals(b.toString(), mixture.toString());
+			Assert.assertTrue(mixture.checkInv());
+		}
+	}
+
+	/**
+	 * Test that subtracting a distribution that is not contained in another
+	 * is invalid.
+	 */
+	@Test(expected = InvalidKnowledgeDistributionException.class)
+	public void testMinusInvalid() {
+		KnowledgeDistribution k = getDistribution();
+		KnowledgeDistribution other = new KnowledgeDistribution(
+				new BigFraction(1, 4));
+		other.mix(k, new BigFraction(1, 2));
+		k.minus(other);
+	}
+
+	/**
+	 * Test that a support limit bounds the support of a distribution after
+	 * every update, while preserving its weight and mean knowledge-state, and
+	 * that the same informants give the same distribution whether they are
+	 * applied one at a time or as a list.
+	 */
+	@Test
+	public void testSupportLimit() {
+		Random random = new Random(SEED);
+		BigFraction aPriori = new BigFraction(1, 3);
+		KnowledgeDistribution k = new KnowledgeDistribution(aPriori);
+		k.setSupportLimit(20);
+		Assert.assertEquals(20, k.getSupportLimit());
+		List<ConditionalTwoCoinChannel> informants =
+				new ArrayList<ConditionalTwoCoinChannel>();
+		for (int i = 0; i < 500; i++) {
+			ConditionalTwoCoinChannel c = supportInformant(random, k);
+			informants.add(c);
+			k.update(c);
+			Assert.assertTrue(countStates(k) <= 20);
+		}
+		Assert.assertEquals(BigFraction.ONE, k.weight());
+		BigFraction mean = BigFraction.ZERO;
+		for (BigFraction s : k) {
+			mean = mean.add(s.multiply(k.weight(s)));
+		}
+		Assert.assertEquals(aPriori, mean);
+		Assert.assertTrue(k.getSupportError().compareTo(BigFraction.ZERO) > 0);
+		Assert.assertTrue(k.checkInv());
+
+		KnowledgeDistribution list = new KnowledgeDistribution(aPriori);
+		list.setSupportLimit(20);
+		list.update(informants);
+		Assert.assertEquals(k, list);
+		Assert.assertEquals(k.getSupportError(), list.getSupportError());
+
+		// setting a limit merges knowledge-states immediately
+		list.setSupportLimit(4);
+		Assert.assertEquals(3, countStates(list));
+		Assert.assertEquals(BigFraction.ONE, list.weight());
+		Assert.assertTrue(list.getSupportError().compareTo(
+				k.getSupportError()) > 0);
+		Assert.assertTrue(list.checkInv());
+	}
+
+	/**
+	 * Returns the number of knowledge-states in the support of k.
+	 */
+	private int countStates(KnowledgeDistribution k) {
+		int count = 0;
+		for (BigFraction s : k) {
+			count++;
+		}
+		return count;
+	}
+
+	/**
+	 * Test that range weights, quantiles and means agree with sums over the
+	 * support, for each kind of storage, as the distribution is modified.
+	 */
+	@Test
+	public void testRangeStatistics() {
+		Random random = new Random(SEED);
+		for (KnowledgeDistribution.Storage storage :
+				KnowledgeDistribution.Storage.values()) {
+			KnowledgeDistribution k = new KnowledgeDistribution(storage);
+			for (int i = 0; i < 300; i++) {
+				modifyRandomly(random, k);
+				BigFraction lo = new BigFraction(random.nextInt(100), 99);
+				BigFraction hi = new BigFraction(random.nextInt(100), 99);
+				BigFraction q = new BigFraction(random.nextInt(11), 10);
+				// the expected statistics, summed over the support
+				BigFraction inRange = BigFraction.ZERO;
+				BigFraction moment = BigFraction.ZERO;
+				BigFraction cumulative = BigFraction.ZERO;
+				BigFraction quantile = null;
+				for (BigFraction t : k) {
+					if (t.compareTo(lo) >= 0 && t.compareTo(hi) <= 0) {
+						inRange = inRange.add(k.weight(t));
+					}
+					moment = moment.add(t.multiply(k.weight(t)));
+					cumulative = cumulative.add(k.weight(t));
+					if (quantile == null && cumulative.compareTo(q
+							.multiply(k.weight())) >= 0) {
+						quantile = t;
+					}
+				}
+				Assert.assertEquals(inRange, k.weightInRange(lo, hi));
+				if (!k.weight().equals(BigFraction.ZERO)) {
+					Assert.assertEquals(quantile, k.quantile(q));
+					Assert.assertEquals(moment.divide(k.weight()), k.mean());
+				}
+			}
+			Assert.assertEquals(k.weight(), k.weightInRange(BigFraction.ZERO,
+					BigFraction.ONE));
+		}
+
+		// updates preserve the mean
+		KnowledgeDistribution k = getDistribution();
+		Assert.assertEquals(new BigFraction(1, 2), k.mean());
+		Assert.assertEquals(new BigFraction(1, 4), k.quantile(new BigFraction(
+				1, 2)));
+		Assert.assertEquals(new BigFraction(2, 3), k.quantile(new BigFraction(
+				2, 3)));
+		k.update(new ConditionalTwoCoinChannel(new BigFraction(4, 5),
+				new TwoCoinChannel(new BigFraction(1, 2), new BigFraction(1,
+						5))));
+		Assert.assertEquals(new BigFraction(1, 2), k.mean());
+	}
+
+	/**
+	 * Test that the leakage metrics of a distribution agree with sums over
+	 * its support, for each kind of storage, as informants split its
+	 * knowledge-states.
+	 */
+	@Test
+	public void testLeakageMetrics() {
+		KnowledgeDistribution point = new KnowledgeDistribution(
+				new BigFraction(1, 2));
+		Assert.assertEquals(0.5, point.bayesVulnerability(), 1e-12);
+		Assert.assertEquals(1.0, point.minEntropy(), 1e-12);
+		Assert.assertEquals(1.0, point.shannonEntropy(), 1e-12);
+
+		Random random = new Random(SEED);
+		for (KnowledgeDistribution.Storage storage :
+				KnowledgeDistribution.Storage.values()) {
+			KnowledgeDistribution k = new KnowledgeDistribution(storage);
+			k.add(new BigFraction(2, 5), BigFraction.ONE);
+			for (int i = 0; i < 200; i++) {
+				k.update(supportInformant(random, k));
+				BigFraction vulnerability = BigFraction.ZERO;
+				double entropy = 0;
+				for (BigFraction s : k) {
+					BigFraction max = (s.compareTo(s.complement()) >= 0 ? s
+							: s.complement());
+					vulnerability = vulnerability.add(max.multiply(k
+							.weight(s)));
+					double p = s.getDoubleValue();
+					if (p > 0 && p < 1) {
+						entropy -= k.weight(s).getDoubleValue()
+								* (p * Math.log(p) + (1 - p) * Math.log(1 - p))
+								/ Math.log(2);
+					}
+				}
+				Assert.assertEquals(vulnerability.getDoubleValue(), k
+						.bayesVulnerability(), 1e-12);
+				Assert.assertEquals(-Math.log(vulnerability.getDoubleValue())
+						/ Math.log(2), k.minEntropy(), 1e-12);
+				Assert.assertEquals(entropy, k.shannonEntropy(), 1e-12);
+			}
+			Assert.assertTrue(k.checkInv());
+		}
+	}
+
+	/**
+	 * Test that a distribution survives a round trip through its binary
+	 * representation, both through a DataOutput and through a ByteBuffer.
+	 */
+	@Test
+	public void testBinaryRoundTrip() throws IOException {
+		KnowledgeDistribution k = getDistribution();
+		k.setDenominatorLimit(BigInteger.valueOf(1000));
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		k.writeTo(new DataOutputStream(bytes));
+		Assert.assertEquals(k.encodedSize(), bytes.size());
+		KnowledgeDistribution read = KnowledgeDistribution
+				.readFrom(new DataInputStream(new ByteArrayInputStream(bytes
+						.toByteArray())));
+		Assert.assertEquals(k.toString(), read.toString());
+		Assert.assertEquals(k.getDenominatorLimit(), read
+				.getDenominatorLimit());
+		Assert.assertTrue(read.checkInv());
+
+		ByteBuffer buffer = ByteBuffer.allocate(k.encodedSize());
+		k.writeTo(buffer);
+		Assert.assertFalse(buffer.hasRemaining());
+		buffer.flip();
+		read = KnowledgeDistribution.readFrom(buffer);
+		Assert.assertEquals(k.toString(), read.toString());
+		Assert.assertEquals(k.getDenominatorLimit(), read
+				.getDenominatorLimit());
+
+		KnowledgeDistribution empty = new KnowledgeDistribution();
+		buffer = ByteBuffer.allocate(empty.encodedSize());
+		empty.writeTo(buffer);
+		buffer.flip();
+		Assert.assertEquals("{}", KnowledgeDistribution.readFrom(buffer)
+				.toString());
+	}
+
+	/**
+	 * Test that reading a distribution whose weight exceeds one fails.
+	 */
+	@Test(expected = IOException.class)
+	public void testReadInvalidWeight() throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(64);
+		buffer.putInt(2);
+		FractionCodec.write(buffer, new BigFraction(1, 4));
+		FractionCodec.write(buffer, new BigFraction(2, 3));
+		FractionCodec.write(buffer, new BigFraction(3, 4));
+		FractionCodec.write(buffer, new BigFraction(2, 3));
+		buffer.put((byte) 0);
+		buffer.flip();
+		KnowledgeDistribution.readFrom(buffer);
+	}
+
+	/**
+	 * Test that reading a truncated distribution fails.
+	 */
+	@Test(expected = IOException.class)
+	public void testReadTruncated() throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		getDistribution().writeTo(new DataOutputStream(bytes));
+		byte[] truncated = Arrays.copyOf(bytes.toByteArray(), bytes.size() - 2);
+		KnowledgeDistribution.readFrom(new DataInputStream(
+				new ByteArrayInputStream(truncated)));
+	}
+
+	/**
+	 * Test that writing a distribution to an Appendable gives its string
+	 * representation, in parts of bounded size.
+	 */
+	@Test
+	public void testWriteToAppendable() throws IOException {
+		KnowledgeDistribution k = getDistribution();
+		StringWriter writer = new StringWriter();
+		k.writeTo(writer);
+		Assert.assertEquals(k.toString(), writer.toString());
+		StringBuilder sb = new StringBuilder();
+		new KnowledgeDistribution().writeTo(sb);
+		Assert.assertEquals("{}", sb.toString());
+
+		int n = 10000;
+		k = new KnowledgeDistribution();
+		for (int i = 0; i < n; i++) {
+			k.add(new BigFraction(i, n), new BigFraction(1, n));
+		}
+		final List<Integer> parts = new ArrayList<Integer>();
+		final StringBuilder written = new StringBuilder();
+		k.writeTo(new Appendable() {
+			@Override
+			public Appendable append(CharSequence csq) {
+				parts.add(csq.length());
+				written.append(csq);
+				return this;
+			}
+
+			@Override
+			public Appendable append(CharSequence csq, int start, int end) {
+				return append(csq.subSequence(start, end));
+			}
+
+			@Override
+			public Appendable append(char c) {
+				return append(String.valueOf(c));
+			}
+		});
+		Assert.assertEquals(k.toString(), written.toString());
+		Assert.assertTrue(parts.size() > 1);
+		Assert.assertTrue(Collections.max(parts) < 10000);
+	}
+
+	/**
+	 * Test that a distribution restored from a checkpoint (spanning several
+	 * mapped chunks) equals the original, and goes on to behave like it when
+	 * both are modified.
+	 */
+	@Test
+	public void testCheckpoint() throws IOException {
+		int n = 70000; // more than one chunk of knowledge-states
+		KnowledgeDistribution k = new KnowledgeDistribution();
+		for (int i = 0; i < n; i++) {
+			k.add(new BigFraction(i, n), new BigFraction(1, n + 1));
+		}
+		k.setDenominatorLimit(BigInteger.valueOf(1000000));
+		File file = File.createTempFile("checkpoint", ".kd");
+		file.deleteOnExit();
+		k.checkpoint(file);
+		KnowledgeDistribution restored = KnowledgeDistribution.restore(file);
+		Assert.assertEquals(k.weight(), restored.weight());
+		Assert.assertEquals(k.getDenominatorLimit(), restored
+				.getDenominatorLimit());
+		Assert.assertEquals(k.bayesVulnerability(), restored
+				.bayesVulnerability(), 0);
+		Assert.assertEquals(k.weight(new BigFraction(123, n)), restored
+				.weight(new BigFraction(123, n)));
+		Assert.assertEquals(BigFraction.ZERO, restored.weight(new BigFraction(
+				1, n + 1)));
+		Assert.assertTrue(restored.checkInv());
+		Assert.assertEquals(k, restored);
+
+		// modify both, and a copy of the restored distribution
+		KnowledgeDistribution copy = new KnowledgeDistribution(restored);
+		for (KnowledgeDistribution d : new KnowledgeDistribution[] { k,
+				restored }) {
+			d.subtract(BigFraction.ZERO, new BigFraction(1, n + 1));
+			d.subtract(new BigFraction(n - 1, n), new BigFraction(1, n + 1));
+			d.add(new BigFraction(1, n + 1), new BigFraction(1, n + 1));
+			d.update(new ConditionalTwoCoinChannel(new BigFraction(1, 2),
+					new TwoCoinChannel(new BigFraction(3, 4), new BigFraction(
+							1, 4))));
+		}
+		Assert.assertTrue(restored.checkInv());
+		Assert.assertEquals(k, restored);
+		Assert.assertEquals(k.toString(), restored.toString());
+		Assert.assertEquals(k.quantile(new BigFraction(1, 3)), restored
+				.quantile(new BigFraction(1, 3)));
+		Assert.assertFalse(copy.equals(restored));
+		Assert.assertEquals(KnowledgeDistribution.restore(file), copy);
+
+		// the leakage metrics of k are now kept, and so are those restored
+		// from a checkpoint of k
+		k.checkpoint(file);
+		restored = KnowledgeDistribution.restore(file);
+		for (KnowledgeDistribution d : new KnowledgeDistribution[] { k,
+				restored }) {
+			d.update(new ConditionalTwoCoinChannel(new BigFraction(1, n + 1),
+					new TwoCoinChannel(new BigFraction(1, 3),
+							BigFraction.ONE)));
+		}
+		Assert.assertEquals(k.bayesVulnerability(), restored
+				.bayesVulnerability(), 0);
+		Assert.assertEquals(k.shannonEntropy(), restored.shannonEntropy(), 0);
+
+		// overwriting the checkpoint
+		KnowledgeDistribution empty = new KnowledgeDistribution();
+		empty.checkpoint(file);
+		Assert.assertEquals(empty, KnowledgeDistribution.restore(file));
+		Assert.assertFalse(new File(file.getPath() + ".tmp").exists());
+	}
+
+	/**
+	 * Test that restoring a file that is not a checkpoint throws an
+	 * IOException.
+	 */
+	@Test(expected = IOException.class)
+	public void testRestoreInvalid() throws IOException {
+		File file = File.createTempFile("checkpoint", ".kd");
+		file.deleteOnExit();
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		getDistribution().writeTo(new DataOutputStream(bytes));
+		FileOutputStream out = new FileOutputStream(file);
+		try {
+			out.write(bytes.toByteArray());
+		} finally {
+			out.close();
+		}
+		KnowledgeDistribution.restore(file);
+	}
+
+}
@@ -70,6 +70,33 @@ public class SpyMasterTest {
 				SpyMaster.readInformants("input3.txt");
 	}
 
+	// TESTS for updateFromFile
+
+	/**
+	 * Test that updating a distribution from a file gives the same
+	 * distribution as reading the file and then updating it.
+	 */
+	@Test
+	public void testUpdateFromFile() throws FileFormatException, IOException {
+		KnowledgeDistribution expected = new KnowledgeDistribution(
+				new BigFraction(1, 2), SpyMaster.readInformants("input1.txt"));
+		KnowledgeDistribution actual = new KnowledgeDistribution(
+				new BigFraction(1, 2));
+		SpyMaster.updateFromFile("input1.txt", actual);
+		Assert.assertEquals(expected, actual);
+	}
+
+	/**
+	 * Test updating a distribution from a poorly-formatted file of
+	 * informants.
+	 */
+	@Test(expected = FileFormatException.class)
+	public void testUpdateFromFileFormatError() throws FileFormatException,
+			IOException {
+		SpyMaster.updateFromFile("input2.txt", new KnowledgeDistribution(
+				new BigFraction(1, 2)));
+	}
+
 	// TESTS for findInformants
 
 	/**
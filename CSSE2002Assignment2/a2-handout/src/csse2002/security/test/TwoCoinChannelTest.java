@@ -0,0 +1,60 @@
+package csse2002.security.test;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import csse2002.math.*;
+import csse2002.security.*;
+import java.util.*;
+
+/**
+ * Basic tests for the {@link TwoCoinChannel} class.
+ */
+public class TwoCoinChannelTest {
+
+	/**
+	 * Test that the batch channel formulas give the same results as the
+	 * formulas for a single a priori probability.
+	 */
+	@Test
+	public void testBatchEvaluation() {
+		TwoCoinChannel[] channels = {
+				new TwoCoinChannel(new BigFraction(3, 4),
+						new BigFraction(1, 4)),
+				new TwoCoinChannel(BigFraction.ONE, BigFraction.ZERO),
+				new TwoCoinChannel(BigFraction.ZERO, new BigFraction(2, 5)) };
+		List<BigFraction> priors = new ArrayList<BigFraction>();
+		for (int m = 1; m <= 20; m++) {
+			for (int n = 0; n <= m; n++) {
+				priors.add(new BigFraction(n, m));
+			}
+		}
+		FractionVector aPriori = new FractionVector(priors);
+		for (TwoCoinChannel c : channels) {
+			for (boolean outcome : new boolean[] { true, false }) {
+				FractionVector q = c.outcomeProbability(aPriori, outcome);
+				FractionVector s = c.aPosteriori(aPriori, outcome);
+				for (int i = 0; i < priors.size(); i++) {
+					Assert.assertEquals(c.outcomeProbability(priors.get(i),
+							outcome), q.get(i));
+					Assert.assertEquals(c.aPosteriori(priors.get(i), outcome),
+							s.get(i));
+				}
+			}
+		}
+		Assert.assertEquals(priors, aPriori.toList());
+	}
+
+	/**
+	 * Test that the batch channel formulas reject a priori values that are
+	 * not probabilities.
+	 */
+	@Test(expected = InvalidProbabilityException.class)
+	public void testBatchInvalidProbability() {
+		TwoCoinChannel c = new TwoCoinChannel(new BigFraction(3, 4),
+				new BigFraction(1, 4));
+		c.outcomeProbability(new FractionVector(Arrays
+				.asList(new BigFraction(3, 2))), true);
+	}
+
+}
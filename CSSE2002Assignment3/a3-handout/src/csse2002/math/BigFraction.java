@@ -2,6 +2,7 @@ package csse2002.math;
 
 import java.math.BigInteger;
 import java.math.BigDecimal;
+import java.util.*;
 
 /**
  * <p>
@@ -24,6 +25,24 @@ public class BigFraction implements Comparable<BigFraction> {
 	/** The fraction constant one. */
 	public final static BigFraction ONE = new BigFraction(1);
 
+	// the largest denominator of the fractions pre-seeded in SEEDED
+	private final static int SEEDED_DENOMINATOR = 12;
+	// SEEDED[m][n] is the fraction n/m, for every fraction in reduced normal
+	// form with 0 <= n <= m <= SEEDED_DENOMINATOR (other entries are null)
+	private final static BigFraction[][] SEEDED = seed();
+	// the maximum number of fractions held in CACHE
+	private final static int CACHE_SIZE = 1024;
+	// canonical instances of recently requested fractions, keyed by their
+	// reduced numerator and denominator (see key), in least-recently-used
+	// order so that the eldest entry is evicted once CACHE_SIZE is exceeded
+	private final static Map<Long, BigFraction> CACHE = new LinkedHashMap<Long, BigFraction>(
+			CACHE_SIZE * 4 / 3 + 1, 0.75f, true) {
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Long, BigFraction> e) {
+			return size() > CACHE_SIZE;
+		}
+	};
+
 	// fraction numerator in reduced normal form
 	private BigInteger n;
 	// fraction denominator in reduced normal form
@@ -62,6 +81,108 @@ public class BigFraction implements Comparable<BigFraction> {
 		this(BigInteger.valueOf(numerator), BigInteger.valueOf(denominator));
 	}
 
+	/**
+	 * Returns a fraction with value equivalent to numerator. Unlike the
+	 * constructor, this method may return a shared instance.
+	 * 
+	 * @param numerator
+	 *            The given numerator.
+	 * @return A fraction equal to numerator.
+	 */
+	public static BigFraction valueOf(int numerator) {
+		return valueOf(numerator, 1);
+	}
+
+	/**
+	 * Returns a fraction with value equivalent to numerator divided by
+	 * denominator. Unlike the constructor, this method may return a shared
+	 * instance: fractions in [0,1] with small denominators are always shared,
+	 * and other recently requested fractions are shared while they remain in a
+	 * bounded cache. An InvalidFractionException is thrown if the given
+	 * denominator is zero.
+	 * 
+	 * @param numerator
+	 *            The given numerator.
+	 * @param denominator
+	 *            The given denominator.
+	 * @return A fraction equal to numerator divided by denominator.
+	 * @throws InvalidFractionException
+	 *             If the given denominator equals 0.
+	 */
+	public static BigFraction valueOf(int numerator, int denominator)
+			throws InvalidFractionException {
+		if (denominator == 0) {
+			throw new InvalidFractionException("Denominator cannot be zero.");
+		}
+		// reduced normal form of numerator/denominator (which cannot overflow
+		// a long)
+		long n = numerator, m = denominator;
+		if (n == 0) {
+			m = 1;
+		} else {
+			if (m < 0) {
+				m = -m;
+				n = -n;
+			}
+			long d = gcd(n, m); // the gcd of n and m
+			n = n / d;
+			m = m / d;
+		}
+		if (n >= 0 && n <= m && m <= SEEDED_DENOMINATOR) {
+			return SEEDED[(int) m][(int) n];
+		}
+		if (n != (int) n || m != (int) m) {
+			// n or m is 2^31 (from Integer.MIN_VALUE), which has no key
+			return new BigFraction(numerator, denominator);
+		}
+		Long key = key(n, m); // the key of n/m in CACHE
+		synchronized (CACHE) {
+			BigFraction f = CACHE.get(key);
+			if (f == null) {
+				f = new BigFraction((int) n, (int) m);
+				CACHE.put(key, f);
+			}
+			return f;
+		}
+	}
+
+	/**
+	 * Returns the CACHE key for int-valued numerator n and denominator m.
+	 */
+	private static Long key(long n, long m) {
+		return Long.valueOf((n << 32) | (m & 0xffffffffL));
+	}
+
+	/**
+	 * Returns the table of pre-seeded fractions (see SEEDED).
+	 */
+	private static BigFraction[][] seed() {
+		BigFraction[][] seeded = new BigFraction[SEEDED_DENOMINATOR + 1][];
+		for (int m = 1; m <= SEEDED_DENOMINATOR; m++) {
+			seeded[m] = new BigFraction[m + 1];
+			for (int n = 0; n <= m; n++) {
+				if (gcd(n, m) == 1) {
+					// share the existing constants for zero and one
+					seeded[m][n] = (m == 1 ? (n == 0 ? ZERO : ONE)
+							: new BigFraction(n, m));
+				}
+			}
+		}
+		return seeded;
+	}
+
+	/**
+	 * Returns the greatest common divisor of a and b, where b is positive.
+	 */
+	private static long gcd(long a, long b) {
+		while (b != 0) {
+			long t = a % b;
+			a = b;
+			b = t;
+		}
+		return Math.abs(a);
+	}
+
 	/**
 	 * Creates a new fraction in reduced normal form, with value equivalent to n
 	 * divided by m. An InvalidFractionException is thrown if the given
@@ -244,6 +365,9 @@ public class BigFraction implements Comparable<BigFraction> {
 			return false;
 		}
 		BigFraction f = (BigFraction) o;
+		if (f == this) {
+			return true;
+		}
 		return n.equals(f.n) && m.equals(f.m);
 	}
 
@@ -263,6 +387,9 @@ public class BigFraction implements Comparable<BigFraction> {
 	 */
 	@Override
 	public int compareTo(BigFraction f) {
+		if (f == this) {
+			return 0;
+		}
 		// numerator of this on common denominator m * f.m
 		BigInteger cn1 = n.multiply(f.m);
 		// numerator of f on common denominator m * f.m
@@ -102,7 +102,8 @@ public class InformantsReader {
 		s.useDelimiter("/");
 		int numerator = getNumerator(s); // the numerator of probability
 		int denominator = getDenominator(s); // the denominator of probability
-		BigFraction p = new BigFraction(numerator, denominator); // probability
+		// probability (shared with other readers of the same value)
+		BigFraction p = BigFraction.valueOf(numerator, denominator);
 		if (!p.isAProbability()) {
 			throw new InvalidProbabilityException();
 		}
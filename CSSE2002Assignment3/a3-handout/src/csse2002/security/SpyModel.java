@@ -92,10 +92,12 @@ public class SpyModel {
 	 * true, otherwise they guess false.
 	 */
 	public boolean guessSecret() {
-		// Guess the secret. If knowledgeState is larger than 1/2 return true
-		// and vice versa
+		// Guess the secret. If knowledgeState is at least 1/2 (that is, true
+		// is at least as likely as false) return true and vice versa
+		// (compared exactly, since a double approximation can land on the
+		// wrong side of 1/2, or be NaN for huge fractions)
 		boolean guess;
-		if (knowledgeState.getDoubleValue() >= 0.5) {
+		if (knowledgeState.compareTo(knowledgeState.complement()) >= 0) {
 			knowledgeState = BigFraction.ONE;
 			guess = true;
 		} else {